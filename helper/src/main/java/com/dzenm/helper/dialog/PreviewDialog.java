@@ -16,8 +16,13 @@ import androidx.appcompat.app.AppCompatActivity;
 import com.dzenm.helper.draw.DrawableHelper;
 import com.dzenm.helper.log.Logger;
 import com.dzenm.helper.os.ScreenHelper;
+import com.dzenm.helper.view.DefaultImageLoader;
 import com.dzenm.helper.view.ImageLoader;
+import com.dzenm.helper.view.ImageZoomHelper;
 import com.dzenm.helper.view.RatioImageView;
+import com.dzenm.helper.view.TiledImageDrawable;
+
+import java.io.File;
 
 /**
  * @author dzenm
@@ -61,6 +66,10 @@ public class PreviewDialog extends AbsDialogFragment implements View.OnTouchList
     private PointF mMidPointF, mLastZoomMovePointF;
     private OnLongClickListener mOnLongClickListener;
 
+    private boolean isTiled = false;
+    private TiledImageDrawable mTiledDrawable;
+    private ImageZoomHelper mImageZoomHelper;
+
 
     public static PreviewDialog newInstance(AppCompatActivity activity) {
         return new PreviewDialog(activity);
@@ -70,6 +79,10 @@ public class PreviewDialog extends AbsDialogFragment implements View.OnTouchList
         super(activity);
     }
 
+    /**
+     * @param imageLoader 图片加载的方式, 不设置时使用 {@link DefaultImageLoader}
+     * @return this
+     */
     public PreviewDialog setImageLoader(ImageLoader imageLoader) {
         mImageLoader = imageLoader;
         return this;
@@ -80,6 +93,16 @@ public class PreviewDialog extends AbsDialogFragment implements View.OnTouchList
         return this;
     }
 
+    /**
+     * @param tiled 图片是本地文件时是否分块解码, 用于很大的图片, 先显示屏幕大小的底图,
+     *              放大时只解码可见区域的图块, 见 {@link TiledImageDrawable}. 其它图片仍然使用 {@link ImageLoader}
+     * @return this
+     */
+    public PreviewDialog setTiled(boolean tiled) {
+        isTiled = tiled;
+        return this;
+    }
+
     public PreviewDialog setOnLongClickListener(OnLongClickListener onLongClickListener) {
         mOnLongClickListener = onLongClickListener;
         return this;
@@ -93,8 +116,10 @@ public class PreviewDialog extends AbsDialogFragment implements View.OnTouchList
     @Override
     protected View inflater(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
         RelativeLayout relativeLayout = new RelativeLayout(mActivity);
+        // 分块解码时通过ImageMatrix缩放, ImageView需要占满整个屏幕
         RelativeLayout.LayoutParams imageParams = new RelativeLayout.LayoutParams(
-                RelativeLayout.LayoutParams.MATCH_PARENT, RelativeLayout.LayoutParams.WRAP_CONTENT);
+                RelativeLayout.LayoutParams.MATCH_PARENT, isTiled
+                ? RelativeLayout.LayoutParams.MATCH_PARENT : RelativeLayout.LayoutParams.WRAP_CONTENT);
         imageParams.addRule(RelativeLayout.CENTER_IN_PARENT);
         mImageView = new RatioImageView(mActivity);
         mImageView.setLayoutParams(imageParams);
@@ -110,11 +135,47 @@ public class PreviewDialog extends AbsDialogFragment implements View.OnTouchList
     @Override
     public void onStart() {
         super.onStart();
-        mImageLoader.onLoader(mImageView, mImage);
+        String path = getTiledPath();
+        if (path != null) {
+            if (mTiledDrawable == null) {
+                mTiledDrawable = new TiledImageDrawable(path);
+                mImageZoomHelper = new ImageZoomHelper();
+                mImageView.setImageDrawable(mTiledDrawable);
+            }
+            return;
+        }
+        getImageLoader().onLoader(mImageView, mImage);
+    }
+
+    private ImageLoader getImageLoader() {
+        return mImageLoader == null ? DefaultImageLoader.getInstance() : mImageLoader;
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (mTiledDrawable != null) {
+            mTiledDrawable.recycle();
+            mTiledDrawable = null;
+            mImageZoomHelper = null;
+        } else if (getImageLoader() == DefaultImageLoader.getInstance()) {
+            DefaultImageLoader.getInstance().clearAll(mImageView);
+        }
+    }
+
+    /**
+     * @return 分块解码的图片路径, 不分块解码或者不是本地文件时返回null
+     */
+    private String getTiledPath() {
+        if (!isTiled) return null;
+        if (mImage instanceof File) return ((File) mImage).isFile() ? ((File) mImage).getPath() : null;
+        if (mImage instanceof String && new File((String) mImage).isFile()) return (String) mImage;
+        return null;
     }
 
     @Override
     public boolean onTouch(View v, MotionEvent event) {
+        if (mImageZoomHelper != null) return onTiledTouch(event);
         int actionMasked = event.getActionMasked(); // 获得多点触控检测点
         switch (actionMasked) {
             case MotionEvent.ACTION_DOWN:
@@ -223,6 +284,34 @@ public class PreviewDialog extends AbsDialogFragment implements View.OnTouchList
         return true;
     }
 
+    /**
+     * 分块解码时由 {@link ImageZoomHelper} 缩放和移动, 没有移动和缩放的单击关闭dialog
+     */
+    private boolean onTiledTouch(MotionEvent event) {
+        mImageZoomHelper.onTouchEvent(mImageView, event);
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mMode = MODE_NONE;
+                mTouchDownX = (int) event.getX();
+                mTouchDownY = (int) event.getY();
+                break;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                mMode = MODE_ZOOM;
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (mMode == MODE_NONE && (Math.abs(event.getX() - mTouchDownX) > 40
+                        || Math.abs(event.getY() - mTouchDownY) > 40)) {
+                    mMode = MODE_MOVE;
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+                if (mMode == MODE_NONE) dismiss();
+                mMode = MODE_NONE;
+                break;
+        }
+        return true;
+    }
+
     /**
      * 设置图片滑动缩放的动画
      *
@@ -116,6 +116,16 @@ public class UpGradeDialog extends AbsDialogFragment implements View.OnClickList
         return this;
     }
 
+    /**
+     * @param algorithm      安装包的摘要算法, 例: SHA-256, MD5
+     * @param expectedDigest 安装包的十六进制摘要值, 校验失败时不安装
+     * @return this
+     */
+    public UpGradeDialog setDigest(String algorithm, String expectedDigest) {
+        mDownloadHelper.setDigest(algorithm, expectedDigest);
+        return this;
+    }
+
     /**
      * @param versionName 下载的新版本名称
      * @return this
@@ -0,0 +1,28 @@
+package com.dzenm.helper.download;
+
+import androidx.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * @author dzenm
+ * @date 2020-03-02 10:12
+ */
+@IntDef({DownloadEngine.ENGINE_DOWNLOAD_MANAGER,
+        DownloadEngine.ENGINE_SEGMENT
+})
+@Retention(RetentionPolicy.SOURCE)
+public @interface DownloadEngine {
+
+    /**
+     * 使用系统的DownloadManager下载, 每个文件只有一个连接, 由系统负责通知栏显示。这是默认的參数值。
+     */
+    int ENGINE_DOWNLOAD_MANAGER = 0;
+
+    /**
+     * 使用多连接分段下载 {@link SegmentDownloader}, 按HTTP Range将文件拆分为多个分段并发下载,
+     * 直接写入预分配的文件, 不需要合并。服务器不支持Range时自动退化为单连接下载。
+     */
+    int ENGINE_SEGMENT = 1;
+}
@@ -5,14 +5,15 @@ import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.DownloadManager;
 import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Environment;
 import android.os.Message;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.text.TextUtils;
 
@@ -28,6 +29,8 @@ import com.dzenm.helper.task.WeakHandler;
 import com.dzenm.helper.toast.ToastHelper;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * @author dinzhenyan
@@ -37,6 +40,7 @@ import java.io.File;
  *        .setUrl(url)
  *        .setFilePath(Environment.getExternalStorageDirectory().getPath())
  *        .download();
+ * 使用多连接分段下载时设置 .setEngine(DownloadEngine.ENGINE_SEGMENT)
  * 需要添加网络权限和存储权限
  * <uses-permission android:name="android.permission.INTERNET" />
  * <uses-permission android:name="android.permission.WRITE_EXTERNAL_STORAGE" />
@@ -52,6 +56,8 @@ public class DownloadHelper {
     private static final long DOWNLOAD_ERROR_ID = -1L;
     private static final int DOWNLOAD_PROGRESS = 1001;
     private static final int DOWNLOAD_FAILED = 1002;
+    private static final int DOWNLOAD_SUCCESS = 1003;
+    private static final int DOWNLOAD_PAUSED = 1004;
 
     /**
      * 保存Download ID的shared_prefs文件名称
@@ -115,6 +121,33 @@ public class DownloadHelper {
     private @NotificationType
     int mNotificationType = NotificationType.NOTIFICATION_VISIBLE_NOTIFY_COMPLETED;
 
+    /**
+     * 下载使用的引擎 {@link #setEngine(int)}, 默认使用系统的DownloadManager
+     */
+    private @DownloadEngine
+    int mEngine = DownloadEngine.ENGINE_DOWNLOAD_MANAGER;
+
+    /**
+     * 分段下载的最大连接数 {@link #setSegmentCount(int)}, 仅在 {@link DownloadEngine#ENGINE_SEGMENT} 时有效
+     */
+    private int mSegmentCount = 3;
+
+    /**
+     * 分段下载器 {@link SegmentDownloader}
+     */
+    private SegmentDownloader mSegmentDownloader;
+
+    /**
+     * 每秒最多回调下载进度的次数 {@link #setMaxProgressRate(int)}
+     */
+    private int mMaxProgressRate = 10;
+
+    /**
+     * 下载文件的摘要算法和期望的摘要值 {@link #setDigest(String, String)}
+     */
+    private String mDigestAlgorithm;
+    private String mExpectedDigest;
+
     public static DownloadHelper newInstance(Context context) {
         return new DownloadHelper(context);
     }
@@ -178,6 +211,47 @@ public class DownloadHelper {
         return this;
     }
 
+    /**
+     * @param engine 下载使用的引擎  {@link #mEngine}
+     * @return this
+     */
+    public DownloadHelper setEngine(@DownloadEngine int engine) {
+        mEngine = engine;
+        return this;
+    }
+
+    /**
+     * @param segmentCount 分段下载的最大连接数  {@link #mSegmentCount}
+     * @return this
+     */
+    public DownloadHelper setSegmentCount(int segmentCount) {
+        mSegmentCount = segmentCount;
+        return this;
+    }
+
+    /**
+     * @param maxProgressRate 每秒最多回调下载进度的次数  {@link #mMaxProgressRate}
+     * @return this
+     */
+    public DownloadHelper setMaxProgressRate(int maxProgressRate) {
+        mMaxProgressRate = Math.max(1, maxProgressRate);
+        return this;
+    }
+
+    /**
+     * 设置下载文件的摘要, 下载完成后校验失败时删除文件并回调 {@link OnDownloadListener#onFailed(String)}.
+     * 分段下载时在写入数据的同时计算摘要, 使用DownloadManager下载时在后台线程中校验
+     *
+     * @param algorithm      摘要算法, 例: SHA-256, MD5
+     * @param expectedDigest 期望的十六进制摘要值
+     * @return this
+     */
+    public DownloadHelper setDigest(String algorithm, String expectedDigest) {
+        mDigestAlgorithm = algorithm;
+        mExpectedDigest = expectedDigest;
+        return this;
+    }
+
     /**
      * @param onDownloadListener 下载监听回调  {@link #mOnDownloadListener}
      * @return this
@@ -233,14 +307,26 @@ public class DownloadHelper {
                 mFilePath = FileHelper.getInstance().getFile("/apk").getPath() + File.separator + mVersionName;
             }
 
-            String filePath = (String) SPHelper.getInstance().get(DOWNLOAD_PREF, mVersionName, "");
+            // 只记录下载完成的文件, 未完成的分段下载由下载日志记录, 重新下载时从断点继续
+            String filePath = SPHelper.getInstance().getString(DOWNLOAD_PREF, mVersionName, "");
             if (TextUtils.isEmpty(filePath)) {
                 downloadFile();
             } else {
-                File file = new File(filePath);
+                final File file = new File(filePath);
                 if (file.exists() && file.isFile()) {
                     Logger.d(TAG + "已下载过文件, 版本号: " + mVersionName + ", 文件路径" + filePath);
-                    downloadApkFileSuccessCallback(mContext, FileHelper.getInstance().getUri(file));
+                    verifyDigest(file, null, new Runnable() {
+                        @Override
+                        public void run() {
+                            downloadApkFileSuccessCallback(mContext, FileHelper.getInstance().getUri(file));
+                        }
+                    }, new Runnable() {
+                        @Override
+                        public void run() {
+                            // 已下载的文件已损坏, 重新下载
+                            downloadFile();
+                        }
+                    });
                 } else {
                     downloadFile();
                 }
@@ -252,10 +338,27 @@ public class DownloadHelper {
         }
     }
 
+    /**
+     * 暂停下载, 仅在 {@link DownloadEngine#ENGINE_SEGMENT} 时有效, 已下载的数据会保留,
+     * 再次调用 {@link #download()} 时从断点继续下载
+     */
+    public void pause() {
+        if (mSegmentDownloader != null) {
+            mSegmentDownloader.pause();
+            mSegmentDownloader = null;
+            isRunningDownload = false;
+        }
+    }
+
     /**
      * 取消下载
      */
     public void cancel() {
+        if (mSegmentDownloader != null) {
+            mSegmentDownloader.cancel();
+            mSegmentDownloader = null;
+            isRunningDownload = false;
+        }
         removeDownloadManager();
     }
 
@@ -311,19 +414,79 @@ public class DownloadHelper {
      * 下载文件
      */
     private void downloadFile() {
+        if (mEngine == DownloadEngine.ENGINE_SEGMENT) {
+            downloadSegmentFile();
+            return;
+        }
         registerDownloadBroadcast();
         if (isDownloadManager()) {
             // 先清空之前的下载
             if (mDownloadId != DOWNLOAD_DEFAULT_ID) removeTask(mDownloadId);
             Logger.i(TAG + "已注册下载监听广播, 开始下载...");
-            mHandler.post(mRunnable);
             mDownloadId = enqueue(getRequest(mUrl));
             Logger.i(TAG + "下载任务Download ID: " + mDownloadId);
+            if (mDownloadId != DOWNLOAD_ERROR_ID) startProgressSampler();
         } else {
             loadBrowserDownload();
         }
     }
 
+    /**
+     * 使用多连接分段下载文件, 回调在下载线程中执行, 通过mHandler切换到主线程
+     */
+    private void downloadSegmentFile() {
+        if (mSegmentDownloader != null) mSegmentDownloader.cancel();
+        if (TextUtils.isEmpty(mFilePath)) {
+            mFilePath = mContext.getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS).getPath();
+        }
+        File file = new File(mFilePath, mFileName);
+        if (SegmentDownloader.isResumable(file)) {
+            Logger.i(TAG + "存在未完成的下载, 从断点继续下载: " + file.getPath());
+        } else {
+            Logger.i(TAG + "开始分段下载, 下载文件存储目录: " + file.getPath());
+        }
+        isRunningDownload = true;
+        mSegmentDownloader = new SegmentDownloader(mUrl, file)
+                .setSegmentCount(mSegmentCount)
+                .setDigest(mDigestAlgorithm, mExpectedDigest)
+                .setOnSegmentListener(new SegmentDownloader.OnSegmentListener() {
+                    @Override
+                    public void onProgress(long total, long soFar) {
+                        if (total > 0) dispatchProgress(soFar, total);
+                    }
+
+                    @Override
+                    public void onSuccess(File file) {
+                        mHandler.obtainMessage(DOWNLOAD_SUCCESS, file).sendToTarget();
+                    }
+
+                    @Override
+                    public void onFailed(String msg) {
+                        Logger.e(TAG + msg);
+                        mHandler.obtainMessage(DOWNLOAD_FAILED, msg).sendToTarget();
+                    }
+                }).start();
+    }
+
+    /**
+     * 分段下载完成, 保存文件路径. 设置了摘要时 {@link SegmentDownloader} 已经在写入时校验过
+     *
+     * @param file 下载完成的文件
+     */
+    private void onSegmentDownloadFinished(File file) {
+        Logger.d(TAG + "分段下载完成: " + file.getPath());
+        flushProgress();
+        mSegmentDownloader = null;
+        isRunningDownload = false;
+        SPHelper.getInstance().put(DOWNLOAD_PREF, mVersionName, file.getPath());
+        Uri uri = FileHelper.getInstance().getUri(file);
+        if (file.getName().endsWith(".apk")) {
+            downloadApkFileSuccessCallback(mContext, uri);
+        } else {
+            downloadFileSuccessCallback(uri);
+        }
+    }
+
     /**
      * 如果DownloadManager不可用, 调用浏览器下载
      */
@@ -367,8 +530,8 @@ public class DownloadHelper {
      * 移除下载任务, 移除进度查询， 取消广播的注册
      */
     private void removeDownloadManager() {
-        // 移除查询下载进度执行事件
-        mHandler.removeCallbacks(mRunnable);
+        // 停止查询下载进度
+        stopProgressSampler();
         unregisterDownloadBroadcas();
         Logger.i(TAG + "移除下载任务, 移除进度查询, 取消注册下载监听广播");
     }
@@ -420,27 +583,36 @@ public class DownloadHelper {
         public void handleMessage(Message msg) {
             super.handleMessage(msg);
             if (msg.what == DOWNLOAD_PROGRESS) {
-                long[] fileSize = (long[]) msg.obj;
-                int current = (int) (100 * fileSize[0] / fileSize[1]);
-                if (mOnDownloadListener != null)
-                    mOnDownloadListener.onProgress(fileSize[1], fileSize[0], current);
+                deliverProgress();
             } else if (msg.what == DOWNLOAD_FAILED) {
+                if (mSegmentDownloader != null) {
+                    mSegmentDownloader = null;
+                    isRunningDownload = false;
+                }
                 removeDownloadManager();
                 setDownloadFailed((String) msg.obj);
+            } else if (msg.what == DOWNLOAD_SUCCESS) {
+                onSegmentDownloadFinished((File) msg.obj);
+            } else if (msg.what == DOWNLOAD_PAUSED) {
+                removeDownloadManager();
             }
         }
     };
 
     /**
-     * 执行查询下载任务
+     * 查询DownloadManager下载进度的后台采样器 {@link DownloadProgressSampler}
      */
-    private final Runnable mRunnable = new Runnable() {
-        @Override
-        public void run() {
-            getDownloadManagerQueryStatus();
-            mHandler.post(mRunnable);
-        }
-    };
+    private DownloadProgressSampler mProgressSampler;
+
+    /**
+     * 最新的下载进度 [已下载的大小, 文件大小], 等待合并后传递给主线程
+     */
+    private volatile long[] mPendingProgress;
+
+    /**
+     * 上一次回调下载进度的时间
+     */
+    private volatile long mLastProgressTime;
 
     /**
      * 下载进度值，执行查询次数过多，对进度值相同，不进行消息传送
@@ -453,17 +625,71 @@ public class DownloadHelper {
     private int mStatus = 1001;
 
     /**
-     * 查询下载状态
+     * 合并下载进度, 在任意线程调用, 每秒最多回调 {@link #mMaxProgressRate} 次
+     * {@link OnDownloadListener#onProgress(long, long, int)}, 只保留最新的进度
+     *
+     * @param soFar 已经下载的大小
+     * @param total 文件大小
+     */
+    private void dispatchProgress(long soFar, long total) {
+        mPendingProgress = new long[]{soFar, total};
+        if (mHandler.hasMessages(DOWNLOAD_PROGRESS)) return;
+        long delay = mLastProgressTime + 1000 / mMaxProgressRate - SystemClock.uptimeMillis();
+        mHandler.sendEmptyMessageDelayed(DOWNLOAD_PROGRESS, Math.max(0, delay));
+    }
+
+    /**
+     * 在主线程回调最新的下载进度
+     */
+    private void deliverProgress() {
+        long[] fileSize = mPendingProgress;
+        mPendingProgress = null;
+        if (fileSize == null || fileSize[1] <= 0) return;
+        mLastProgressTime = SystemClock.uptimeMillis();
+        int current = (int) (100 * fileSize[0] / fileSize[1]);
+        if (mOnDownloadListener != null)
+            mOnDownloadListener.onProgress(fileSize[1], fileSize[0], current);
+    }
+
+    /**
+     * 下载完成前, 立即回调还未传递的下载进度
+     */
+    private void flushProgress() {
+        mHandler.removeMessages(DOWNLOAD_PROGRESS);
+        deliverProgress();
+    }
+
+    /**
+     * 开始在后台线程查询下载状态
+     */
+    private void startProgressSampler() {
+        stopProgressSampler();
+        mDownloadValue = 0;
+        mProgressSampler = new DownloadProgressSampler(mContext, mDownloadId,
+                new DownloadProgressSampler.OnSampleListener() {
+                    @Override
+                    public void onSample(int status, int reason, long soFar, long total) {
+                        handleDownloadStatus(status, reason, soFar, total);
+                    }
+                });
+        mProgressSampler.start();
+    }
+
+    /**
+     * 停止查询下载状态
      */
-    private void getDownloadManagerQueryStatus() {
-        DownloadManager.Query query = new DownloadManager.Query().setFilterById(mDownloadId);
-        // 通过ID向下载管理查询下载情况，返回一个cursor
-        Cursor cursor = mDownloadManager.query(query);
-        if (cursor == null) return;
-        if (!cursor.moveToFirst()) return;
+    private void stopProgressSampler() {
+        if (mProgressSampler != null) {
+            mProgressSampler.stop();
+            mProgressSampler = null;
+        }
+    }
 
+    /**
+     * 处理下载状态, 在采样器的后台线程中执行
+     */
+    private void handleDownloadStatus(int status, int reason, long soFar, long total) {
         String msg = "下载失败:";
-        int status = cursor.getInt(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_STATUS));
         if (status == DownloadManager.STATUS_PENDING) {
             if (mStatus != status) {
                 Logger.i(TAG + "等待下载");
@@ -471,44 +697,31 @@ public class DownloadHelper {
             }
 
         } else if (status == DownloadManager.STATUS_RUNNING) {      // 查询下载进度
-            // 以下是从游标中进行信息提取
-            long downloadSoFar = cursor.getLong(cursor.getColumnIndex(DownloadManager.COLUMN_BYTES_DOWNLOADED_SO_FAR));
-            long downloadTotalSize = cursor.getLong(cursor.getColumnIndex(DownloadManager.COLUMN_TOTAL_SIZE_BYTES));
-
-            if (downloadTotalSize == -1) return;
-            if (mDownloadValue == downloadSoFar) return;
+            if (total == -1) return;
+            if (mDownloadValue == soFar) return;
 
-            Logger.i(TAG + "正在下载进度: " + downloadSoFar);
-            Logger.i(TAG + "总文件大小: " + downloadTotalSize);
-
-            Message message = Message.obtain();
-            message.what = DOWNLOAD_PROGRESS;
-
-            long[] fileSize = new long[2];
-            fileSize[0] = downloadSoFar;
-            fileSize[1] = downloadTotalSize;
-            message.obj = fileSize;
+            if (Logger.isLoggable(Logger.INFO)) {
+                Logger.i(TAG + "正在下载进度: " + soFar);
+                Logger.i(TAG + "总文件大小: " + total);
+            }
 
-            mHandler.sendMessage(message);
-            mDownloadValue = downloadSoFar;
+            dispatchProgress(soFar, total);
+            mDownloadValue = soFar;
 
         } else if (status == DownloadManager.STATUS_PAUSED) {         // 查看下载暂停的原因
             if (mStatus != status) {
                 mStatus = status;
 
-                // 以下是从游标中进行信息提取
-                String title = cursor.getString(cursor.getColumnIndex(DownloadManager.COLUMN_TITLE));
-                int reason = cursor.getInt(cursor.getColumnIndex(DownloadManager.COLUMN_REASON));
                 if (reason == DownloadManager.PAUSED_QUEUED_FOR_WIFI) {
-                    msg = title + ": 等待连接Wi-Fi网络";
+                    msg = mFileName + ": 等待连接Wi-Fi网络";
                 } else if (reason == DownloadManager.PAUSED_WAITING_FOR_NETWORK) {
-                    msg = title + ": 等待连接网络";
+                    msg = mFileName + ": 等待连接网络";
                 } else if (reason == DownloadManager.PAUSED_WAITING_TO_RETRY) {
-                    msg = title + ": 等待重试...";
+                    msg = mFileName + ": 等待重试...";
                 }
             }
             Logger.e(TAG + "下载暂停: " + msg);
-            removeDownloadManager();
+            mHandler.sendEmptyMessage(DOWNLOAD_PAUSED);
         } else if (status == DownloadManager.STATUS_SUCCESSFUL) {
             if (mStatus != status) {
                 Logger.i(TAG + "下载成功");
@@ -518,7 +731,6 @@ public class DownloadHelper {
             if (mStatus == status) return;
             mStatus = status;
 
-            int reason = cursor.getInt(cursor.getColumnIndex(DownloadManager.COLUMN_REASON));
             if (reason == DownloadManager.ERROR_FILE_ERROR) {
                 msg = "文件错误";
             } else if (reason == DownloadManager.ERROR_UNHANDLED_HTTP_CODE) {
@@ -539,12 +751,8 @@ public class DownloadHelper {
                 msg = "未知错误";
             }
             Logger.e(TAG + "下载失败: " + msg);
-            Message message = Message.obtain();
-            message.what = DOWNLOAD_FAILED;
-            message.obj = msg;
-            mHandler.sendMessage(message);
+            mHandler.obtainMessage(DOWNLOAD_FAILED, msg).sendToTarget();
         }
-        if (!cursor.isClosed()) cursor.close();
     }
 
     /**
@@ -588,19 +796,40 @@ public class DownloadHelper {
         Logger.d(TAG + "接收下载文件的ID: " + id);
         Logger.d(TAG + "接收下载文件uri: " + uri);
 
+        stopProgressSampler();
+        flushProgress();
         if (uri != null) {
-            String type = downloadManager.getMimeTypeForDownloadedFile(id);    // 下载文件的ID
-            // 保存文件的ID和存储路径
-            SPHelper.getInstance().put(DOWNLOAD_PREF, mFileName, id);
-            SPHelper.getInstance().put(DOWNLOAD_PREF, mVersionName,
-                    FileHelper.getInstance().getRealFilePath(uri));
-
-            // 当下载文件类型为安装版类型时, 进入安装APK界面
-            if (FileType.MIME_TYPE.equals(type)) {
-                downloadApkFileSuccessCallback(context, uri);
-            } else {
-                downloadFileSuccessCallback(uri);
-            }
+            final Context ctx = context;
+            final Uri fileUri = uri;
+            final String type = downloadManager.getMimeTypeForDownloadedFile(id);    // 下载文件的ID
+            final long downloadId = id;
+            final DownloadManager manager = downloadManager;
+            // content://的Uri可能无法转换为文件路径, 校验时直接读取Uri
+            verifyDigest(null, uri, new Runnable() {
+                @Override
+                public void run() {
+                    // 保存文件的ID和存储路径, 无法获取路径时不保存, 下次重新下载
+                    SPHelper.getInstance().put(DOWNLOAD_PREF, mFileName, downloadId);
+                    String filePath = FileHelper.getInstance().getRealFilePath(fileUri);
+                    if (!TextUtils.isEmpty(filePath)) {
+                        SPHelper.getInstance().put(DOWNLOAD_PREF, mVersionName, filePath);
+                    }
+
+                    // 当下载文件类型为安装版类型时, 进入安装APK界面
+                    if (FileType.MIME_TYPE.equals(type)) {
+                        downloadApkFileSuccessCallback(ctx, fileUri);
+                    } else {
+                        downloadFileSuccessCallback(fileUri);
+                    }
+                }
+            }, new Runnable() {
+                @Override
+                public void run() {
+                    // 删除下载任务的同时删除下载的文件
+                    manager.remove(downloadId);
+                    setDownloadFailed("文件校验失败");
+                }
+            });
         } else {
             setDownloadFailed("下载失败, 网络错误");
         }
@@ -609,6 +838,51 @@ public class DownloadHelper {
         removeDownloadManager();
     }
 
+    /**
+     * 在后台线程中校验文件摘要, 未设置摘要时直接通过, 不读取文件. 校验失败时删除本地文件
+     *
+     * @param file       需要校验的文件, 为null时通过ContentResolver读取uri
+     * @param uri        file为null时需要校验的Uri
+     * @param onVerified 校验通过, 在主线程执行
+     * @param onMismatch 校验失败, 在主线程执行
+     */
+    private void verifyDigest(final File file, final Uri uri, final Runnable onVerified, final Runnable onMismatch) {
+        if (mDigestAlgorithm == null || mExpectedDigest == null) {
+            onVerified.run();
+            return;
+        }
+        final String algorithm = mDigestAlgorithm;
+        final String expectedDigest = mExpectedDigest;
+        final ContentResolver resolver = mContext.getContentResolver();
+        SegmentDownloader.getDefaultExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                String digest = file == null ? digest(resolver, uri, algorithm)
+                        : FileHelper.getInstance().digest(file, algorithm);
+                if (expectedDigest.equalsIgnoreCase(digest)) {
+                    mHandler.post(onVerified);
+                } else {
+                    Logger.e(TAG + "文件校验失败, 期望: " + expectedDigest + ", 实际: " + digest);
+                    if (file != null) file.delete();
+                    SPHelper.getInstance().remove(DOWNLOAD_PREF, mVersionName);
+                    mHandler.post(onMismatch);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Uri对应的文件的摘要, 无法读取时返回""
+     */
+    private static String digest(ContentResolver resolver, Uri uri, String algorithm) {
+        try (InputStream ins = resolver.openInputStream(uri)) {
+            if (ins != null) return FileHelper.getInstance().digest(ins, algorithm);
+        } catch (IOException | SecurityException e) {
+            e.printStackTrace();
+        }
+        return "";
+    }
+
     /**
      * APK文件下载成功的回调
      *
@@ -0,0 +1,168 @@
+package com.dzenm.helper.download;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * @author dzenm
+ * @date 2020-03-03 16:40
+ * <p>
+ * 分段下载的日志文件, 与下载文件位于同一目录, 名称为 {下载文件名}.journal. 记录下载的url、文件大小、
+ * ETag、Last-Modified 以及每个分段已经同步到磁盘的位置. 先写入临时文件并同步到磁盘, 再重命名覆盖,
+ * 文件末尾带有CRC32校验, 进程在任意时刻被杀死都不会读到不完整的日志
+ */
+class DownloadJournal {
+
+    private static final int MAGIC = 0x444A4E4C;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".journal";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mFile;
+
+    private String mUrl;
+    private long mLength;
+    private String mETag;
+    private String mLastModified;
+    private final List<SegmentDownloader.Segment> mSegments = new ArrayList<>();
+
+    DownloadJournal(File target) {
+        mFile = new File(target.getPath() + SUFFIX);
+    }
+
+    String getUrl() {
+        return mUrl;
+    }
+
+    long getLength() {
+        return mLength;
+    }
+
+    String getETag() {
+        return mETag;
+    }
+
+    String getLastModified() {
+        return mLastModified;
+    }
+
+    List<SegmentDownloader.Segment> getSegments() {
+        return mSegments;
+    }
+
+    /**
+     * @param url          下载文件的url
+     * @param length       文件总大小
+     * @param eTag         响应头中的ETag
+     * @param lastModified 响应头中的Last-Modified
+     */
+    void setResource(String url, long length, String eTag, String lastModified) {
+        mUrl = url;
+        mLength = length;
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    /**
+     * @return 用于If-Range条件请求的校验值, 弱ETag不能用于Range请求, 此时使用Last-Modified
+     */
+    String getValidator() {
+        if (mETag != null && !mETag.startsWith("W/")) return mETag;
+        return mLastModified;
+    }
+
+    boolean exists() {
+        return mFile.exists();
+    }
+
+    /**
+     * 读取日志文件, 文件不存在、版本不一致或校验失败时返回false
+     */
+    boolean load() {
+        if (!mFile.exists()) return false;
+        byte[] data = new byte[(int) mFile.length()];
+        try (FileInputStream fis = new FileInputStream(mFile)) {
+            int offset = 0, read;
+            while (offset < data.length && (read = fis.read(data, offset, data.length - offset)) != -1) {
+                offset += read;
+            }
+            if (offset != data.length || data.length < 8) return false;
+
+            CRC32 crc32 = new CRC32();
+            crc32.update(data, 0, data.length - 8);
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) return false;
+            mUrl = dis.readUTF();
+            mLength = dis.readLong();
+            mETag = readNullableUTF(dis);
+            mLastModified = readNullableUTF(dis);
+            int count = dis.readInt();
+            mSegments.clear();
+            for (int i = 0; i < count; i++) {
+                long start = dis.readLong(), end = dis.readLong(), position = dis.readLong();
+                mSegments.add(new SegmentDownloader.Segment(start, end, position));
+            }
+            return dis.readLong() == crc32.getValue();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 保存日志, 调用前必须先将已写入的数据同步到磁盘, 记录的位置才是可靠的
+     *
+     * @param segments 所有分段
+     */
+    void save(List<SegmentDownloader.Segment> segments) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeUTF(mUrl);
+        dos.writeLong(mLength);
+        writeNullableUTF(dos, mETag);
+        writeNullableUTF(dos, mLastModified);
+        dos.writeInt(segments.size());
+        for (SegmentDownloader.Segment segment : segments) {
+            dos.writeLong(segment.start);
+            dos.writeLong(segment.end);
+            dos.writeLong(segment.position);
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(bos.toByteArray());
+        dos.writeLong(crc32.getValue());
+        dos.flush();
+
+        File temp = new File(mFile.getPath() + TEMP_SUFFIX);
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            bos.writeTo(fos);
+            fos.getFD().sync();
+        }
+        if (!temp.renameTo(mFile)) {
+            throw new IOException("重命名日志文件失败: " + mFile.getPath());
+        }
+    }
+
+    void delete() {
+        mFile.delete();
+        new File(mFile.getPath() + TEMP_SUFFIX).delete();
+    }
+
+    private static String readNullableUTF(DataInputStream dis) throws IOException {
+        return dis.readBoolean() ? dis.readUTF() : null;
+    }
+
+    private static void writeNullableUTF(DataOutputStream dos, String value) throws IOException {
+        dos.writeBoolean(value != null);
+        if (value != null) dos.writeUTF(value);
+    }
+}
@@ -0,0 +1,152 @@
+package com.dzenm.helper.download;
+
+import android.app.DownloadManager;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+/**
+ * @author dzenm
+ * @date 2020-03-04 11:05
+ * <p>
+ * 在后台线程中查询 {@link DownloadManager} 的下载进度. 监听下载记录的 {@link ContentObserver}, 数据变更时
+ * 立即查询(两次查询之间至少间隔 {@link #MIN_INTERVAL}), 同时保留定时查询作为兜底, 下载进度没有变化时
+ * 查询间隔逐渐加倍, 直到 {@link #MAX_INTERVAL}. 只有下载进度或状态变化时才回调
+ */
+public class DownloadProgressSampler {
+
+    private static final long MIN_INTERVAL = 200;
+    private static final long MAX_INTERVAL = 3000;
+    private static final Uri DOWNLOADS_URI = Uri.parse("content://downloads/my_downloads");
+
+    private final Context mContext;
+    private final DownloadManager mDownloadManager;
+    private final long mDownloadId;
+    private final OnSampleListener mOnSampleListener;
+
+    private volatile HandlerThread mHandlerThread;
+    private Handler mHandler;
+    private ContentObserver mContentObserver;
+
+    private long mInterval = MIN_INTERVAL;
+    private long mLastSampleTime;
+    private long mLastSoFar = -1;
+    private int mLastStatus = -1;
+
+    public DownloadProgressSampler(Context context, long downloadId, OnSampleListener listener) {
+        mContext = context.getApplicationContext();
+        mDownloadManager = (DownloadManager) mContext.getSystemService(Context.DOWNLOAD_SERVICE);
+        mDownloadId = downloadId;
+        mOnSampleListener = listener;
+    }
+
+    /**
+     * 开始查询下载进度
+     */
+    public void start() {
+        if (mHandlerThread != null) return;
+        mHandlerThread = new HandlerThread("download-progress");
+        mHandlerThread.start();
+        mHandler = new Handler(mHandlerThread.getLooper());
+        mContentObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                requestSample();
+            }
+        };
+        try {
+            mContext.getContentResolver().registerContentObserver(
+                    ContentUris.withAppendedId(DOWNLOADS_URI, mDownloadId), true, mContentObserver);
+        } catch (SecurityException e) {
+            // 部分ROM不允许监听下载记录, 只使用定时查询
+            mContentObserver = null;
+        }
+        mHandler.post(mSampleRunnable);
+    }
+
+    /**
+     * 停止查询下载进度
+     */
+    public void stop() {
+        if (mHandlerThread == null) return;
+        if (mContentObserver != null) {
+            mContext.getContentResolver().unregisterContentObserver(mContentObserver);
+            mContentObserver = null;
+        }
+        mHandler.removeCallbacks(mSampleRunnable);
+        mHandlerThread.quitSafely();
+        mHandlerThread = null;
+    }
+
+    /**
+     * 下载记录变更, 重置查询间隔, 合并短时间内的多次变更
+     */
+    private void requestSample() {
+        mInterval = MIN_INTERVAL;
+        mHandler.removeCallbacks(mSampleRunnable);
+        long delay = mLastSampleTime + MIN_INTERVAL - SystemClock.uptimeMillis();
+        mHandler.postDelayed(mSampleRunnable, Math.max(0, delay));
+    }
+
+    private final Runnable mSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (sample() && mHandlerThread != null) {
+                mHandler.postDelayed(this, mInterval);
+            }
+        }
+    };
+
+    /**
+     * 查询一次下载状态
+     *
+     * @return 下载是否仍在进行
+     */
+    private boolean sample() {
+        mLastSampleTime = SystemClock.uptimeMillis();
+        DownloadManager.Query query = new DownloadManager.Query().setFilterById(mDownloadId);
+        try (Cursor cursor = mDownloadManager.query(query)) {
+            if (cursor == null || !cursor.moveToFirst()) {
+                mInterval = Math.min(mInterval * 2, MAX_INTERVAL);
+                return true;
+            }
+            int status = cursor.getInt(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_STATUS));
+            int reason = cursor.getInt(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_REASON));
+            long soFar = cursor.getLong(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_BYTES_DOWNLOADED_SO_FAR));
+            long total = cursor.getLong(cursor.getColumnIndexOrThrow(DownloadManager.COLUMN_TOTAL_SIZE_BYTES));
+
+            if (soFar == mLastSoFar && status == mLastStatus) {
+                // 进度没有变化, 逐渐降低查询频率
+                mInterval = Math.min(mInterval * 2, MAX_INTERVAL);
+            } else {
+                mInterval = MIN_INTERVAL;
+                mLastSoFar = soFar;
+                mLastStatus = status;
+                mOnSampleListener.onSample(status, reason, soFar, total);
+            }
+            return status != DownloadManager.STATUS_SUCCESSFUL && status != DownloadManager.STATUS_FAILED;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            mInterval = MAX_INTERVAL;
+            return true;
+        }
+    }
+
+    public interface OnSampleListener {
+
+        /**
+         * 下载进度或状态发生变化, 在后台线程中回调
+         *
+         * @param status 下载状态, 例: {@link DownloadManager#STATUS_RUNNING}
+         * @param reason 暂停或失败的原因, 例: {@link DownloadManager#PAUSED_QUEUED_FOR_WIFI}
+         * @param soFar  已经下载的大小
+         * @param total  文件大小, 未知时为-1
+         */
+        void onSample(int status, int reason, long soFar, long total);
+    }
+}
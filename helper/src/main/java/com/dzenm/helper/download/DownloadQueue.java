@@ -0,0 +1,455 @@
+package com.dzenm.helper.download;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.IntDef;
+
+import com.dzenm.helper.log.Logger;
+
+import java.io.File;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * @author dzenm
+ * @date 2020-03-05 09:30
+ * <pre>
+ * DownloadQueue.getInstance()
+ *        .setMaxRunning(3)
+ *        .setMaxPerHost(2)
+ *        .enqueue(url, file, DownloadQueue.PRIORITY_PREFETCH, listener);
+ * </pre>
+ * 下载队列, 使用 {@link SegmentDownloader} 执行下载. url和存储位置都相同的请求合并为同一个下载任务,
+ * 回调所有的监听. 限制全局和每个host同时下载的任务数量, 用户可见的下载优先于预加载, 全局下载数量已满时,
+ * 用户可见的下载会暂停正在进行的预加载(保留断点, 稍后继续), 防止预加载影响前台下载
+ */
+public class DownloadQueue {
+
+    private static final String TAG = DownloadQueue.class.getSimpleName() + "| ";
+
+    /**
+     * 两次进度回调之间的最小间隔
+     */
+    private static final long PROGRESS_INTERVAL = 100;
+
+    /**
+     * 用户可见的下载, 例如应用升级
+     */
+    public static final int PRIORITY_USER_VISIBLE = 0;
+
+    /**
+     * 预加载, 只在空闲时下载
+     */
+    public static final int PRIORITY_PREFETCH = 1;
+
+    @IntDef({PRIORITY_USER_VISIBLE, PRIORITY_PREFETCH})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Priority {
+    }
+
+    private static volatile DownloadQueue sInstance;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 所有未完成的任务, key为 url + 存储位置
+     */
+    private final Map<String, Task> mTasks = new HashMap<>();
+    private final List<Task> mPending = new ArrayList<>();
+    private final List<Task> mRunning = new ArrayList<>();
+    private final Map<String, Integer> mHostRunning = new HashMap<>();
+
+    private int mMaxRunning = 3;
+    private int mMaxPerHost = 2;
+    private int mMaxPrefetch = 1;
+    private int mSegmentCount = 2;
+    private long mSequence;
+
+    /**
+     * 统计下载的数据量和有任务下载的时长
+     */
+    private long mTotalBytes;
+    private long mBusyMillis;
+    private long mBusySince;
+    private int mCompletedCount;
+    private int mFailedCount;
+
+    private DownloadQueue() {
+    }
+
+    public static DownloadQueue getInstance() {
+        if (sInstance == null) synchronized (DownloadQueue.class) {
+            if (sInstance == null) sInstance = new DownloadQueue();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param maxRunning 全局同时下载的最大任务数量
+     * @return this
+     */
+    public synchronized DownloadQueue setMaxRunning(int maxRunning) {
+        mMaxRunning = Math.max(1, maxRunning);
+        schedule();
+        return this;
+    }
+
+    /**
+     * @param maxPerHost 每个host同时下载的最大任务数量
+     * @return this
+     */
+    public synchronized DownloadQueue setMaxPerHost(int maxPerHost) {
+        mMaxPerHost = Math.max(1, maxPerHost);
+        schedule();
+        return this;
+    }
+
+    /**
+     * @param maxPrefetch 同时下载的最大预加载任务数量
+     * @return this
+     */
+    public synchronized DownloadQueue setMaxPrefetch(int maxPrefetch) {
+        mMaxPrefetch = Math.max(0, maxPrefetch);
+        schedule();
+        return this;
+    }
+
+    /**
+     * @param segmentCount 每个任务的分段数量 {@link SegmentDownloader#setSegmentCount(int)}
+     * @return this
+     */
+    public synchronized DownloadQueue setSegmentCount(int segmentCount) {
+        mSegmentCount = Math.max(1, segmentCount);
+        return this;
+    }
+
+    /**
+     * 添加下载任务, 已存在相同url和存储位置的任务时, 合并为同一个任务, 并按更高的优先级执行
+     *
+     * @param url      下载文件的url
+     * @param file     下载文件的存储位置
+     * @param priority 下载的优先级
+     * @param listener 下载回调, 在主线程中回调, 可以为null
+     * @return 下载任务
+     */
+    public synchronized Task enqueue(String url, File file, @Priority int priority,
+                                     SegmentDownloader.OnSegmentListener listener) {
+        String key = url + "|" + file.getAbsolutePath();
+        Task task = mTasks.get(key);
+        if (task == null) {
+            task = new Task(key, url, file, priority, mSequence++);
+            mTasks.put(key, task);
+            mPending.add(task);
+            Logger.d("%s添加下载任务: %s", TAG, url);
+        } else {
+            Logger.d("%s合并相同的下载任务: %s", TAG, url);
+            if (priority < task.mPriority) task.mPriority = priority;
+        }
+        if (listener != null) task.mListeners.add(listener);
+        schedule();
+        return task;
+    }
+
+    /**
+     * 移除一个下载回调, 任务没有回调时取消下载
+     *
+     * @param task     下载任务
+     * @param listener 下载回调
+     */
+    public synchronized void remove(Task task, SegmentDownloader.OnSegmentListener listener) {
+        task.mListeners.remove(listener);
+        if (task.mListeners.isEmpty()) cancel(task);
+    }
+
+    /**
+     * 取消下载任务, 不再回调
+     *
+     * @param task 下载任务
+     */
+    public synchronized void cancel(Task task) {
+        if (mTasks.remove(task.mKey) == null) return;
+        task.mListeners.clear();
+        if (mPending.remove(task)) return;
+        if (task.mDownloader != null) task.mDownloader.cancel();
+        onStopped(task);
+        schedule();
+    }
+
+    /**
+     * @return 下载统计信息
+     */
+    public synchronized Stats getStats() {
+        long busy = mBusyMillis;
+        if (!mRunning.isEmpty()) busy += SystemClock.elapsedRealtime() - mBusySince;
+        return new Stats(mRunning.size(), mPending.size(), mCompletedCount, mFailedCount, mTotalBytes, busy);
+    }
+
+    /**
+     * 按优先级启动等待中的任务. 同时下载的任务已满时, 用户可见的任务可以暂停一个预加载任务,
+     * 只在这个任务确定可以启动时才暂停, 被暂停的任务在这一轮中不会重新启动
+     */
+    private void schedule() {
+        Collections.sort(mPending, TASK_COMPARATOR);
+        for (int i = 0; i < mPending.size(); i++) {
+            Task task = mPending.get(i);
+            Task preempted = null;
+            if (mRunning.size() >= mMaxRunning) {
+                if (task.mPriority != PRIORITY_USER_VISIBLE) break;
+                preempted = getPreemptablePrefetch();
+                if (preempted == null) break;
+            }
+            int hostRunning = getHostRunning(task.mHost);
+            if (preempted != null && preempted.mHost.equals(task.mHost)) hostRunning--;
+            if (hostRunning >= mMaxPerHost) continue;
+            if (task.mPriority == PRIORITY_PREFETCH && getPrefetchRunning() >= mMaxPrefetch) continue;
+            if (preempted != null) preempt(preempted);
+            mPending.remove(i--);
+            start(task);
+        }
+    }
+
+    /**
+     * @return 最后启动的预加载任务, 没有时返回null
+     */
+    private Task getPreemptablePrefetch() {
+        for (int i = mRunning.size() - 1; i >= 0; i--) {
+            Task task = mRunning.get(i);
+            if (task.mPriority == PRIORITY_PREFETCH) return task;
+        }
+        return null;
+    }
+
+    /**
+     * 暂停正在进行的预加载任务, 保留断点, 重新放回等待队列的末尾.
+     * 暂停之后马上启动用户可见的任务, 运行中的任务仍然是满的, 这一轮调度中不会重新启动它
+     */
+    private void preempt(Task task) {
+        Logger.d("%s暂停预加载任务: %s", TAG, task.mUrl);
+        task.mDownloader.pause();
+        onStopped(task);
+        mPending.add(task);
+    }
+
+    private void start(final Task task) {
+        if (mRunning.isEmpty()) mBusySince = SystemClock.elapsedRealtime();
+        mRunning.add(task);
+        mHostRunning.put(task.mHost, getHostRunning(task.mHost) + 1);
+        task.mLastSoFar = -1;
+        task.mDownloader = new SegmentDownloader(task.mUrl, task.mFile)
+                .setSegmentCount(mSegmentCount)
+                .setOnSegmentListener(new SegmentDownloader.OnSegmentListener() {
+                    @Override
+                    public void onProgress(long total, long soFar) {
+                        onTaskProgress(task, total, soFar);
+                    }
+
+                    @Override
+                    public void onSuccess(File file) {
+                        onTaskFinished(task, null);
+                    }
+
+                    @Override
+                    public void onFailed(String msg) {
+                        onTaskFinished(task, msg);
+                    }
+                }).start();
+        Logger.d("%s开始下载任务: %s", TAG, task.mUrl);
+    }
+
+    /**
+     * 任务停止下载, 更新统计信息
+     */
+    private void onStopped(Task task) {
+        if (!mRunning.remove(task)) return;
+        mHostRunning.put(task.mHost, getHostRunning(task.mHost) - 1);
+        task.mDownloader = null;
+        if (mRunning.isEmpty()) mBusyMillis += SystemClock.elapsedRealtime() - mBusySince;
+    }
+
+    private void onTaskProgress(final Task task, final long total, final long soFar) {
+        synchronized (this) {
+            // 恢复下载时第一次回调的进度包含了之前已下载的数据, 不计入统计
+            if (task.mLastSoFar >= 0) mTotalBytes += soFar - task.mLastSoFar;
+            task.mLastSoFar = soFar;
+            task.mTotal = total;
+            task.mSoFar = soFar;
+            long now = SystemClock.uptimeMillis();
+            if (now - task.mLastDispatchTime < PROGRESS_INTERVAL && soFar != total) return;
+            task.mLastDispatchTime = now;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (SegmentDownloader.OnSegmentListener listener : task.mListeners) {
+                    listener.onProgress(total, soFar);
+                }
+            }
+        });
+    }
+
+    private void onTaskFinished(final Task task, final String msg) {
+        synchronized (this) {
+            if (task.mDownloader == null) return;
+            onStopped(task);
+            mTasks.remove(task.mKey);
+            if (msg == null) {
+                mCompletedCount++;
+            } else {
+                mFailedCount++;
+            }
+            schedule();
+        }
+        if (Logger.isLoggable(Logger.DEBUG)) {
+            Logger.d(TAG + "下载任务" + (msg == null ? "完成: " : "失败: " + msg + ", ") + task.mUrl);
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (SegmentDownloader.OnSegmentListener listener : task.mListeners) {
+                    if (msg == null) {
+                        listener.onSuccess(task.mFile);
+                    } else {
+                        listener.onFailed(msg);
+                    }
+                }
+            }
+        });
+    }
+
+    private int getHostRunning(String host) {
+        Integer count = mHostRunning.get(host);
+        return count == null ? 0 : count;
+    }
+
+    private int getPrefetchRunning() {
+        int count = 0;
+        for (Task task : mRunning) {
+            if (task.mPriority == PRIORITY_PREFETCH) count++;
+        }
+        return count;
+    }
+
+    /**
+     * 优先级高的在前, 优先级相同时先添加的在前
+     */
+    private static final Comparator<Task> TASK_COMPARATOR = new Comparator<Task>() {
+        @Override
+        public int compare(Task o1, Task o2) {
+            if (o1.mPriority != o2.mPriority) return o1.mPriority < o2.mPriority ? -1 : 1;
+            return o1.mSequence < o2.mSequence ? -1 : (o1.mSequence == o2.mSequence ? 0 : 1);
+        }
+    };
+
+    /**
+     * 下载任务
+     */
+    public static final class Task {
+
+        private final String mKey;
+        private final String mUrl;
+        private final File mFile;
+        private final String mHost;
+        private final long mSequence;
+        private final List<SegmentDownloader.OnSegmentListener> mListeners = new CopyOnWriteArrayList<>();
+        private int mPriority;
+        private SegmentDownloader mDownloader;
+        private long mLastSoFar;
+        private long mLastDispatchTime;
+        private volatile long mSoFar;
+        private volatile long mTotal = -1;
+
+        private Task(String key, String url, File file, int priority, long sequence) {
+            mKey = key;
+            mUrl = url;
+            mFile = file;
+            String host = Uri.parse(url).getHost();
+            mHost = host == null ? "" : host;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        public String getUrl() {
+            return mUrl;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * @return 已下载的大小
+         */
+        public long getSoFar() {
+            return mSoFar;
+        }
+
+        /**
+         * @return 文件总大小, 未知时为-1
+         */
+        public long getTotal() {
+            return mTotal;
+        }
+    }
+
+    /**
+     * 下载统计信息
+     */
+    public static final class Stats {
+
+        /**
+         * 正在下载的任务数量
+         */
+        public final int running;
+
+        /**
+         * 等待中的任务数量
+         */
+        public final int pending;
+
+        /**
+         * 下载完成的任务数量
+         */
+        public final int completed;
+
+        /**
+         * 下载失败的任务数量
+         */
+        public final int failed;
+
+        /**
+         * 已下载的数据量
+         */
+        public final long bytes;
+
+        /**
+         * 有任务正在下载的总时长(毫秒)
+         */
+        public final long busyMillis;
+
+        Stats(int running, int pending, int completed, int failed, long bytes, long busyMillis) {
+            this.running = running;
+            this.pending = pending;
+            this.completed = completed;
+            this.failed = failed;
+            this.bytes = bytes;
+            this.busyMillis = busyMillis;
+        }
+
+        /**
+         * @return 下载期间的平均吞吐量(字节/秒)
+         */
+        public long getThroughput() {
+            return busyMillis <= 0 ? 0 : bytes * 1000 / busyMillis;
+        }
+    }
+}
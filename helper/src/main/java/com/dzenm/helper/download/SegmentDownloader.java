@@ -0,0 +1,604 @@
+package com.dzenm.helper.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author dzenm
+ * @date 2020-03-02 10:20
+ * <pre>
+ * new SegmentDownloader(url, file)
+ *        .setSegmentCount(4)
+ *        .setOnSegmentListener(listener)
+ *        .start();
+ * </pre>
+ * 多连接分段下载, 先请求 Range: bytes=0-0 探测文件大小以及服务器是否支持分段, 然后将文件拆分为多个分段,
+ * 在有界的线程池中并发下载, 每个分段通过 {@link FileChannel} 按偏移量直接写入预分配的文件, 不需要再合并.
+ * 不依赖Android API, 可以直接在JVM上对本地HTTP服务进行测试
+ * <p>
+ * 支持断点续传, 分段下载时会定期将数据同步到磁盘并记录到 {@link DownloadJournal}, 进程被杀死或下载失败后
+ * 重新下载同一个文件时, 通过 If-Range 条件请求校验服务器文件未变更, 再从上次同步的位置继续下载
+ * <p>
+ * 设置 {@link #setDigest(String, String)} 后在写入数据的同时计算文件摘要 {@link StreamingDigest},
+ * 最后一个字节写入时即可完成校验, 校验失败时删除文件并回调失败
+ */
+public class SegmentDownloader {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int DEFAULT_SEGMENT_COUNT = 3;
+    private static final int MAX_THREAD_COUNT = 6;
+    private static final long MIN_SEGMENT_SIZE = 512 * 1024;
+    private static final int CONNECT_TIMEOUT = 15 * 1000;
+    private static final int READ_TIMEOUT = 30 * 1000;
+    private static final long CHECKPOINT_SIZE = 1024 * 1024;
+
+    /**
+     * 所有分段下载共用的有界线程池 {@link #getDefaultExecutor()}
+     */
+    private static volatile ExecutorService sExecutor;
+
+    /**
+     * 下载文件的url
+     */
+    private final String mUrl;
+
+    /**
+     * 下载文件的存储位置
+     */
+    private final File mFile;
+
+    /**
+     * 最大的分段数量 {@link #setSegmentCount(int)}, 文件较小时会自动减少分段
+     */
+    private int mSegmentCount = DEFAULT_SEGMENT_COUNT;
+
+    /**
+     * 执行下载的线程池 {@link #setExecutor(ExecutorService)}
+     */
+    private ExecutorService mExecutor;
+
+    /**
+     * 下载的回调 {@link #setOnSegmentListener(OnSegmentListener)}, 在下载线程中回调
+     */
+    private OnSegmentListener mOnSegmentListener;
+
+    private final List<Segment> mSegments = new ArrayList<>();
+    private final List<Future<?>> mFutures = new CopyOnWriteArrayList<>();
+    private final AtomicLong mSoFar = new AtomicLong();
+    private final AtomicInteger mRemaining = new AtomicInteger();
+    private final AtomicBoolean isFinished = new AtomicBoolean();
+    private volatile boolean isCanceled;
+    private volatile long mTotal = -1;
+
+    /**
+     * 断点续传的日志, 服务器不支持分段或没有ETag/Last-Modified时为null
+     */
+    private DownloadJournal mJournal;
+
+    /**
+     * 上次同步到磁盘之后写入的数据大小
+     */
+    private final AtomicLong mUnsynced = new AtomicLong();
+
+    /**
+     * 摘要算法和期望的摘要值 {@link #setDigest(String, String)}
+     */
+    private String mAlgorithm;
+    private String mExpectedDigest;
+    private StreamingDigest mStreamingDigest;
+    private volatile String mDigest;
+
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+
+    public SegmentDownloader(String url, File file) {
+        mUrl = url;
+        mFile = file;
+    }
+
+    /**
+     * @param segmentCount 最大的分段数量(并发连接数)
+     * @return this
+     */
+    public SegmentDownloader setSegmentCount(int segmentCount) {
+        mSegmentCount = Math.max(1, segmentCount);
+        return this;
+    }
+
+    /**
+     * @param executor 自定义执行下载的线程池, 默认使用 {@link #getDefaultExecutor()}
+     * @return this
+     */
+    public SegmentDownloader setExecutor(ExecutorService executor) {
+        mExecutor = executor;
+        return this;
+    }
+
+    /**
+     * @param listener 下载回调
+     * @return this
+     */
+    public SegmentDownloader setOnSegmentListener(OnSegmentListener listener) {
+        mOnSegmentListener = listener;
+        return this;
+    }
+
+    /**
+     * @param algorithm      摘要算法, 例: SHA-256, MD5
+     * @param expectedDigest 期望的十六进制摘要值, 为null时只计算不校验
+     * @return this
+     */
+    public SegmentDownloader setDigest(String algorithm, String expectedDigest) {
+        mAlgorithm = algorithm;
+        mExpectedDigest = expectedDigest;
+        return this;
+    }
+
+    /**
+     * @return 下载完成后计算的十六进制摘要值, 未设置摘要算法时为null
+     */
+    public String getDigest() {
+        return mDigest;
+    }
+
+    /**
+     * @return 文件总大小, 未知时为-1
+     */
+    public long getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * @return 已下载的大小
+     */
+    public long getSoFar() {
+        return mSoFar.get();
+    }
+
+    /**
+     * 开始下载, 探测和下载都在线程池中执行
+     *
+     * @return this
+     */
+    public SegmentDownloader start() {
+        mFutures.add(getExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                prepare();
+            }
+        }));
+        return this;
+    }
+
+    /**
+     * 取消下载, 并删除未下载完成的文件和日志
+     */
+    public void cancel() {
+        if (!isFinished.compareAndSet(false, true)) return;
+        stop();
+        mFile.delete();
+        new DownloadJournal(mFile).delete();
+    }
+
+    /**
+     * 暂停下载, 保留已下载的数据和日志, 重新创建下载同一个文件时继续下载
+     */
+    public void pause() {
+        if (!isFinished.compareAndSet(false, true)) return;
+        checkpoint();
+        stop();
+    }
+
+    /**
+     * @param file 下载文件
+     * @return 是否存在未完成的下载日志
+     */
+    public static boolean isResumable(File file) {
+        return new DownloadJournal(file).exists();
+    }
+
+    /**
+     * 探测文件大小和是否支持分段, 再分发分段任务
+     */
+    private void prepare() {
+        HttpURLConnection connection = null;
+        try {
+            DownloadJournal journal = new DownloadJournal(mFile);
+            boolean resumable = journal.load() && mUrl.equals(journal.getUrl())
+                    && journal.getValidator() != null && mFile.length() == journal.getLength();
+            if (!resumable) journal.delete();
+
+            connection = openConnection(0, 0, resumable ? journal.getValidator() : null);
+            int code = connection.getResponseCode();
+            if (resumable && code == HttpURLConnection.HTTP_OK) {
+                // If-Range 条件不成立, 服务器文件已变更, 重新下载
+                connection.disconnect();
+                journal.delete();
+                resumable = false;
+                connection = openConnection(0, 0, null);
+                code = connection.getResponseCode();
+            }
+            long total = code == HttpURLConnection.HTTP_PARTIAL
+                    ? parseTotal(connection.getHeaderField("Content-Range")) : -1;
+            if (total > 0) {
+                String eTag = connection.getHeaderField("ETag");
+                String lastModified = connection.getHeaderField("Last-Modified");
+                connection.disconnect();
+                connection = null;
+                mTotal = total;
+                if (resumable && total == journal.getLength()) {
+                    // 从上次同步到磁盘的位置继续下载
+                    mSegments.addAll(journal.getSegments());
+                    for (Segment segment : mSegments) {
+                        mSoFar.addAndGet(segment.position - segment.start);
+                    }
+                    openFile(-1);
+                } else {
+                    journal.setResource(mUrl, total, eTag, lastModified);
+                    openFile(total);
+                    split(total);
+                }
+                if (journal.getValidator() != null) {
+                    mJournal = journal;
+                    checkpoint();
+                }
+                createDigest();
+                List<Segment> pending = new ArrayList<>();
+                for (Segment segment : mSegments) {
+                    if (segment.position <= segment.end) pending.add(segment);
+                }
+                mRemaining.set(pending.size());
+                if (pending.isEmpty()) {
+                    complete();
+                    return;
+                }
+                for (Segment segment : pending) {
+                    submit(segment);
+                }
+            } else {
+                // 服务器不支持Range或文件大小未知, 退化为单连接下载, 无法断点续传
+                journal.delete();
+                if (code != HttpURLConnection.HTTP_OK) {
+                    connection.disconnect();
+                    connection = openConnection(-1, -1, null);
+                    code = connection.getResponseCode();
+                }
+                if (code != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("HTTP " + code);
+                }
+                mTotal = parseLength(connection.getHeaderField("Content-Length"));
+                openFile(Math.max(0, mTotal));
+                Segment segment = new Segment(0, mTotal - 1);
+                mSegments.add(segment);
+                createDigest();
+                mRemaining.set(1);
+                transfer(segment, connection);
+            }
+        } catch (IOException e) {
+            failed("下载失败: " + e.getMessage());
+        } finally {
+            if (connection != null) connection.disconnect();
+        }
+    }
+
+    /**
+     * 按照分段数量和最小分段大小拆分文件
+     */
+    private void split(long total) {
+        int count = (int) Math.max(1, Math.min(mSegmentCount, total / MIN_SEGMENT_SIZE));
+        long size = total / count;
+        for (int i = 0; i < count; i++) {
+            long start = i * size;
+            long end = i == count - 1 ? total - 1 : start + size - 1;
+            mSegments.add(new Segment(start, end));
+        }
+    }
+
+    private void submit(final Segment segment) {
+        mFutures.add(getExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                downloadSegment(segment);
+            }
+        }));
+    }
+
+    /**
+     * 下载单个分段
+     */
+    private void downloadSegment(Segment segment) {
+        if (isCanceled) return;
+        HttpURLConnection connection = null;
+        try {
+            DownloadJournal journal = mJournal;
+            connection = openConnection(segment.position, segment.end,
+                    journal == null ? null : journal.getValidator());
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_OK && journal != null) {
+                invalidateJournal();
+                throw new IOException("服务器文件已变更");
+            }
+            if (code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("服务器不支持分段下载, HTTP " + code);
+            }
+            transfer(segment, connection);
+        } catch (IOException e) {
+            failed("分段下载失败: " + e.getMessage());
+        } finally {
+            if (connection != null) connection.disconnect();
+        }
+    }
+
+    /**
+     * 读取响应数据并按偏移量写入文件, FileChannel的定位写入是线程安全的, 各分段之间互不影响
+     */
+    private void transfer(Segment segment, HttpURLConnection connection) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        try (InputStream is = connection.getInputStream()) {
+            int read;
+            while (!isCanceled && (read = is.read(buffer)) != -1) {
+                if (segment.end >= 0) {
+                    long left = segment.end - segment.position + 1;
+                    if (left <= 0) break;
+                    if (read > left) read = (int) left;
+                }
+                byteBuffer.clear();
+                byteBuffer.limit(read);
+                long position = segment.position;
+                while (byteBuffer.hasRemaining()) {
+                    position += mChannel.write(byteBuffer, position);
+                }
+                if (mStreamingDigest != null) mStreamingDigest.update(segment.position, buffer, 0, read);
+                segment.position = position;
+                long soFar = mSoFar.addAndGet(read);
+                if (mOnSegmentListener != null) mOnSegmentListener.onProgress(mTotal, soFar);
+                if (mJournal != null && mUnsynced.addAndGet(read) >= CHECKPOINT_SIZE) {
+                    mUnsynced.set(0);
+                    checkpoint();
+                }
+            }
+        }
+        if (isCanceled) return;
+        if (segment.end >= 0 && segment.position <= segment.end) {
+            throw new IOException("分段数据不完整: " + segment.position + "/" + segment.end);
+        }
+        if (mRemaining.decrementAndGet() == 0) complete();
+    }
+
+    private void createDigest() throws IOException {
+        if (mAlgorithm == null) return;
+        try {
+            mStreamingDigest = new StreamingDigest(mAlgorithm, mChannel, mSegments, mTotal);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("不支持的摘要算法: " + mAlgorithm);
+        }
+    }
+
+    /**
+     * 所有分段下载完成, 校验摘要
+     */
+    private void complete() throws IOException {
+        if (mStreamingDigest != null) {
+            mDigest = mStreamingDigest.finish();
+            if (mExpectedDigest != null && !mExpectedDigest.equalsIgnoreCase(mDigest)) {
+                // 数据已损坏, 不能继续断点续传
+                invalidateJournal();
+                failed("文件校验失败, 期望: " + mExpectedDigest + ", 实际: " + mDigest);
+                return;
+            }
+        }
+        succeed();
+    }
+
+    private void succeed() {
+        if (!isFinished.compareAndSet(false, true)) return;
+        try {
+            mChannel.force(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        closeFile();
+        new DownloadJournal(mFile).delete();
+        if (mTotal < 0) mTotal = mSoFar.get();
+        if (mOnSegmentListener != null) mOnSegmentListener.onSuccess(mFile);
+    }
+
+    private void failed(String msg) {
+        if (!isFinished.compareAndSet(false, true)) return;
+        // 可以断点续传时保留已下载的数据, 否则删除文件
+        checkpoint();
+        stop();
+        if (mJournal == null) mFile.delete();
+        if (mOnSegmentListener != null) mOnSegmentListener.onFailed(msg);
+    }
+
+    /**
+     * 先将已写入的数据同步到磁盘, 再记录各分段的位置, 保证日志中的位置之前的数据都是可靠的
+     */
+    private synchronized void checkpoint() {
+        if (mJournal == null || mChannel == null || !mChannel.isOpen()) return;
+        List<Segment> snapshot = new ArrayList<>(mSegments.size());
+        for (Segment segment : mSegments) {
+            snapshot.add(new Segment(segment.start, segment.end, segment.position));
+        }
+        try {
+            mChannel.force(false);
+            mJournal.save(snapshot);
+        } catch (IOException e) {
+            // 取消时线程被中断会关闭FileChannel
+            if (!isCanceled) e.printStackTrace();
+        }
+    }
+
+    /**
+     * 服务器文件已变更, 删除日志, 下次重新下载
+     */
+    private synchronized void invalidateJournal() {
+        if (mJournal == null) return;
+        mJournal.delete();
+        mJournal = null;
+    }
+
+    /**
+     * 停止所有分段任务并关闭文件
+     */
+    private void stop() {
+        isCanceled = true;
+        for (Future<?> future : mFutures) {
+            future.cancel(true);
+        }
+        closeFile();
+    }
+
+    /**
+     * 打开文件并预分配文件大小
+     *
+     * @param total 预分配的文件大小, 小于0时保留文件原有的大小(断点续传)
+     */
+    private synchronized void openFile(long total) throws IOException {
+        File parent = mFile.getParentFile();
+        if (parent != null && !parent.exists()) parent.mkdirs();
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        if (total >= 0) mRandomAccessFile.setLength(total);
+        mChannel = mRandomAccessFile.getChannel();
+    }
+
+    private synchronized void closeFile() {
+        if (mRandomAccessFile == null) return;
+        try {
+            mRandomAccessFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        mRandomAccessFile = null;
+    }
+
+    /**
+     * @param start     分段的起始位置, 小于0时不设置Range
+     * @param end       分段的结束位置, 小于0时表示到文件末尾
+     * @param validator If-Range的校验值, 服务器文件变更时返回完整文件(200)而不是分段(206)
+     */
+    private HttpURLConnection openConnection(long start, long end, String validator) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(mUrl).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        // 压缩后的数据无法按字节偏移写入
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (start >= 0) {
+            connection.setRequestProperty("Range", "bytes=" + start + "-" + (end >= 0 ? end : ""));
+            if (validator != null) connection.setRequestProperty("If-Range", validator);
+        }
+        return connection;
+    }
+
+    /**
+     * @param contentRange 例: bytes 0-0/12345
+     * @return 文件总大小, 未知时为-1
+     */
+    private static long parseTotal(String contentRange) {
+        if (contentRange == null) return -1;
+        int index = contentRange.lastIndexOf('/');
+        if (index < 0) return -1;
+        return parseLength(contentRange.substring(index + 1));
+    }
+
+    private static long parseLength(String length) {
+        if (length == null) return -1;
+        try {
+            return Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private ExecutorService getExecutor() {
+        return mExecutor == null ? getDefaultExecutor() : mExecutor;
+    }
+
+    /**
+     * @return 默认的有界线程池, 空闲时线程自动回收
+     */
+    public static ExecutorService getDefaultExecutor() {
+        if (sExecutor == null) synchronized (SegmentDownloader.class) {
+            if (sExecutor == null) {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREAD_COUNT, MAX_THREAD_COUNT,
+                        30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "segment-download-" + mCount.incrementAndGet());
+                    }
+                });
+                executor.allowCoreThreadTimeOut(true);
+                sExecutor = executor;
+            }
+        }
+        return sExecutor;
+    }
+
+    /**
+     * 文件分段, [start, end] 为闭区间, position 为下一个写入的位置
+     */
+    static final class Segment {
+
+        final long start;
+        final long end;
+        volatile long position;
+
+        Segment(long start, long end) {
+            this(start, end, start);
+        }
+
+        Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+    }
+
+    public interface OnSegmentListener {
+
+        /**
+         * 下载进度, 在下载线程中回调
+         *
+         * @param total 文件总大小, 未知时为-1
+         * @param soFar 已下载的大小
+         */
+        void onProgress(long total, long soFar);
+
+        /**
+         * 下载成功
+         *
+         * @param file 下载完成的文件
+         */
+        void onSuccess(File file);
+
+        /**
+         * 下载失败
+         *
+         * @param msg 下载失败的错误信息
+         */
+        void onFailed(String msg);
+    }
+}
@@ -0,0 +1,120 @@
+package com.dzenm.helper.download;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * @author dzenm
+ * @date 2020-03-06 14:20
+ * <p>
+ * 下载过程中增量计算文件摘要(MD5、SHA-256等). 摘要只能按顺序计算, 因此记录一个"已计算位置", 写入位置
+ * 正好是已计算位置的数据直接在写入线程中计算; 其它分段超前写入的数据, 等已计算位置到达时再从文件中读回
+ * (此时数据仍在页缓存中). 最后一个字节写入后只需计算剩余的少量数据, 不需要再完整读取一遍文件
+ */
+class StreamingDigest {
+
+    /**
+     * 每次读回计算的最大数据量, 避免长时间占用锁阻塞其它写入线程
+     */
+    private static final int CATCH_UP_SIZE = 256 * 1024;
+
+    private final MessageDigest mMessageDigest;
+    private final FileChannel mChannel;
+    private final List<SegmentDownloader.Segment> mSegments;
+    private final long mLength;
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(64 * 1024);
+
+    /**
+     * 已经计算摘要的位置, 之前的数据都已计算
+     */
+    private long mFrontier;
+
+    /**
+     * @param algorithm 摘要算法, 例: SHA-256, MD5
+     * @param channel   下载文件的FileChannel, 用于读回超前写入的数据
+     * @param segments  所有分段, 根据分段的写入位置判断哪些数据已经写入
+     * @param length    文件大小, 未知时为-1
+     */
+    StreamingDigest(String algorithm, FileChannel channel, List<SegmentDownloader.Segment> segments,
+                    long length) throws NoSuchAlgorithmException {
+        mMessageDigest = MessageDigest.getInstance(algorithm);
+        mChannel = channel;
+        mSegments = segments;
+        mLength = length;
+    }
+
+    /**
+     * 数据写入文件之后调用
+     *
+     * @param position 数据写入的位置
+     * @param buffer   写入的数据
+     * @param offset   数据在buffer中的偏移
+     * @param length   数据长度
+     */
+    synchronized void update(long position, byte[] buffer, int offset, int length) throws IOException {
+        long end = position + length;
+        if (position <= mFrontier && end > mFrontier) {
+            int skip = (int) (mFrontier - position);
+            mMessageDigest.update(buffer, offset + skip, length - skip);
+            mFrontier = end;
+        }
+        catchUp(CATCH_UP_SIZE);
+    }
+
+    /**
+     * 计算剩余的数据, 在所有数据写入之后调用
+     *
+     * @return 十六进制的摘要, 数据不完整时为null
+     */
+    synchronized String finish() throws IOException {
+        catchUp(Long.MAX_VALUE);
+        if (mLength >= 0 && mFrontier != mLength) return null;
+        return toHex(mMessageDigest.digest());
+    }
+
+    /**
+     * 从文件读回已经写入但还未计算的连续数据
+     *
+     * @param limit 本次最多读回的数据量
+     */
+    private void catchUp(long limit) throws IOException {
+        if (mLength < 0) return;
+        long read = 0;
+        while (mFrontier < mLength && read < limit) {
+            long available = getWrittenEnd(mFrontier) - mFrontier;
+            if (available <= 0) return;
+            mBuffer.clear();
+            if (available < mBuffer.capacity()) mBuffer.limit((int) available);
+            int count = mChannel.read(mBuffer, mFrontier);
+            if (count <= 0) return;
+            mMessageDigest.update(mBuffer.array(), 0, count);
+            mFrontier += count;
+            read += count;
+        }
+    }
+
+    /**
+     * @param position 文件中的位置
+     * @return 包含该位置的分段已经写入的结束位置
+     */
+    private long getWrittenEnd(long position) {
+        for (SegmentDownloader.Segment segment : mSegments) {
+            if (position >= segment.start && position <= segment.end) return segment.position;
+        }
+        return position;
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = digits[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = digits[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,273 @@
+package com.dzenm.helper.file;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author dzenm
+ * @date 2020-03-14 10:15
+ * <pre>
+ * AsyncFileHelper.getInstance().readFile(file, new AsyncFileHelper.OnResultListener<String>() {
+ *     public void onResult(String content) {
+ *         textView.setText(content);
+ *     }
+ * });
+ * </pre>
+ * 在后台线程中执行 {@link FileHelper} 的文件操作, 结果在主线程中回调, 返回的 {@link Future} 可以取消,
+ * 取消后不再回调. 使用有界的线程池, 同一个路径的操作按提交的顺序依次执行, 不同路径的操作并行执行.
+ * 只按传入的路径区分, 文件夹和其中的文件不会互相等待
+ */
+public class AsyncFileHelper {
+
+    private static final int THREAD_COUNT = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static volatile AsyncFileHelper sInstance;
+
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 正在执行操作的路径, 以及等待执行的操作
+     */
+    private final HashMap<String, ArrayDeque<Runnable>> mQueues = new HashMap<>();
+
+    private AsyncFileHelper() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "file-io-" + mCount.incrementAndGet());
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+    }
+
+    public static AsyncFileHelper getInstance() {
+        if (sInstance == null) synchronized (AsyncFileHelper.class) {
+            if (sInstance == null) sInstance = new AsyncFileHelper();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @see FileHelper#savePhoto(Bitmap, File)
+     */
+    public Future<Boolean> savePhoto(final Bitmap bitmap, final File file, OnResultListener<Boolean> listener) {
+        return submit(file, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return FileHelper.getInstance().savePhoto(bitmap, file);
+            }
+        }, listener);
+    }
+
+    /**
+     * @see FileHelper#newFile(File, String)
+     */
+    public Future<Boolean> newFile(final File file, final String content, OnResultListener<Boolean> listener) {
+        return submit(file, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return FileHelper.getInstance().newFile(file, content);
+            }
+        }, listener);
+    }
+
+    /**
+     * @see FileHelper#readFile(File)
+     */
+    public Future<String> readFile(final File file, OnResultListener<String> listener) {
+        return submit(file, new Callable<String>() {
+            @Override
+            public String call() {
+                return FileHelper.getInstance().readFile(file);
+            }
+        }, listener);
+    }
+
+    /**
+     * @see FileHelper#readBytes(File)
+     */
+    public Future<byte[]> readBytes(final File file, OnResultListener<byte[]> listener) {
+        return submit(file, new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return FileHelper.getInstance().readBytes(file);
+            }
+        }, listener);
+    }
+
+    /**
+     * 按新文件的路径排队
+     *
+     * @see FileHelper#copyFile(File, File)
+     */
+    public Future<Boolean> copyFile(final File oldFile, final File newFile, OnResultListener<Boolean> listener) {
+        return submit(newFile, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return FileHelper.getInstance().copyFile(oldFile, newFile);
+            }
+        }, listener);
+    }
+
+    /**
+     * @see FileHelper#delete(File)
+     */
+    public Future<Boolean> delete(final File folder, OnResultListener<Boolean> listener) {
+        return submit(folder, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return FileHelper.getInstance().delete(folder);
+            }
+        }, listener);
+    }
+
+    /**
+     * @see FileHelper#deleteFolder(File)
+     */
+    public Future<Void> deleteFolder(final File folder, OnResultListener<Void> listener) {
+        return submit(folder, new Callable<Void>() {
+            @Override
+            public Void call() {
+                FileHelper.getInstance().deleteFolder(folder);
+                return null;
+            }
+        }, listener);
+    }
+
+    /**
+     * 执行自定义的文件操作
+     *
+     * @param file     操作的文件, 同一个文件的操作依次执行
+     * @param callable 在后台线程中执行的操作
+     * @param listener 在主线程中回调结果, 可以为null, 执行出错时结果为null
+     * @return 可以取消的Future, 取消后不再回调
+     */
+    public <T> Future<T> submit(File file, Callable<T> callable, OnResultListener<T> listener) {
+        Task<T> task = new Task<>(callable, listener);
+        execute(file.getAbsolutePath(), task);
+        return task;
+    }
+
+    /**
+     * 同一个路径正在执行时加入等待队列, 否则直接提交到线程池
+     */
+    private void execute(String path, Runnable task) {
+        synchronized (mQueues) {
+            ArrayDeque<Runnable> queue = mQueues.get(path);
+            if (queue != null) {
+                queue.add(task);
+                return;
+            }
+            mQueues.put(path, new ArrayDeque<Runnable>());
+        }
+        mExecutor.execute(new SerialRunnable(path, task));
+    }
+
+    /**
+     * 执行完成后提交同一个路径的下一个操作, 没有等待的操作时移除路径
+     */
+    private void scheduleNext(String path) {
+        Runnable next;
+        synchronized (mQueues) {
+            ArrayDeque<Runnable> queue = mQueues.get(path);
+            next = queue == null ? null : queue.poll();
+            if (next == null) {
+                mQueues.remove(path);
+                return;
+            }
+        }
+        mExecutor.execute(new SerialRunnable(path, next));
+    }
+
+    private final class SerialRunnable implements Runnable {
+
+        private final String mPath;
+        private final Runnable mTask;
+
+        SerialRunnable(String path, Runnable task) {
+            mPath = path;
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mTask.run();
+            } finally {
+                scheduleNext(mPath);
+            }
+        }
+    }
+
+    /**
+     * 执行完成后在主线程中回调, 取消的操作不执行也不回调
+     */
+    private final class Task<T> extends FutureTask<T> {
+
+        private final OnResultListener<T> mListener;
+
+        /**
+         * 执行完成之后取消也不再回调
+         */
+        private volatile boolean isCanceled;
+
+        Task(Callable<T> callable, OnResultListener<T> listener) {
+            super(callable);
+            mListener = listener;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            isCanceled = true;
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        protected void done() {
+            if (mListener == null || isCancelled()) return;
+            T result = null;
+            try {
+                result = get();
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+            }
+            final T value = result;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCanceled) mListener.onResult(value);
+                }
+            });
+        }
+    }
+
+    public interface OnResultListener<T> {
+
+        /**
+         * 在主线程中回调
+         *
+         * @param result 操作的结果, 执行出错时为null
+         */
+        void onResult(T result);
+    }
+}
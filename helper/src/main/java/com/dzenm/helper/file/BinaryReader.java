@@ -0,0 +1,185 @@
+package com.dzenm.helper.file;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * @author dzenm
+ * @date 2020-03-16 09:50
+ * <p>
+ * 读取 {@link BinaryWriter} 写入的数据, 可以读取输入流或者一段byte[]. 读取byte[]时不会超过给定的长度,
+ * 超过时抛出 {@link EOFException}
+ */
+public final class BinaryReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final InputStream mInputStream;
+    private byte[] mBuffer;
+    private int mPosition;
+    private int mLimit;
+
+    /**
+     * @param inputStream 输入流, 缓冲区读完时读取
+     */
+    public BinaryReader(InputStream inputStream) {
+        mInputStream = inputStream;
+        mBuffer = new byte[8 * 1024];
+    }
+
+    /**
+     * 读取 bytes 中 [0, length) 范围内的数据
+     */
+    BinaryReader(byte[] bytes, int length) {
+        mInputStream = null;
+        reset(bytes, length);
+    }
+
+    void reset(byte[] bytes, int length) {
+        mBuffer = bytes;
+        mPosition = 0;
+        mLimit = length;
+    }
+
+    public int readByte() throws IOException {
+        require(1);
+        return mBuffer[mPosition++];
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("malformed varint");
+    }
+
+    public int readSignedVarInt() throws IOException {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("malformed varlong");
+    }
+
+    public long readSignedVarLong() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public int readInt() throws IOException {
+        require(4);
+        byte[] buffer = mBuffer;
+        int position = mPosition;
+        mPosition += 4;
+        return (buffer[position] & 0xFF) << 24 | (buffer[position + 1] & 0xFF) << 16
+                | (buffer[position + 2] & 0xFF) << 8 | (buffer[position + 3] & 0xFF);
+    }
+
+    public long readLong() throws IOException {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    public String readString() throws IOException {
+        int length = readVarInt() - 1;
+        if (length < 0) return null;
+        if (length == 0) return "";
+        if (length <= mBuffer.length || mInputStream == null) {
+            require(length);
+            String value = new String(mBuffer, mPosition, length, UTF_8);
+            mPosition += length;
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        readFully(bytes, 0, length);
+        return new String(bytes, UTF_8);
+    }
+
+    public byte[] readBytes() throws IOException {
+        int length = readVarInt() - 1;
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        readFully(bytes, 0, length);
+        return bytes;
+    }
+
+    public void readFully(byte[] bytes, int offset, int length) throws IOException {
+        int count = Math.min(length, mLimit - mPosition);
+        System.arraycopy(mBuffer, mPosition, bytes, offset, count);
+        mPosition += count;
+        offset += count;
+        length -= count;
+        while (length > 0) {
+            if (mInputStream == null) throw new EOFException();
+            int read = mInputStream.read(bytes, offset, length);
+            if (read < 0) throw new EOFException();
+            offset += read;
+            length -= read;
+        }
+    }
+
+    /**
+     * 跳过 count 个字节
+     */
+    public void skip(int count) throws IOException {
+        while (count > 0) {
+            if (mPosition == mLimit) require(1);
+            int skip = Math.min(count, mLimit - mPosition);
+            mPosition += skip;
+            count -= skip;
+        }
+    }
+
+    /**
+     * @return 是否已经读到末尾
+     */
+    boolean isEnd() throws IOException {
+        if (mPosition < mLimit) return false;
+        if (mInputStream == null) return true;
+        mPosition = mLimit = 0;
+        int read = mInputStream.read(mBuffer);
+        if (read <= 0) return true;
+        mLimit = read;
+        return false;
+    }
+
+    /**
+     * 保证缓冲区中至少有size个字节, 读取输入流时size不能超过缓冲区的长度
+     */
+    private void require(int size) throws IOException {
+        if (mLimit - mPosition >= size) return;
+        if (mInputStream == null) throw new EOFException();
+        int remain = mLimit - mPosition;
+        System.arraycopy(mBuffer, mPosition, mBuffer, 0, remain);
+        mPosition = 0;
+        mLimit = remain;
+        while (mLimit < size) {
+            int read = mInputStream.read(mBuffer, mLimit, mBuffer.length - mLimit);
+            if (read < 0) throw new EOFException();
+            mLimit += read;
+        }
+    }
+}
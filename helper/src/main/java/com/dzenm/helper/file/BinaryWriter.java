@@ -0,0 +1,212 @@
+package com.dzenm.helper.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * @author dzenm
+ * @date 2020-03-16 09:40
+ * <p>
+ * 带缓冲区的二进制输出, 整数使用变长编码, 有符号整数先做ZigZag转换, 字符串为长度 + UTF-8.
+ * 没有输出流时写入可以扩容的内存缓冲区
+ */
+public final class BinaryWriter {
+
+    private final OutputStream mOutputStream;
+    private byte[] mBuffer;
+    private int mPosition;
+
+    /**
+     * @param outputStream 输出流, 缓冲区满时写入
+     */
+    public BinaryWriter(OutputStream outputStream) {
+        mOutputStream = outputStream;
+        mBuffer = new byte[8 * 1024];
+    }
+
+    /**
+     * 写入内存缓冲区
+     */
+    BinaryWriter() {
+        mOutputStream = null;
+        mBuffer = new byte[256];
+    }
+
+    public void writeByte(int value) throws IOException {
+        ensure(1);
+        mBuffer[mPosition++] = (byte) value;
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        writeByte(value ? 1 : 0);
+    }
+
+    /**
+     * 无符号变长整数, 负数占用5个字节, 有符号的值使用 {@link #writeSignedVarInt(int)}
+     */
+    public void writeVarInt(int value) throws IOException {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            mBuffer[mPosition++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mBuffer[mPosition++] = (byte) value;
+    }
+
+    public void writeSignedVarInt(int value) throws IOException {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public void writeVarLong(long value) throws IOException {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            mBuffer[mPosition++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mBuffer[mPosition++] = (byte) value;
+    }
+
+    public void writeSignedVarLong(long value) throws IOException {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeInt(int value) throws IOException {
+        ensure(4);
+        mBuffer[mPosition++] = (byte) (value >>> 24);
+        mBuffer[mPosition++] = (byte) (value >>> 16);
+        mBuffer[mPosition++] = (byte) (value >>> 8);
+        mBuffer[mPosition++] = (byte) value;
+    }
+
+    public void writeLong(long value) throws IOException {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    public void writeFloat(float value) throws IOException {
+        writeInt(Float.floatToIntBits(value));
+    }
+
+    public void writeDouble(double value) throws IOException {
+        writeLong(Double.doubleToLongBits(value));
+    }
+
+    /**
+     * 长度 + 1 的变长整数 + UTF-8, null的长度为0. 直接编码到缓冲区, 不创建byte[]
+     */
+    public void writeString(String value) throws IOException {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        int length = value.length();
+        int utf8Length = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                utf8Length++;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                utf8Length++;
+            } else {
+                utf8Length += 3;
+            }
+        }
+        writeVarInt(utf8Length + 1);
+        ensure(utf8Length);
+        byte[] buffer = mBuffer;
+        int position = mPosition;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // 单独的代理字符与String.getBytes一致, 写入'?'
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        mPosition = position;
+    }
+
+    /**
+     * 长度 + 1 的变长整数 + 数据, null的长度为0
+     */
+    public void writeBytes(byte[] value) throws IOException {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(value.length + 1);
+        write(value, 0, value.length);
+    }
+
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (mOutputStream != null && length >= mBuffer.length) {
+            flushBuffer();
+            mOutputStream.write(bytes, offset, length);
+            return;
+        }
+        ensure(length);
+        System.arraycopy(bytes, offset, mBuffer, mPosition, length);
+        mPosition += length;
+    }
+
+    /**
+     * 写入缓冲区中的数据并刷新输出流
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        if (mOutputStream != null) mOutputStream.flush();
+    }
+
+    int size() {
+        return mPosition;
+    }
+
+    byte[] array() {
+        return mBuffer;
+    }
+
+    void reset() {
+        mPosition = 0;
+    }
+
+    /**
+     * 保证缓冲区剩余空间不小于size, 输出到流或者扩容
+     */
+    private void ensure(int size) throws IOException {
+        if (mPosition + size <= mBuffer.length) return;
+        if (mOutputStream != null) {
+            flushBuffer();
+            if (size <= mBuffer.length) return;
+        }
+        byte[] buffer = new byte[Math.max(mBuffer.length * 2, mPosition + size)];
+        System.arraycopy(mBuffer, 0, buffer, 0, mPosition);
+        mBuffer = buffer;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (mOutputStream == null || mPosition == 0) return;
+        mOutputStream.write(mBuffer, 0, mPosition);
+        mPosition = 0;
+    }
+}
@@ -0,0 +1,29 @@
+package com.dzenm.helper.file;
+
+import java.io.IOException;
+
+/**
+ * @author dzenm
+ * @date 2020-03-16 09:30
+ * <pre>
+ * public static final Codec&lt;User&gt; CODEC = new Codec&lt;User&gt;() {
+ *     public void encode(BinaryWriter writer, User user) throws IOException {
+ *         writer.writeVarLong(user.id);
+ *         writer.writeString(user.name);
+ *     }
+ *
+ *     public User decode(BinaryReader reader) throws IOException {
+ *         return new User(reader.readVarLong(), reader.readString());
+ *     }
+ * };
+ * FileHelper.getInstance().newFile(file, users, User.CODEC);
+ * </pre>
+ * 对象的二进制编解码, 按固定的顺序读写字段, 不使用反射. 每个对象单独记录长度, 新版本在末尾增加的字段,
+ * 旧版本读取时会被跳过
+ */
+public interface Codec<T> {
+
+    void encode(BinaryWriter writer, T value) throws IOException;
+
+    T decode(BinaryReader reader) throws IOException;
+}
@@ -0,0 +1,326 @@
+package com.dzenm.helper.file;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author dzenm
+ * @date 2020-03-14 15:40
+ * <pre>
+ * DirectoryWalker walker = new DirectoryWalker(folder)
+ *         .setFilter(filter)
+ *         .setOnProgressListener(listener);
+ * DirectoryWalker.Stats stats = walker.delete();      // 在后台线程中调用, 可以在其它线程中 walker.cancel()
+ * </pre>
+ * 使用ForkJoinPool并行遍历文件夹, 每个子文件夹是一个任务, 文件较多的文件夹再按 {@link #CHUNK_SIZE} 拆分,
+ * 用于并行删除文件和统计文件夹的大小、文件数量、修改时间. 每个任务的统计结果在合并时累加, 不需要加锁.
+ * {@link #scan()} 和 {@link #delete()} 会阻塞到遍历完成, 不要在主线程中调用
+ */
+public class DirectoryWalker {
+
+    /**
+     * 一个任务最多处理的文件数量
+     */
+    private static final int CHUNK_SIZE = 128;
+
+    /**
+     * 每处理这么多文件回调一次进度
+     */
+    private static final int PROGRESS_STEP = 256;
+
+    private static volatile ForkJoinPool sPool;
+
+    private final File mRoot;
+    private FileFilter mFilter;
+    private boolean isRecursive = true;
+    private boolean isDeleteFolder = true;
+    private OnProgressListener mOnProgressListener;
+
+    private volatile boolean isCanceled;
+    private boolean isDelete;
+    private final AtomicInteger mProgressCount = new AtomicInteger();
+    private final AtomicLong mProgressSize = new AtomicLong();
+
+    /**
+     * @param root 遍历的文件夹, 也可以是一个文件
+     */
+    public DirectoryWalker(File root) {
+        mRoot = root;
+    }
+
+    /**
+     * @param filter 只处理匹配的文件, 不影响是否进入子文件夹, 为null时处理所有文件
+     * @return this
+     */
+    public DirectoryWalker setFilter(FileFilter filter) {
+        mFilter = filter;
+        return this;
+    }
+
+    /**
+     * @param recursive 是否遍历子文件夹, 默认为true
+     * @return this
+     */
+    public DirectoryWalker setRecursive(boolean recursive) {
+        isRecursive = recursive;
+        return this;
+    }
+
+    /**
+     * @param deleteFolder 删除文件之后是否删除变为空的文件夹(包括根文件夹), 默认为true
+     * @return this
+     */
+    public DirectoryWalker setDeleteFolder(boolean deleteFolder) {
+        isDeleteFolder = deleteFolder;
+        return this;
+    }
+
+    /**
+     * @param listener 进度回调, 在遍历的线程中回调
+     * @return this
+     */
+    public DirectoryWalker setOnProgressListener(OnProgressListener listener) {
+        mOnProgressListener = listener;
+        return this;
+    }
+
+    /**
+     * 取消遍历, 正在处理的文件处理完成后停止, 返回已经处理的结果
+     */
+    public void cancel() {
+        isCanceled = true;
+    }
+
+    public boolean isCanceled() {
+        return isCanceled;
+    }
+
+    /**
+     * 统计匹配的文件数量、大小以及最早和最晚的修改时间
+     *
+     * @return 统计结果
+     */
+    public Stats scan() {
+        return walk(false);
+    }
+
+    /**
+     * 删除匹配的文件, 统计结果中为已经删除的文件
+     *
+     * @return 统计结果
+     */
+    public Stats delete() {
+        return walk(true);
+    }
+
+    private Stats walk(boolean delete) {
+        isDelete = delete;
+        mProgressCount.set(0);
+        mProgressSize.set(0);
+        Stats stats;
+        if (!mRoot.exists()) {
+            stats = new Stats();
+        } else if (mRoot.isDirectory()) {
+            stats = getPool().invoke(new FolderTask(mRoot));
+        } else {
+            stats = new Stats();
+            visitFile(mRoot, stats);
+        }
+        stats.isCanceled = isCanceled;
+        return stats;
+    }
+
+    private static ForkJoinPool getPool() {
+        if (sPool == null) synchronized (DirectoryWalker.class) {
+            if (sPool == null) {
+                sPool = new ForkJoinPool(Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())));
+            }
+        }
+        return sPool;
+    }
+
+    private void visitFile(File file, Stats stats) {
+        if (mFilter != null && !mFilter.accept(file)) return;
+        long length = file.length();
+        long modified = file.lastModified();
+        if (isDelete && !file.delete()) {
+            stats.failedCount++;
+            return;
+        }
+        stats.fileCount++;
+        stats.size += length;
+        if (modified < stats.oldestModified) stats.oldestModified = modified;
+        if (modified > stats.newestModified) stats.newestModified = modified;
+
+        int count = mProgressCount.incrementAndGet();
+        long size = mProgressSize.addAndGet(length);
+        if (mOnProgressListener != null && count % PROGRESS_STEP == 0) {
+            mOnProgressListener.onProgress(count, size);
+        }
+    }
+
+    /**
+     * 处理一个文件夹, 子文件夹和文件分别作为子任务并行处理
+     */
+    private final class FolderTask extends RecursiveTask<Stats> {
+
+        private final File mFolder;
+
+        FolderTask(File folder) {
+            mFolder = folder;
+        }
+
+        @Override
+        protected Stats compute() {
+            Stats stats = new Stats();
+            File[] children = mFolder.listFiles();
+            if (children == null || isCanceled) return stats;
+
+            List<ForkJoinTask<Stats>> tasks = new ArrayList<>();
+            List<File> files = new ArrayList<>(children.length);
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    if (!isRecursive) continue;
+                    stats.folderCount++;
+                    tasks.add(new FolderTask(child).fork());
+                } else {
+                    files.add(child);
+                }
+            }
+            stats.add(new FilesTask(files, 0, files.size()).compute());
+            for (ForkJoinTask<Stats> task : tasks) {
+                stats.add(task.join());
+            }
+            if (isDelete && isDeleteFolder && !isCanceled) mFolder.delete();
+            return stats;
+        }
+    }
+
+    /**
+     * 处理 [start, end) 范围内的文件, 超过 {@link #CHUNK_SIZE} 时拆分
+     */
+    private final class FilesTask extends RecursiveTask<Stats> {
+
+        private final List<File> mFiles;
+        private final int mStart;
+        private final int mEnd;
+
+        FilesTask(List<File> files, int start, int end) {
+            mFiles = files;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected Stats compute() {
+            if (mEnd - mStart > CHUNK_SIZE) {
+                int middle = (mStart + mEnd) >>> 1;
+                FilesTask left = new FilesTask(mFiles, mStart, middle);
+                left.fork();
+                Stats stats = new FilesTask(mFiles, middle, mEnd).compute();
+                stats.add(left.join());
+                return stats;
+            }
+            Stats stats = new Stats();
+            for (int i = mStart; i < mEnd && !isCanceled; i++) {
+                visitFile(mFiles.get(i), stats);
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * 遍历的统计结果
+     */
+    public static final class Stats {
+
+        private int fileCount;
+        private int folderCount;
+        private int failedCount;
+        private long size;
+        private long oldestModified = Long.MAX_VALUE;
+        private long newestModified;
+        private boolean isCanceled;
+
+        void add(Stats stats) {
+            fileCount += stats.fileCount;
+            folderCount += stats.folderCount;
+            failedCount += stats.failedCount;
+            size += stats.size;
+            oldestModified = Math.min(oldestModified, stats.oldestModified);
+            newestModified = Math.max(newestModified, stats.newestModified);
+        }
+
+        /**
+         * @return 匹配(或者已经删除)的文件数量
+         */
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        /**
+         * @return 遍历的子文件夹数量
+         */
+        public int getFolderCount() {
+            return folderCount;
+        }
+
+        /**
+         * @return 删除失败的文件数量
+         */
+        public int getFailedCount() {
+            return failedCount;
+        }
+
+        /**
+         * @return 匹配(或者已经删除)的文件的总大小
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return 最早的修改时间, 没有文件时为0
+         */
+        public long getOldestModified() {
+            return fileCount == 0 ? 0 : oldestModified;
+        }
+
+        /**
+         * @return 最晚的修改时间, 没有文件时为0
+         */
+        public long getNewestModified() {
+            return newestModified;
+        }
+
+        /**
+         * @return 是否被取消, 取消时结果只包含已经处理的文件
+         */
+        public boolean isCanceled() {
+            return isCanceled;
+        }
+
+        @Override
+        public String toString() {
+            return "files: " + fileCount + ", folders: " + folderCount + ", failed: " + failedCount
+                    + ", size: " + size + ", oldest: " + getOldestModified() + ", newest: " + newestModified
+                    + (isCanceled ? ", canceled" : "");
+        }
+    }
+
+    public interface OnProgressListener {
+
+        /**
+         * @param count 已经处理的文件数量
+         * @param size  已经处理的文件大小
+         */
+        void onProgress(int count, long size);
+    }
+}
@@ -0,0 +1,474 @@
+package com.dzenm.helper.file;
+
+import com.dzenm.helper.log.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author dzenm
+ * @date 2020-03-15 11:20
+ * <pre>
+ * DiskCache cache = FileHelper.getInstance().getDiskCache("/photo", 50 * 1024 * 1024);
+ * DiskCache.Editor editor = cache.edit(url);
+ * if (editor != null) {
+ *     try (OutputStream os = editor.newOutputStream()) {
+ *         bitmap.compress(Bitmap.CompressFormat.JPEG, 90, os);
+ *     }
+ *     editor.commit();
+ * }
+ * File file = cache.get(url);
+ * </pre>
+ * 限制大小的文件缓存, 一个文件夹对应一个DiskCache. key经过SHA-1转换为文件名, 写入时先写入临时文件,
+ * 提交时重命名为正式文件, 读取时不会读到写了一半的文件. 所有文件记录在日志文件中, 按最近使用的顺序排列,
+ * 总大小超过限制或者超过最长保存时间时, 在后台线程中删除最久没有使用的文件. 日志文件只追加记录,
+ * 无效记录较多时重写. 日志格式(每行一条):
+ * <pre>
+ * CLEAN 文件名 大小 时间     写入完成
+ * READ 文件名 时间           读取
+ * REMOVE 文件名              删除
+ * </pre>
+ * 不在日志中的文件(例如提交时进程被杀)在打开时删除
+ */
+public class DiskCache {
+
+    private static final String TAG = DiskCache.class.getSimpleName() + "| ";
+
+    private static final String JOURNAL = "journal";
+    private static final String JOURNAL_TEMP = "journal.tmp";
+    private static final String HEADER = "com.dzenm.helper.DiskCache 1";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    /**
+     * 无效记录超过这个数量并且超过有效记录数量时重写日志
+     */
+    private static final int REDUNDANT_THRESHOLD = 2000;
+
+    private static final Map<String, DiskCache> sInstances = new HashMap<>();
+    private static volatile ExecutorService sExecutor;
+
+    private final File mDirectory;
+    private final File mJournalFile;
+    private long mMaxSize;
+    private long mMaxAge;
+
+    /**
+     * 按访问顺序排列, 第一个是最久没有使用的文件
+     */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> mEditing = new HashSet<>();
+    private Writer mJournalWriter;
+    private long mSize;
+    private int mRedundantCount;
+    private boolean isTrimScheduled;
+
+    /**
+     * 打开文件夹对应的缓存, 同一个文件夹只会打开一次
+     *
+     * @param directory 缓存文件夹, 只能用于缓存, 其它文件会被删除
+     * @param maxSize   最大的总大小, 单位字节
+     * @return DiskCache
+     */
+    public static DiskCache open(File directory, long maxSize) {
+        String path = directory.getAbsolutePath();
+        synchronized (sInstances) {
+            DiskCache cache = sInstances.get(path);
+            if (cache == null) {
+                cache = new DiskCache(directory, maxSize);
+                sInstances.put(path, cache);
+            } else {
+                cache.setMaxSize(maxSize);
+            }
+            return cache;
+        }
+    }
+
+    private DiskCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mJournalFile = new File(directory, JOURNAL);
+        mMaxSize = maxSize;
+        if (!directory.exists()) directory.mkdirs();
+        synchronized (this) {
+            readJournal();
+            deleteUntracked();
+            try {
+                rebuildJournal();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            scheduleTrimIfNeeded();
+        }
+    }
+
+    /**
+     * @param maxSize 最大的总大小, 单位字节, 超过时删除最久没有使用的文件
+     * @return this
+     */
+    public synchronized DiskCache setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        scheduleTrimIfNeeded();
+        return this;
+    }
+
+    /**
+     * @param maxAge 最长的保存时间, 单位毫秒, 超过这个时间没有使用的文件被删除, 小于等于0时不限制
+     * @return this
+     */
+    public synchronized DiskCache setMaxAge(long maxAge) {
+        mMaxAge = maxAge;
+        scheduleTrimIfNeeded();
+        return this;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * @return 所有文件的总大小
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * 获取key对应的文件, 更新最近使用的时间
+     *
+     * @param key 缓存的key
+     * @return 缓存的文件, 不存在或者已经过期时返回null
+     */
+    public synchronized File get(String key) {
+        String name = toName(key);
+        Entry entry = mEntries.get(name);
+        if (entry == null) return null;
+        File file = new File(mDirectory, name);
+        long now = System.currentTimeMillis();
+        if (!file.exists() || isExpired(entry, now)) {
+            removeEntry(name);
+            return null;
+        }
+        entry.time = now;
+        journal(READ + " " + name + " " + now);
+        return file;
+    }
+
+    /**
+     * 写入key对应的文件, 同一个key同时只能有一个Editor
+     *
+     * @param key 缓存的key
+     * @return Editor, 正在写入时返回null
+     */
+    public synchronized Editor edit(String key) {
+        String name = toName(key);
+        if (!mEditing.add(name)) return null;
+        return new Editor(name);
+    }
+
+    /**
+     * 删除key对应的文件
+     *
+     * @param key 缓存的key
+     * @return 是否删除
+     */
+    public synchronized boolean remove(String key) {
+        return removeEntry(toName(key));
+    }
+
+    /**
+     * 删除所有文件
+     */
+    public synchronized void clear() {
+        for (String name : new ArrayList<>(mEntries.keySet())) {
+            removeEntry(name);
+        }
+    }
+
+    /**
+     * 立即删除过期和超出大小的文件, 在调用的线程中执行
+     */
+    public synchronized void trimToSize() {
+        long now = System.currentTimeMillis();
+        long size = mSize;
+        List<String> removed = new ArrayList<>();
+        // 按最近使用的顺序排列, 第一个没有超出大小也没有过期的文件之后都是更新的文件
+        for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+            if (size <= mMaxSize && !isExpired(entry.getValue(), now)) break;
+            removed.add(entry.getKey());
+            size -= entry.getValue().size;
+        }
+        for (String name : removed) {
+            removeEntry(name);
+        }
+        if (!removed.isEmpty()) {
+            Logger.d("%s删除缓存文件: %s, 剩余大小: %s", TAG, removed.size(), mSize);
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return mMaxAge > 0 && now - entry.time > mMaxAge;
+    }
+
+    private boolean removeEntry(String name) {
+        Entry entry = mEntries.remove(name);
+        if (entry == null) return false;
+        new File(mDirectory, name).delete();
+        mSize -= entry.size;
+        journal(REMOVE + " " + name);
+        return true;
+    }
+
+    /**
+     * 提交写入的临时文件, 需要持有锁
+     */
+    private boolean completeEdit(String name, boolean success) {
+        mEditing.remove(name);
+        File temp = new File(mDirectory, name + TEMP_SUFFIX);
+        if (!success || !temp.exists()) {
+            temp.delete();
+            return false;
+        }
+        File file = new File(mDirectory, name);
+        // 重命名是原子操作, 读取时只会看到旧文件或者完整的新文件
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return false;
+        }
+        Entry old = mEntries.get(name);
+        if (old != null) mSize -= old.size;
+        Entry entry = new Entry(file.length(), System.currentTimeMillis());
+        mEntries.put(name, entry);
+        mSize += entry.size;
+        journal(CLEAN + " " + name + " " + entry.size + " " + entry.time);
+        scheduleTrimIfNeeded();
+        return true;
+    }
+
+    /************************************* 日志 *********************************/
+
+    private void readJournal() {
+        if (!mJournalFile.exists()) return;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(mJournalFile), StandardCharsets.UTF_8))) {
+            if (!HEADER.equals(reader.readLine())) return;
+            String line;
+            int lineCount = 0;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                String[] parts = line.split(" ");
+                try {
+                    if (CLEAN.equals(parts[0]) && parts.length == 4) {
+                        Entry old = mEntries.put(parts[1], new Entry(Long.parseLong(parts[2]), Long.parseLong(parts[3])));
+                        if (old != null) mSize -= old.size;
+                        mSize += Long.parseLong(parts[2]);
+                    } else if (READ.equals(parts[0]) && parts.length == 3) {
+                        Entry entry = mEntries.get(parts[1]);
+                        if (entry != null) entry.time = Long.parseLong(parts[2]);
+                    } else if (REMOVE.equals(parts[0]) && parts.length == 2) {
+                        Entry entry = mEntries.remove(parts[1]);
+                        if (entry != null) mSize -= entry.size;
+                    }
+                } catch (NumberFormatException e) {
+                    // 写入一半的最后一行
+                    break;
+                }
+            }
+            mRedundantCount = lineCount - mEntries.size();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 删除临时文件、不在日志中的文件, 以及日志中不存在的文件的记录
+     */
+    private void deleteUntracked() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.equals(JOURNAL) || name.equals(JOURNAL_TEMP)) continue;
+                if (!mEntries.containsKey(name)) file.delete();
+            }
+        }
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> next = iterator.next();
+            if (!new File(mDirectory, next.getKey()).exists()) {
+                mSize -= next.getValue().size;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 只写入有效的记录, 写入临时文件之后替换原日志文件, 需要持有锁
+     */
+    private void rebuildJournal() throws IOException {
+        if (mJournalWriter != null) mJournalWriter.close();
+        File temp = new File(mDirectory, JOURNAL_TEMP);
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8));
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                writer.write(CLEAN + " " + entry.getKey() + " " + entry.getValue().size
+                        + " " + entry.getValue().time + "\n");
+            }
+            writer.flush();
+            fos.getFD().sync();
+        }
+        if (!temp.renameTo(mJournalFile)) {
+            throw new IOException("重命名日志文件失败: " + mJournalFile.getPath());
+        }
+        mRedundantCount = 0;
+        mJournalWriter = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(mJournalFile, true), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 追加一条记录, 需要持有锁
+     */
+    private void journal(String line) {
+        if (mJournalWriter == null) return;
+        try {
+            mJournalWriter.write(line);
+            mJournalWriter.write('\n');
+            mJournalWriter.flush();
+            if (++mRedundantCount >= REDUNDANT_THRESHOLD && mRedundantCount >= mEntries.size()) {
+                rebuildJournal();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void scheduleTrimIfNeeded() {
+        if (isTrimScheduled || (mSize <= mMaxSize && mMaxAge <= 0)) return;
+        isTrimScheduled = true;
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DiskCache.this) {
+                    isTrimScheduled = false;
+                    trimToSize();
+                }
+            }
+        });
+    }
+
+    private static ExecutorService getExecutor() {
+        if (sExecutor == null) synchronized (DiskCache.class) {
+            if (sExecutor == null) {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>());
+                executor.allowCoreThreadTimeOut(true);
+                sExecutor = executor;
+            }
+        }
+        return sExecutor;
+    }
+
+    /**
+     * key转换为文件名, 任意字符的key都可以作为文件名
+     */
+    private static String toName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+
+        final long size;
+        long time;
+
+        Entry(long size, long time) {
+            this.size = size;
+            this.time = time;
+        }
+    }
+
+    /**
+     * 写入一个缓存文件, 写入临时文件, 提交时重命名为正式文件. 必须调用 {@link #commit()} 或者 {@link #abort()}
+     */
+    public final class Editor {
+
+        private final String mName;
+        private boolean isDone;
+
+        private Editor(String name) {
+            mName = name;
+        }
+
+        /**
+         * @return 写入的临时文件, 提交之前写入这个文件
+         */
+        public File getFile() {
+            return new File(mDirectory, mName + TEMP_SUFFIX);
+        }
+
+        /**
+         * @return 写入临时文件的输出流, 提交之前需要关闭
+         */
+        public OutputStream newOutputStream() throws IOException {
+            return new FileOutputStream(getFile());
+        }
+
+        /**
+         * 提交写入的文件, 替换之前的文件
+         *
+         * @return 是否提交成功
+         */
+        public boolean commit() {
+            synchronized (DiskCache.this) {
+                if (isDone) return false;
+                isDone = true;
+                return completeEdit(mName, true);
+            }
+        }
+
+        /**
+         * 放弃写入, 删除临时文件
+         */
+        public void abort() {
+            synchronized (DiskCache.this) {
+                if (isDone) return;
+                isDone = true;
+                completeEdit(mName, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,740 @@
+package com.dzenm.helper.file;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.Settings;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import com.dzenm.helper.log.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * @author dzenm
+ * @date 2020-03-13 09:40
+ * <pre>
+ * SPHelper.getInstance().setEncrypt(true).init(context);
+ * </pre>
+ * 加密保存数据的 {@link SharedPreferences}, 每个值使用AES-GCM加密后以字符串保存到被包装的SharedPreferences中,
+ * key不加密, 作为附加数据参与校验, 加密后的值不能移动到其它key下. 所有数据解密后在内存中保存一份, 读取不需要解密.
+ * 提交的修改先更新内存, 在后台线程中合并多次提交一起加密, 然后一次写入被包装的SharedPreferences.
+ * <p>
+ * 数据密钥在进程中只生成或解密一次, 之后使用应用进程内的AES实现加解密(支持AES指令的设备由硬件加速),
+ * 每个线程复用一个Cipher. 数据密钥本身由Android 6.0以上的AndroidKeyStore中的密钥加密保存, 低于6.0的
+ * 系统使用应用包名和设备ID派生的密钥加密, 只能防止直接读取文件, 不能防止root后的分析. 数据密钥始终使用
+ * 生成时的方式解密, 解密失败时抛出异常, 不会重新生成密钥, 也不会删除无法解密的数据, 只有调用
+ * {@link #reset(Context, SharedPreferences...)} 之后才会删除.
+ * 打开时被包装的SharedPreferences中的明文数据会被加密重新写入. 只能通过这个类修改数据
+ */
+public class EncryptedPreferences implements SharedPreferences {
+
+    private static final String TAG = EncryptedPreferences.class.getSimpleName() + "| ";
+
+    private static final String PREFIX = "enc1:";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_SIZE = 12;
+    private static final int TAG_BITS = 128;
+    private static final int KEY_BITS = 256;
+
+    private static final String KEY_STORE = "AndroidKeyStore";
+    private static final String KEY_ALIAS = "com.dzenm.helper.file.EncryptedPreferences";
+    private static final String KEY_PREFERENCES = "encrypted_prefs_key";
+    private static final String KEY_DATA = "data_key";
+    private static final String KEY_SALT = "salt";
+    private static final String KEY_SCHEME = "wrap_scheme";
+    private static final String SCHEME_KEY_STORE = "keystore";
+    private static final String SCHEME_PASSWORD = "pbkdf2";
+    private static final int PBKDF2_ITERATIONS = 10000;
+
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_STRING_SET = 6;
+
+    private static final SecureRandom sRandom = new SecureRandom();
+    private static volatile SecretKey sKey;
+    private static volatile ExecutorService sExecutor;
+
+    /**
+     * 每个线程复用一个Cipher, Cipher.getInstance需要查找Provider, 耗时比加密一个值还长
+     */
+    private static final ThreadLocal<Cipher> sCipher = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("不支持" + TRANSFORMATION, e);
+            }
+        }
+    };
+
+    private final SharedPreferences mDelegate;
+    private final SecretKey mKey;
+    private final Object mLock = new Object();
+    private final ConcurrentHashMap<String, Object> mValues = new ConcurrentHashMap<>();
+    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> mListeners = new WeakHashMap<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 还没有加密写入的修改, 值为null表示删除, 持有锁时访问
+     */
+    private Map<String, Object> mPending = new LinkedHashMap<>();
+    private boolean isPendingClear;
+    private boolean isFlushScheduled;
+
+    /**
+     * 包装SharedPreferences, 加密其中的数据
+     *
+     * @param context  上下文
+     * @param delegate 保存加密数据的SharedPreferences
+     * @return EncryptedPreferences
+     */
+    public static EncryptedPreferences wrap(Context context, SharedPreferences delegate) {
+        try {
+            return new EncryptedPreferences(delegate, getKey(context));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("获取数据密钥失败, 无法恢复时调用 EncryptedPreferences.reset()", e);
+        }
+    }
+
+    /**
+     * 删除数据密钥和所有加密的数据, 下次打开时重新生成数据密钥. 只在数据密钥已经无法恢复(例如系统重置了
+     * 密钥库)时调用, 所有文件使用同一个数据密钥, 需要同时重置所有加密的文件
+     *
+     * @param context   上下文
+     * @param delegates 保存加密数据的SharedPreferences
+     */
+    public static void reset(Context context, SharedPreferences... delegates) {
+        synchronized (EncryptedPreferences.class) {
+            for (SharedPreferences delegate : delegates) {
+                delegate.edit().clear().commit();
+            }
+            context.getSharedPreferences(KEY_PREFERENCES, Context.MODE_PRIVATE).edit()
+                    .remove(KEY_DATA)
+                    .remove(KEY_SCHEME)
+                    .commit();
+            sKey = null;
+            Logger.w("%s重置数据密钥", TAG);
+        }
+    }
+
+    EncryptedPreferences(SharedPreferences delegate, SecretKey key) {
+        mDelegate = delegate;
+        mKey = key;
+        synchronized (mLock) {
+            load();
+        }
+    }
+
+    /**
+     * 解密被包装的SharedPreferences中的所有数据, 明文数据重新加密. 无法解密的数据保留在文件中,
+     * 直到被新的值覆盖或者清除
+     */
+    private void load() {
+        int failed = 0;
+        for (Map.Entry<String, ?> entry : mDelegate.getAll().entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (value instanceof String && ((String) value).startsWith(PREFIX)) {
+                try {
+                    mValues.put(key, decrypt(key, (String) value));
+                } catch (GeneralSecurityException | IOException | IllegalArgumentException e) {
+                    failed++;
+                }
+            } else if (value != null) {
+                mValues.put(key, value);
+                mPending.put(key, value);
+            }
+        }
+        if (failed > 0) Logger.w("%s无法解密的数据: %s, 保留在文件中", TAG, failed);
+        if (!mPending.isEmpty()) scheduleFlush();
+    }
+
+    /************************************* 读取 *********************************/
+
+    @Override
+    public Map<String, ?> getAll() {
+        return new HashMap<>(mValues);
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        String value = (String) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Nullable
+    @Override
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        Set<String> values = (Set<String>) mValues.get(key);
+        return values != null ? values : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Integer value = (Integer) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Long value = (Long) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Float value = (Float) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Boolean value = (Boolean) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (mListeners) {
+            mListeners.put(listener, this);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+
+    /************************************* 写入 *********************************/
+
+    /**
+     * 更新内存中的数据, 加入等待加密写入的修改
+     *
+     * @param clear         是否先清除所有数据
+     * @param modifications 修改的数据, 值为null表示删除
+     * @param sync          是否等待写入完成
+     * @return 是否写入成功
+     */
+    boolean write(boolean clear, Map<String, Object> modifications, boolean sync) {
+        final Set<String> changedKeys = new LinkedHashSet<>();
+        synchronized (mLock) {
+            if (clear) {
+                changedKeys.addAll(mValues.keySet());
+                mValues.clear();
+                mPending.clear();
+                isPendingClear = true;
+            }
+            for (Map.Entry<String, Object> entry : modifications.entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+                Object old = value == null ? mValues.remove(key) : mValues.put(key, value);
+                if (value == null ? old == null : value.equals(old)) continue;
+                mPending.put(key, value);
+                changedKeys.add(key);
+            }
+            if (!sync && (isPendingClear || !mPending.isEmpty())) scheduleFlush();
+        }
+        notifyListeners(changedKeys);
+        if (!sync) return true;
+        // 单线程执行, 之前提交的修改先写入
+        try {
+            return getExecutor().submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return flush(true);
+                }
+            }).get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 需要持有锁
+     */
+    private void scheduleFlush() {
+        if (isFlushScheduled) return;
+        isFlushScheduled = true;
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                flush(false);
+            }
+        });
+    }
+
+    /**
+     * 加密所有等待写入的修改, 一次写入被包装的SharedPreferences
+     *
+     * @param sync 是否同步写入磁盘
+     * @return 是否写入成功
+     */
+    private boolean flush(boolean sync) {
+        boolean clear;
+        Map<String, Object> pending;
+        synchronized (mLock) {
+            isFlushScheduled = false;
+            clear = isPendingClear;
+            pending = mPending;
+            isPendingClear = false;
+            mPending = new LinkedHashMap<>();
+        }
+        if (!sync && !clear && pending.isEmpty()) return true;
+
+        Editor editor = mDelegate.edit();
+        if (clear) editor.clear();
+        try {
+            for (Map.Entry<String, Object> entry : pending.entrySet()) {
+                String key = entry.getKey();
+                if (entry.getValue() == null) {
+                    editor.remove(key);
+                } else {
+                    editor.putString(key, encrypt(key, entry.getValue()));
+                }
+            }
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+            return false;
+        }
+        if (sync) return editor.commit();
+        editor.apply();
+        return true;
+    }
+
+    private static ExecutorService getExecutor() {
+        if (sExecutor == null) synchronized (EncryptedPreferences.class) {
+            if (sExecutor == null) {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>());
+                executor.allowCoreThreadTimeOut(true);
+                sExecutor = executor;
+            }
+        }
+        return sExecutor;
+    }
+
+    private void notifyListeners(final Set<String> keys) {
+        if (keys.isEmpty()) return;
+        final List<OnSharedPreferenceChangeListener> listeners;
+        synchronized (mListeners) {
+            if (mListeners.isEmpty()) return;
+            listeners = new ArrayList<>(mListeners.keySet());
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (String key : keys) {
+                    for (OnSharedPreferenceChangeListener listener : listeners) {
+                        if (listener != null) listener.onSharedPreferenceChanged(EncryptedPreferences.this, key);
+                    }
+                }
+            }
+        });
+    }
+
+    /************************************* 加密 *********************************/
+
+    /**
+     * 加密一个值, 结果为 前缀 + Base64(IV + 密文 + 校验值)
+     */
+    private String encrypt(String key, Object value) throws GeneralSecurityException {
+        byte[] plain = encode(value);
+        byte[] iv = new byte[IV_SIZE];
+        sRandom.nextBytes(iv);
+        Cipher cipher = sCipher.get();
+        cipher.init(Cipher.ENCRYPT_MODE, mKey, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(key.getBytes(StandardCharsets.UTF_8));
+        byte[] output = new byte[IV_SIZE + cipher.getOutputSize(plain.length)];
+        System.arraycopy(iv, 0, output, 0, IV_SIZE);
+        cipher.doFinal(plain, 0, plain.length, output, IV_SIZE);
+        return PREFIX + Base64.encodeToString(output, Base64.NO_WRAP);
+    }
+
+    private Object decrypt(String key, String value) throws GeneralSecurityException, IOException {
+        byte[] input = Base64.decode(value.substring(PREFIX.length()), Base64.NO_WRAP);
+        if (input.length < IV_SIZE) throw new IOException("数据长度错误");
+        Cipher cipher = sCipher.get();
+        cipher.init(Cipher.DECRYPT_MODE, mKey, new GCMParameterSpec(TAG_BITS, input, 0, IV_SIZE));
+        cipher.updateAAD(key.getBytes(StandardCharsets.UTF_8));
+        return decode(cipher.doFinal(input, IV_SIZE, input.length - IV_SIZE));
+    }
+
+    private static byte[] encode(Object value) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(32);
+        DataOutputStream dos = new DataOutputStream(bos);
+        try {
+            if (value instanceof String) {
+                dos.writeByte(TYPE_STRING);
+                writeString(dos, (String) value);
+            } else if (value instanceof Integer) {
+                dos.writeByte(TYPE_INT);
+                dos.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                dos.writeByte(TYPE_LONG);
+                dos.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                dos.writeByte(TYPE_FLOAT);
+                dos.writeFloat((Float) value);
+            } else if (value instanceof Boolean) {
+                dos.writeByte(TYPE_BOOLEAN);
+                dos.writeBoolean((Boolean) value);
+            } else if (value instanceof Set) {
+                Set<String> values = (Set<String>) value;
+                dos.writeByte(TYPE_STRING_SET);
+                dos.writeInt(values.size());
+                for (String string : values) {
+                    writeString(dos, string);
+                }
+            } else {
+                throw new IllegalArgumentException("不支持的数据类型: " + value.getClass().getName());
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream不会抛出异常
+            throw new IllegalStateException(e);
+        }
+        return bos.toByteArray();
+    }
+
+    private static Object decode(byte[] bytes) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte type = dis.readByte();
+        switch (type) {
+            case TYPE_STRING:
+                return readString(dis);
+            case TYPE_INT:
+                return dis.readInt();
+            case TYPE_LONG:
+                return dis.readLong();
+            case TYPE_FLOAT:
+                return dis.readFloat();
+            case TYPE_BOOLEAN:
+                return dis.readBoolean();
+            case TYPE_STRING_SET:
+                int size = dis.readInt();
+                Set<String> values = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    values.add(readString(dis));
+                }
+                return values;
+            default:
+                throw new IOException("未知的数据类型: " + type);
+        }
+    }
+
+    private static void writeString(DataOutputStream dos, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    private static String readString(DataInputStream dis) throws IOException {
+        byte[] bytes = new byte[dis.readInt()];
+        dis.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /************************************* 密钥 *********************************/
+
+    /**
+     * 获取数据密钥, 进程中只生成或解密一次. 第一次使用时随机生成, 加密后保存. 解密失败时抛出异常,
+     * 下次获取时重试, 密钥库暂时不可用时不会丢失数据
+     */
+    private static SecretKey getKey(Context context) throws GeneralSecurityException {
+        if (sKey == null) synchronized (EncryptedPreferences.class) {
+            if (sKey == null) {
+                SharedPreferences preferences = context.getSharedPreferences(KEY_PREFERENCES, Context.MODE_PRIVATE);
+                String wrapped = preferences.getString(KEY_DATA, null);
+                sKey = wrapped == null ? createKey(context, preferences)
+                        : unwrapKey(context, preferences, wrapped);
+            }
+        }
+        return sKey;
+    }
+
+    /**
+     * 生成数据密钥, 保存加密后的数据密钥和加密的方式
+     */
+    private static SecretKey createKey(Context context, SharedPreferences preferences)
+            throws GeneralSecurityException {
+        String scheme = SCHEME_PASSWORD;
+        SecretKey wrapKey = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            try {
+                wrapKey = getKeyStoreKey();
+                scheme = SCHEME_KEY_STORE;
+            } catch (GeneralSecurityException | IOException e) {
+                Logger.w("%s密钥库不可用, 使用派生的密钥: %s", TAG, e);
+            }
+        }
+        if (wrapKey == null) wrapKey = getPasswordKey(context, preferences);
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(KEY_BITS, sRandom);
+        SecretKey key = generator.generateKey();
+        boolean succeed = preferences.edit()
+                .putString(KEY_DATA, wrap(wrapKey, key))
+                .putString(KEY_SCHEME, scheme)
+                .commit();
+        if (!succeed) throw new GeneralSecurityException("保存数据密钥失败");
+        return key;
+    }
+
+    /**
+     * 使用生成数据密钥时的方式解密. 之前的版本没有保存加密的方式, 依次尝试, GCM校验保证只有正确的
+     * 密钥能够解密, 解密成功后保存加密的方式
+     */
+    private static SecretKey unwrapKey(Context context, SharedPreferences preferences, String wrapped)
+            throws GeneralSecurityException {
+        String scheme = preferences.getString(KEY_SCHEME, null);
+        if (scheme != null) {
+            try {
+                return unwrap(getWrapKey(context, preferences, scheme), wrapped);
+            } catch (IOException | IllegalArgumentException e) {
+                throw new GeneralSecurityException("无法解密数据密钥", e);
+            }
+        }
+        GeneralSecurityException failure = new GeneralSecurityException("无法解密数据密钥");
+        List<String> schemes = new ArrayList<>(2);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) schemes.add(SCHEME_KEY_STORE);
+        schemes.add(SCHEME_PASSWORD);
+        for (String candidate : schemes) {
+            try {
+                SecretKey key = unwrap(getWrapKey(context, preferences, candidate), wrapped);
+                preferences.edit().putString(KEY_SCHEME, candidate).commit();
+                return key;
+            } catch (GeneralSecurityException | IOException | IllegalArgumentException e) {
+                failure.addSuppressed(e);
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * 获取加密数据密钥的密钥
+     *
+     * @param scheme 加密的方式, {@link #SCHEME_KEY_STORE} 或者 {@link #SCHEME_PASSWORD}
+     */
+    private static SecretKey getWrapKey(Context context, SharedPreferences preferences, String scheme)
+            throws GeneralSecurityException, IOException {
+        if (SCHEME_KEY_STORE.equals(scheme)) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+                throw new GeneralSecurityException("系统版本不支持密钥库");
+            }
+            return getKeyStoreKey();
+        }
+        return getPasswordKey(context, preferences);
+    }
+
+    /**
+     * 应用包名和设备ID派生的密钥, 用于低于6.0的系统或者密钥库不可用时
+     */
+    private static SecretKey getPasswordKey(Context context, SharedPreferences preferences)
+            throws GeneralSecurityException {
+        String salt = preferences.getString(KEY_SALT, null);
+        if (salt == null) {
+            byte[] bytes = new byte[16];
+            sRandom.nextBytes(bytes);
+            salt = Base64.encodeToString(bytes, Base64.NO_WRAP);
+            preferences.edit().putString(KEY_SALT, salt).commit();
+        }
+        @SuppressLint("HardwareIds")
+        String password = context.getPackageName() + Settings.Secure.getString(
+                context.getContentResolver(), Settings.Secure.ANDROID_ID);
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), Base64.decode(salt, Base64.NO_WRAP),
+                PBKDF2_ITERATIONS, KEY_BITS);
+        byte[] bytes = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1").generateSecret(spec).getEncoded();
+        return new SecretKeySpec(bytes, "AES");
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    private static SecretKey getKeyStoreKey() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KEY_STORE);
+        keyStore.load(null);
+        if (keyStore.containsAlias(KEY_ALIAS)) {
+            return (SecretKey) keyStore.getKey(KEY_ALIAS, null);
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEY_STORE);
+        generator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(KEY_BITS)
+                .build());
+        return generator.generateKey();
+    }
+
+    /**
+     * 使用密钥库中的密钥时由系统生成IV
+     */
+    private static String wrap(SecretKey wrapKey, SecretKey key) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, wrapKey);
+        byte[] iv = cipher.getIV();
+        byte[] encrypted = cipher.doFinal(key.getEncoded());
+        byte[] output = new byte[iv.length + encrypted.length];
+        System.arraycopy(iv, 0, output, 0, iv.length);
+        System.arraycopy(encrypted, 0, output, iv.length, encrypted.length);
+        return Base64.encodeToString(output, Base64.NO_WRAP);
+    }
+
+    private static SecretKey unwrap(SecretKey wrapKey, String wrapped) throws GeneralSecurityException {
+        byte[] input = Base64.decode(wrapped, Base64.NO_WRAP);
+        if (input.length <= IV_SIZE) throw new GeneralSecurityException("数据密钥长度错误");
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, wrapKey, new GCMParameterSpec(TAG_BITS, input, 0, IV_SIZE));
+        return new SecretKeySpec(cipher.doFinal(input, IV_SIZE, input.length - IV_SIZE), "AES");
+    }
+
+    /**
+     * 与 SharedPreferences.Editor 相同, 修改先保存在内存中, 提交时一次写入
+     */
+    private final class EditorImpl implements Editor {
+
+        private final Map<String, Object> mModifications = new LinkedHashMap<>();
+        private boolean isClear;
+
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            synchronized (this) {
+                mModifications.put(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            synchronized (this) {
+                mModifications.put(key, values == null ? null : new HashSet<>(values));
+            }
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            synchronized (this) {
+                mModifications.put(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            synchronized (this) {
+                mModifications.put(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            synchronized (this) {
+                mModifications.put(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            synchronized (this) {
+                mModifications.put(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            synchronized (this) {
+                mModifications.put(key, null);
+            }
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            synchronized (this) {
+                isClear = true;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return submit(true);
+        }
+
+        @Override
+        public void apply() {
+            submit(false);
+        }
+
+        private boolean submit(boolean sync) {
+            boolean clear;
+            Map<String, Object> modifications;
+            synchronized (this) {
+                clear = isClear;
+                modifications = new LinkedHashMap<>(mModifications);
+                isClear = false;
+                mModifications.clear();
+            }
+            return write(clear, modifications, sync);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.dzenm.helper.file;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import com.dzenm.helper.log.Logger;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * @author dzenm
+ * @date 2020-03-17 09:20
+ * <p>
+ * 先写入同一个文件夹下的临时文件, fsync之后重命名为目标文件, 再fsync文件夹, 崩溃或者断电时目标文件
+ * 要么是旧的内容, 要么是完整的新内容. 组提交时各个线程并行写入和fsync自己的临时文件, 由其中一个线程
+ * 作为提交者统一重命名这一批文件, 每个文件夹只fsync一次, 其它线程等待这一批提交完成后返回.
+ * <p>
+ * 进程在写入临时文件和重命名之间被杀时临时文件会留在文件夹中, 每个文件夹在进程中第一次写入之前
+ * 删除之前留下的临时文件
+ */
+final class FileCommitter {
+
+    private static final String TAG = FileCommitter.class.getSimpleName() + "| ";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Pattern TEMP_PATTERN = Pattern.compile("\\..+\\.\\d+\\.tmp");
+
+    private static volatile FileCommitter sInstance;
+
+    private final AtomicInteger mTempCount = new AtomicInteger();
+
+    /**
+     * 已经清理过临时文件的文件夹
+     */
+    private final Set<String> mSweptFolders = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * 正在写入或者等待提交的临时文件, 清理时保留
+     */
+    private final Set<String> mWritingTemps = Collections.synchronizedSet(new HashSet<String>());
+
+    private final Object mLock = new Object();
+    private ArrayList<Commit> mPending = new ArrayList<>();
+    private boolean isCommitting;
+    private volatile long mGroupCommitDelay;
+
+    private FileCommitter() {
+    }
+
+    static FileCommitter getInstance() {
+        if (sInstance == null) synchronized (FileCommitter.class) {
+            if (sInstance == null) sInstance = new FileCommitter();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param delay 提交者开始提交之前等待的时间, 用于收集更多的文件, 默认为0, 只合并提交期间到达的文件
+     */
+    void setGroupCommitDelay(long delay) {
+        mGroupCommitDelay = delay;
+    }
+
+    /**
+     * 写入临时文件并替换目标文件, 返回时内容已经写入磁盘
+     *
+     * @param target      目标文件
+     * @param content     写入的内容
+     * @param groupCommit 是否和其它线程的写入一起提交
+     */
+    void write(File target, Content content, boolean groupCommit) throws IOException {
+        File folder = target.getParentFile();
+        File temp = new File(folder, "." + target.getName() + "." + mTempCount.incrementAndGet() + TEMP_SUFFIX);
+        // 先记录再创建, 其它线程清理时不会删除这个临时文件
+        mWritingTemps.add(temp.getName());
+        try {
+            if (folder != null && mSweptFolders.add(folder.getPath())) sweep(folder);
+            try (FileOutputStream fos = new FileOutputStream(temp)) {
+                content.writeTo(fos);
+                fos.getChannel().force(false);
+            } catch (IOException e) {
+                temp.delete();
+                throw e;
+            }
+            if (groupCommit) {
+                commit(new Commit(temp, target));
+            } else {
+                rename(temp, target);
+                syncFolder(folder);
+            }
+        } finally {
+            mWritingTemps.remove(temp.getName());
+        }
+    }
+
+    /**
+     * 删除文件夹中之前的进程留下的临时文件, 只删除 .文件名.序号.tmp 格式的文件
+     */
+    private void sweep(File folder) {
+        File[] files = folder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return TEMP_PATTERN.matcher(name).matches() && !mWritingTemps.contains(name);
+            }
+        });
+        if (files == null) return;
+        for (File file : files) {
+            if (file.delete()) Logger.d(TAG + "delete stale temp file: " + file);
+        }
+    }
+
+    /**
+     * 没有提交者时成为提交者, 否则等待提交者完成, 提交者完成之后唤醒所有等待的线程,
+     * 还没有提交的线程中的一个成为下一个提交者
+     */
+    private void commit(Commit commit) throws IOException {
+        boolean interrupted = false;
+        synchronized (mLock) {
+            mPending.add(commit);
+            while (!commit.isDone && isCommitting) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (!commit.isDone) isCommitting = true;
+        }
+        if (!commit.isDone) {
+            long delay = mGroupCommitDelay;
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            List<Commit> batch;
+            synchronized (mLock) {
+                batch = mPending;
+                mPending = new ArrayList<>();
+            }
+            try {
+                apply(batch);
+            } finally {
+                synchronized (mLock) {
+                    for (Commit c : batch) c.isDone = true;
+                    isCommitting = false;
+                    mLock.notifyAll();
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (commit.mError != null) throw commit.mError;
+    }
+
+    private void apply(List<Commit> batch) {
+        LinkedHashSet<File> folders = new LinkedHashSet<>();
+        for (Commit commit : batch) {
+            try {
+                rename(commit.mTemp, commit.mTarget);
+                folders.add(commit.mTarget.getParentFile());
+            } catch (IOException e) {
+                commit.mError = e;
+            }
+        }
+        for (File folder : folders) {
+            syncFolder(folder);
+        }
+        if (Logger.isLoggable(Logger.DEBUG)) {
+            Logger.d(TAG + "group commit " + batch.size() + " files in " + folders.size() + " folders");
+        }
+    }
+
+    private void rename(File temp, File target) throws IOException {
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("rename failed: " + temp + " -> " + target);
+        }
+    }
+
+    /**
+     * fsync文件夹, 保证重命名已经写入磁盘, 失败时只打印日志, 文件的内容已经写入
+     */
+    private void syncFolder(File folder) {
+        if (folder == null) return;
+        try {
+            FileDescriptor fd = Os.open(folder.getPath(), OsConstants.O_RDONLY, 0);
+            try {
+                Os.fsync(fd);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException e) {
+            Logger.w(TAG + "sync folder failed: " + folder + ", " + e.getMessage());
+        }
+    }
+
+    private static final class Commit {
+
+        private final File mTemp;
+        private final File mTarget;
+        private boolean isDone;
+        private IOException mError;
+
+        Commit(File temp, File target) {
+            mTemp = temp;
+            mTarget = target;
+        }
+    }
+
+    /**
+     * 写入文件的内容
+     */
+    interface Content {
+
+        void writeTo(OutputStream os) throws IOException;
+    }
+}
@@ -21,32 +21,40 @@ import android.provider.MediaStore;
 import android.text.TextUtils;
 import android.webkit.MimeTypeMap;
 
+import androidx.annotation.IntDef;
 import androidx.core.content.FileProvider;
 
 import com.dzenm.helper.date.DateHelper;
 import com.dzenm.helper.log.Logger;
 import com.dzenm.helper.os.OsHelper;
+import com.dzenm.helper.photo.BitmapCache;
+import com.dzenm.helper.photo.BitmapDecoder;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -58,9 +66,38 @@ import java.util.List;
 public class FileHelper {
 
     private static final String TAG = FileHelper.class.getSimpleName() + "| ";
+
+    /**
+     * 超过这个大小的文件映射到内存读取
+     */
+    private static final int MAP_THRESHOLD = 1024 * 1024;
+
+    /**
+     * 直接覆盖目标文件, 写入过程中崩溃会留下不完整的文件
+     */
+    public static final int WRITE_DIRECT = 0;
+
+    /**
+     * 写入临时文件, fsync之后重命名为目标文件, 每个文件fsync文件和文件夹各一次
+     */
+    public static final int WRITE_ATOMIC = 1;
+
+    /**
+     * 和 {@link #WRITE_ATOMIC} 一样写入临时文件, 多个线程同时写入时合并重命名和文件夹的fsync,
+     * 适合在 {@link AsyncFileHelper} 中大量写入小文件
+     */
+    public static final int WRITE_GROUP_COMMIT = 2;
+
+    @IntDef({WRITE_DIRECT, WRITE_ATOMIC, WRITE_GROUP_COMMIT})
+    @Retention(RetentionPolicy.SOURCE)
+    private @interface WriteMode {
+    }
+
     private Context mContext;
     private String mAppFolder;              // app名称目录
     private String mUserFolder;             // 个人账号文件夹
+    private @WriteMode
+    int mWriteMode = WRITE_DIRECT;
 
     private static volatile FileHelper sInstance;
 
@@ -119,6 +156,27 @@ public class FileHelper {
         return this;
     }
 
+    /**
+     * 设置 {@link #newFile(File, String)}、{@link #savePhoto(Bitmap, File)} 和
+     * {@link #newFile(File, List, Codec)} 写入文件的方式, 默认为 {@link #WRITE_DIRECT}
+     *
+     * @param writeMode {@link #WRITE_DIRECT}, {@link #WRITE_ATOMIC}, {@link #WRITE_GROUP_COMMIT}
+     * @return this
+     */
+    public FileHelper setWriteMode(@WriteMode int writeMode) {
+        mWriteMode = writeMode;
+        return this;
+    }
+
+    /**
+     * @param delay {@link #WRITE_GROUP_COMMIT} 时提交之前等待的毫秒数, 用于合并更多的写入, 默认为0
+     * @return this
+     */
+    public FileHelper setGroupCommitDelay(long delay) {
+        FileCommitter.getInstance().setGroupCommitDelay(delay);
+        return this;
+    }
+
     /**
      * 创建该软件的根目录文件夹
      *
@@ -183,6 +241,18 @@ public class FileHelper {
         return mkdir(mAppFolder + File.separator + mUserFolder + f);
     }
 
+    /**
+     * 获取限制大小的文件缓存, 位于/storage/emulated/0/公司名/App文件夹/folders
+     *
+     * @param folderName 缓存文件夹的路径, 例: /cache/photo, 只能用于缓存, 其它文件会被删除
+     * @param maxSize    最大的总大小, 单位字节
+     * @return DiskCache, 未初始化或者没有外部存储时返回null
+     */
+    public DiskCache getDiskCache(String folderName, long maxSize) {
+        File folder = getFile(folderName);
+        return folder == null ? null : DiskCache.open(folder, maxSize);
+    }
+
     /**
      * 获取uri, 适配Android N
      * 必须在Manifest中添加
@@ -370,37 +440,56 @@ public class FileHelper {
      * @param filterName 过滤的文件名称
      * @return 是否删除成功
      */
-    public boolean delete(File folder, String filterName) {
-        File[] files = folder.listFiles();
-        if (files == null || files.length == 0) return false;
-        Logger.d(TAG + folder.getPath() + "文件夹里共有" + files.length + "个文件");
-        boolean isDelete = true;
-        for (File file : files) {
-            if (file.getName().equals(filterName)) continue;
-            if (file.isDirectory()) continue;
-            if (file.exists()) isDelete = file.delete();
-            if (!isDelete) break;
+    public boolean delete(File folder, final String filterName) {
+        if (!folder.isDirectory()) return false;
+        DirectoryWalker.Stats stats = new DirectoryWalker(folder)
+                .setRecursive(false)
+                .setDeleteFolder(false)
+                .setFilter(new FileFilter() {
+                    @Override
+                    public boolean accept(File file) {
+                        return !file.getName().equals(filterName);
+                    }
+                })
+                .delete();
+        if (Logger.isLoggable(Logger.DEBUG)) {
+            Logger.d(TAG + folder.getPath() + "文件夹里共删除" + stats.getFileCount() + "个文件");
         }
-        Logger.d(TAG + "文件删除" + (isDelete ? "成功" : "失败"));
+        boolean isDelete = stats.getFileCount() > 0 && stats.getFailedCount() == 0;
+        Logger.d("%s文件删除%s", TAG, isDelete ? "成功" : "失败");
         return isDelete;
     }
 
     /**
+     * 并行删除folder文件夹及其子文件夹下所有匹配的文件, 删除之后变为空的文件夹也会被删除
+     *
+     * @param folder 需要删除文件的文件夹
+     * @param filter 需要删除的文件, 为null时删除所有文件
+     * @return 删除的结果, 见 {@link DirectoryWalker.Stats}
+     */
+    public DirectoryWalker.Stats deleteFiles(File folder, FileFilter filter) {
+        return new DirectoryWalker(folder).setFilter(filter).delete();
+    }
+
+    /**
+     * 并行统计文件夹的大小、文件数量和修改时间
+     *
+     * @param folder 文件夹
+     * @return 统计结果, 见 {@link DirectoryWalker.Stats}
+     */
+    public DirectoryWalker.Stats getFolderStats(File folder) {
+        return new DirectoryWalker(folder).scan();
+    }
+
+    /**
+     * 并行删除文件夹以及其中所有的文件和子文件夹
+     *
      * @param folder 删除文件夹
      */
     public void deleteFolder(File folder) {
-        if (!folder.exists()) return;
-        if (folder.isFile()) folder.delete();   // 如果是文件直接删除
-        if (folder.isDirectory()) {             // 如果是目录，递归判断，如果是空目录，直接删除，如果是文件，遍历删除
-            File[] children = folder.listFiles();
-            if (children == null || children.length == 0) {
-                folder.delete();
-                return;
-            }
-            for (File f : children) {
-                delete(f);
-            }
-            folder.delete();
+        DirectoryWalker.Stats stats = new DirectoryWalker(folder).delete();
+        if (Logger.isLoggable(Logger.DEBUG)) {
+            Logger.d(TAG + "删除文件夹: " + folder.getPath() + ", " + stats);
         }
     }
 
@@ -429,12 +518,30 @@ public class FileHelper {
      * @return 是否保存成功
      */
     public boolean savePhoto(Bitmap bitmap, File file) {
-        if (file.exists()) file.delete();
-        createNewFile(file);
-        Logger.d(TAG + "save the photo's path: " + file.getPath());
-        try (FileOutputStream fos = new FileOutputStream(file);) {
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, fos);
-            fos.flush();
+        return savePhoto(bitmap, file, Bitmap.CompressFormat.JPEG, 100);
+    }
+
+    /**
+     * @param bitmap  保存的图片
+     * @param file    存储的文件
+     * @param format  压缩的格式
+     * @param quality 压缩的质量, 0~100, PNG会忽略这个参数
+     * @return 是否保存成功
+     */
+    public boolean savePhoto(final Bitmap bitmap, File file, final Bitmap.CompressFormat format, final int quality) {
+        if (mWriteMode == WRITE_DIRECT) {
+            if (file.exists()) file.delete();
+            createNewFile(file);
+        }
+        Logger.d("%ssave the photo's path: %s", TAG, file);
+        try {
+            writeFile(file, new FileCommitter.Content() {
+                @Override
+                public void writeTo(OutputStream os) throws IOException {
+                    bitmap.compress(format, quality, os);
+                    os.flush();
+                }
+            });
             return true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -477,13 +584,21 @@ public class FileHelper {
     }
 
     /**
+     * 读取原图, 相同的文件读取过并且还在 {@link BitmapCache} 中时直接返回
+     *
      * @param file 文件
-     * @return Bitmap 读取到的图片
+     * @return Bitmap 读取到的图片, 可能和其它调用者共用, 不要修改或者回收
      */
     public Bitmap getPhoto(File file) {
         if (!isFile(file)) return null;
-        Logger.d(TAG + "get the photo's path: " + file.getPath());
-        return BitmapFactory.decodeFile(file.getPath());
+        Logger.d("%sget the photo's path: %s", TAG, file);
+        String key = BitmapCache.key(file.getPath() + "#" + file.lastModified(), 0, 0, Bitmap.Config.ARGB_8888);
+        Bitmap bitmap = BitmapCache.getInstance().get(key);
+        if (bitmap == null) {
+            bitmap = BitmapDecoder.decodeFile(file.getPath(), 0, 0);
+            if (bitmap != null) BitmapCache.getInstance().put(key, bitmap);
+        }
+        return bitmap;
     }
 
     /**
@@ -511,12 +626,16 @@ public class FileHelper {
      * @param file    文件
      * @param content 文件内容
      */
-    public boolean newFile(File file, String content) {
-        try (FileOutputStream fos = new FileOutputStream(file);
-             OutputStreamWriter osr = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-             BufferedWriter bw = new BufferedWriter(osr)
-        ) {
-            bw.write(content);
+    public boolean newFile(File file, final String content) {
+        try {
+            writeFile(file, new FileCommitter.Content() {
+                @Override
+                public void writeTo(OutputStream os) throws IOException {
+                    BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+                    bw.write(content);
+                    bw.flush();
+                }
+            });
             Logger.d("保存文件成功: " + file.getPath());
             return true;
         } catch (Exception e) {
@@ -527,17 +646,39 @@ public class FileHelper {
     }
 
     /**
-     * 创建一个List数据的文件
+     * 创建一个List数据的文件, 使用 {@link ObjectCodec} 保存, 元素需要实现Serializable
      *
      * @param tArrayList 保存的ArrayList
      * @param filePath   文件路径
      */
+    @SuppressWarnings("unchecked")
     public boolean newFile(ArrayList tArrayList, String filePath) {
-        File file = new File(filePath);
-        // 新建一个内容为空的文件
-        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(new FileOutputStream(file.toString()))) {
-            objectOutputStream.writeObject(tArrayList);
-            Logger.d("保存文件成功: " + filePath);
+        return newFile(new File(filePath), (List<Object>) tArrayList, ObjectCodec.INSTANCE);
+    }
+
+    /**
+     * 使用 {@link Codec} 保存列表, 每个元素记录长度, 可以使用 {@link #openList(File, Codec)} 逐个读取
+     *
+     * @param file  文件
+     * @param list  保存的列表
+     * @param codec 元素的编解码
+     * @return 保存是否成功
+     */
+    public <T> boolean newFile(File file, final List<T> list, final Codec<T> codec) {
+        try {
+            writeFile(file, new FileCommitter.Content() {
+                @Override
+                public void writeTo(OutputStream os) throws IOException {
+                    BinaryWriter writer = new BinaryWriter(os);
+                    BinaryWriter element = new BinaryWriter();
+                    ListReader.writeHeader(writer, list.size());
+                    for (int i = 0; i < list.size(); i++) {
+                        ListReader.writeElement(writer, element, codec, list.get(i));
+                    }
+                    writer.flush();
+                }
+            });
+            Logger.d("保存文件成功: " + file.getPath());
             return true;
         } catch (Exception e) {
             Logger.d("保存文件失败: " + e.getMessage());
@@ -573,13 +714,8 @@ public class FileHelper {
      * @return boolean 存储成功的标志
      */
     public boolean newFile(String fileName, Serializable serializable) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(mContext.openFileOutput(fileName, Context.MODE_PRIVATE))) {
-            oos.writeObject(serializable);
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return false;
+        return newFile(mContext.getFileStreamPath(fileName),
+                Collections.<Object>singletonList(serializable), ObjectCodec.INSTANCE);
     }
 
     /**
@@ -675,18 +811,47 @@ public class FileHelper {
      */
     public String readFile(File file) {
         if (!isFile(file)) return "";
-        StringBuilder content = new StringBuilder();
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                content.append(line).append("\n");
+        try (FileInputStream fis = new FileInputStream(file)) {
+            FileChannel channel = fis.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                Logger.d(TAG + "file is too large: " + file.getPath());
+                return "";
             }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            // 大文件映射到内存直接解码, 不需要先复制到堆中的byte[]
+            ByteBuffer buffer = size >= MAP_THRESHOLD
+                    ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+                    : ByteBuffer.wrap(readFully(channel, (int) size));
+            return toLines(StandardCharsets.UTF_8.decode(buffer));
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return content.toString();
+        return "";
+    }
+
+    /**
+     * 与按行读取的结果一致: 换行符统一为\n, 最后一行也以\n结尾
+     */
+    private String toLines(CharBuffer content) {
+        int length = content.length();
+        if (length == 0) return "";
+        boolean isNormalized = content.get(length - 1) == '\n';
+        for (int i = 0; isNormalized && i < length; i++) {
+            if (content.get(i) == '\r') isNormalized = false;
+        }
+        if (isNormalized) return content.toString();
+        StringBuilder builder = new StringBuilder(length + 1);
+        for (int i = 0; i < length; i++) {
+            char c = content.get(i);
+            if (c == '\r') {
+                if (i + 1 < length && content.get(i + 1) == '\n') i++;
+                builder.append('\n');
+            } else {
+                builder.append(c);
+            }
+        }
+        if (builder.charAt(builder.length() - 1) != '\n') builder.append('\n');
+        return builder.toString();
     }
 
     /**
@@ -696,6 +861,8 @@ public class FileHelper {
     public ArrayList readArrayListFile(String filePath) {
         File file = new File(filePath);
         if (!isFile(file)) return null;
+        if (ListReader.isCodecFile(file)) return readList(file, ObjectCodec.INSTANCE);
+        // 兼容之前使用ObjectOutputStream保存的文件
         ArrayList savedArrayList = new ArrayList<>();
         try (ObjectInputStream objectInputStream = new ObjectInputStream(new FileInputStream(file))) {
             savedArrayList = (ArrayList) objectInputStream.readObject();
@@ -705,27 +872,100 @@ public class FileHelper {
         return savedArrayList;
     }
 
+    /**
+     * 读取 {@link #newFile(File, List, Codec)} 保存的列表
+     *
+     * @param file  文件
+     * @param codec 元素的编解码
+     * @return 读取到的列表, 失败返回null
+     */
+    public <T> ArrayList<T> readList(File file, Codec<T> codec) {
+        try (ListReader<T> reader = new ListReader<>(file, codec)) {
+            ArrayList<T> list = new ArrayList<>(reader.size());
+            while (reader.hasNext()) {
+                list.add(reader.next());
+            }
+            return list;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 打开 {@link #newFile(File, List, Codec)} 保存的列表, 逐个读取元素, 用于不能一次读到内存中的大列表.
+     * 使用完成后需要调用 {@link ListReader#close()}
+     *
+     * @param file  文件
+     * @param codec 元素的编解码
+     * @return 列表的读取器, 失败返回null
+     */
+    public <T> ListReader<T> openList(File file, Codec<T> codec) {
+        try {
+            return new ListReader<>(file, codec);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
     /**
      * @param filePath 文件所在路径
      * @return 获取二进制文件流
      */
     public byte[] readBytes(String filePath) {
-        File file = new File(filePath);
+        return readBytes(new File(filePath));
+    }
+
+    /**
+     * 按文件大小一次申请数组读取, 不经过ByteArrayOutputStream的扩容和复制
+     *
+     * @param file 文件
+     * @return 获取二进制文件流
+     */
+    public byte[] readBytes(File file) {
         if (!isFile(file)) return null;
-        byte[] bytes = null;
-        try (FileInputStream fis = new FileInputStream(file);
-             ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            int count;
-            byte[] buffer = new byte[4096];
-            while ((count = fis.read(buffer)) > 0) {
-                bos.write(buffer, 0, count);
+        try (FileInputStream fis = new FileInputStream(file)) {
+            FileChannel channel = fis.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                Logger.d(TAG + "file is too large: " + file.getPath());
+                return null;
             }
-            bytes = bos.toByteArray();
-            bos.flush();
-        } catch (Exception e) {
+            return readFully(channel, (int) size);
+        } catch (IOException e) {
             e.printStackTrace();
         }
-        return bytes;
+        return null;
+    }
+
+    /**
+     * 只读映射整个文件, 适合读取大文件, 数据由系统按需加载, 不占用堆内存. 映射在文件关闭后仍然有效
+     *
+     * @param file 文件
+     * @return 映射的文件内容, 失败返回null
+     */
+    public MappedByteBuffer mapFile(File file) {
+        if (!isFile(file)) return null;
+        try (FileInputStream fis = new FileInputStream(file)) {
+            FileChannel channel = fis.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 读取size字节, 文件在读取期间变短时返回实际读取的内容
+     */
+    private byte[] readFully(FileChannel channel, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) break;
+        }
+        return buffer.position() == size ? bytes : Arrays.copyOf(bytes, buffer.position());
     }
 
     /**
@@ -759,7 +999,7 @@ public class FileHelper {
                 if (readLength == -1) break;
                 arrayOutputStream.write(buffer, 0, readLength);
             }
-            return new String(arrayOutputStream.toByteArray());
+            return new String(arrayOutputStream.toByteArray(), StandardCharsets.UTF_8);
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         } catch (IOException e) {
@@ -829,6 +1069,12 @@ public class FileHelper {
      * @return Serializable, 读取到的序列化对象
      */
     public Serializable readSerializable(String fileName) {
+        File file = mContext.getFileStreamPath(fileName);
+        if (ListReader.isCodecFile(file)) {
+            List<Object> list = readList(file, ObjectCodec.INSTANCE);
+            return list == null || list.isEmpty() ? null : (Serializable) list.get(0);
+        }
+        // 兼容之前使用ObjectOutputStream保存的文件
         try (ObjectInputStream ois = new ObjectInputStream(mContext.openFileInput(fileName))) {
             return (Serializable) ois.readObject();
         } catch (Exception e) {
@@ -889,7 +1135,8 @@ public class FileHelper {
     }
 
     /**
-     * 复制文件
+     * 复制文件, 使用 {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+     * 由内核直接复制, 数据不经过Java堆
      *
      * @param oldFile 复制文件的路径
      * @param newFile 新文件路径
@@ -897,20 +1144,25 @@ public class FileHelper {
     public boolean copyFile(File oldFile, File newFile) {
         if (!createNewFile(newFile)) return false;
         if (oldFile.exists()) {         // 文件存在时
-            try (InputStream inStream = new FileInputStream(oldFile);
+            try (FileInputStream fis = new FileInputStream(oldFile);
                  FileOutputStream fos = new FileOutputStream(newFile)) {
-                byte[] buffer = new byte[1024];
-                int len = 0, byteread = 0;
-                while ((byteread = inStream.read(buffer)) != -1) {
-                    len += byteread; // 字节数 文件大小
-                    fos.write(buffer, 0, byteread);
+                FileChannel in = fis.getChannel();
+                FileChannel out = fos.getChannel();
+                long size = in.size(), position = 0;
+                // transferTo一次可能只复制一部分
+                while (position < size) {
+                    long count = in.transferTo(position, size - position, out);
+                    if (count <= 0) break;
+                    position += count;
                 }
-                fos.flush();
+                if (position != size) throw new IOException("复制的文件不完整: " + position + "/" + size);
                 Logger.d(TAG + "复制文件成功: " + newFile.getPath());
                 return true;
             } catch (Exception e) {
                 Logger.d(TAG + "复制文件出错");
                 e.printStackTrace();
+                newFile.delete();
+                return false;
             }
         }
         Logger.d(TAG + "复制的源文件不存在");
@@ -977,14 +1229,8 @@ public class FileHelper {
     public String md5(String string) {
         if (string.length() < 1) return "";
         try {
-            byte[] bytes = MessageDigest.getInstance("MD5Util").digest(string.getBytes());
-            StringBuilder result = new StringBuilder();
-            for (byte b : bytes) {
-                String temp = Integer.toHexString(b & 0xff);
-                if (temp.length() == 1) temp = "0" + temp;
-                result.append(temp);
-            }
-            return result.toString();
+            byte[] bytes = MessageDigest.getInstance("MD5").digest(string.getBytes(StandardCharsets.UTF_8));
+            return toHex(bytes);
         } catch (NoSuchAlgorithmException e) {
             e.printStackTrace();
         }
@@ -998,23 +1244,70 @@ public class FileHelper {
      * @return MD5值
      */
     public String md5(File file) {
+        return digest(file, "MD5");
+    }
+
+    /**
+     * 分块读取文件计算摘要, 不会一次性映射或读取整个文件
+     *
+     * @param file      需要计算的文件
+     * @param algorithm 摘要算法, 例: MD5, SHA-256
+     * @return 十六进制的摘要值, 失败时返回""
+     */
+    public String digest(File file, String algorithm) {
         try (FileInputStream ins = new FileInputStream(file)) {
-            StringBuilder result = new StringBuilder();
-            MappedByteBuffer byteBuffer = ins.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
-            MessageDigest md5 = MessageDigest.getInstance("MD5Util");
-            md5.update(byteBuffer);
-            byte[] bytes = md5.digest();
-            for (byte b : bytes) {
-                String temp = Integer.toHexString(b & 0xff);
-                if (temp.length() == 1) temp = "0" + temp;
-                result.append(temp);
+            return digest(ins, algorithm);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return "";
+    }
+
+    /**
+     * 分块读取输入流计算摘要, 用于无法转换为文件路径的Uri, 不会关闭输入流
+     *
+     * @param ins       需要计算的输入流
+     * @param algorithm 摘要算法, 例: MD5, SHA-256
+     * @return 十六进制的摘要值, 失败时返回""
+     */
+    public String digest(InputStream ins, String algorithm) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance(algorithm);
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = ins.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, count);
             }
+            return toHex(messageDigest.digest());
         } catch (Exception e) {
             e.printStackTrace();
         }
         return "";
     }
 
+    private String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            String temp = Integer.toHexString(b & 0xff);
+            if (temp.length() == 1) result.append('0');
+            result.append(temp);
+        }
+        return result.toString();
+    }
+
+    /**
+     * 按 {@link #mWriteMode} 写入文件
+     */
+    private void writeFile(File file, FileCommitter.Content content) throws IOException {
+        if (mWriteMode == WRITE_DIRECT) {
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                content.writeTo(fos);
+            }
+        } else {
+            FileCommitter.getInstance().write(file, content, mWriteMode == WRITE_GROUP_COMMIT);
+        }
+    }
+
     private boolean isFile(File file) {
         if (!isExternal()) return false;
         if (!file.exists()) {
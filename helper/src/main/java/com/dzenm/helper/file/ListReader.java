@@ -0,0 +1,127 @@
+package com.dzenm.helper.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * @author dzenm
+ * @date 2020-03-16 10:20
+ * <pre>
+ * ListReader<User> reader = FileHelper.getInstance().openList(file, User.CODEC);
+ * try {
+ *     while (reader.hasNext()) {
+ *         User user = reader.next();
+ *     }
+ * } finally {
+ *     reader.close();
+ * }
+ * </pre>
+ * 逐个读取 {@link FileHelper#newFile(File, List, Codec)} 写入的列表, 不需要把整个列表读到内存中.
+ * 文件格式为 魔数 + 版本 + 元素数量 + 每个元素的(长度 + 数据), 元素的数据先读到复用的缓冲区中再解码,
+ * 解码后剩余的数据会被跳过
+ */
+public class ListReader<T> implements Closeable {
+
+    static final int MAGIC = 0x445A4243;
+    static final int VERSION = 1;
+
+    private final BinaryReader mReader;
+    private final InputStream mInputStream;
+    private final Codec<T> mCodec;
+    private final int mCount;
+    private int mIndex;
+
+    private byte[] mElement = new byte[256];
+    private final BinaryReader mElementReader = new BinaryReader(mElement, 0);
+
+    ListReader(File file, Codec<T> codec) throws IOException {
+        mInputStream = new FileInputStream(file);
+        mReader = new BinaryReader(mInputStream);
+        mCodec = codec;
+        try {
+            if (mReader.readInt() != MAGIC) throw new IOException("not a codec file: " + file);
+            int version = mReader.readByte();
+            if (version != VERSION) throw new IOException("unsupported version: " + version);
+            mCount = mReader.readVarInt();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * 写入文件头, 之后依次调用 {@link #writeElement(BinaryWriter, BinaryWriter, Codec, Object)}
+     */
+    static void writeHeader(BinaryWriter writer, int count) throws IOException {
+        writer.writeInt(MAGIC);
+        writer.writeByte(VERSION);
+        writer.writeVarInt(count);
+    }
+
+    /**
+     * 先编码到 element 中得到长度, 再写入长度和数据
+     */
+    static <T> void writeElement(BinaryWriter writer, BinaryWriter element, Codec<T> codec, T value)
+            throws IOException {
+        element.reset();
+        codec.encode(element, value);
+        writer.writeVarInt(element.size());
+        writer.write(element.array(), 0, element.size());
+    }
+
+    /**
+     * @return 文件是否以 {@link #MAGIC} 开头
+     */
+    static boolean isCodecFile(File file) {
+        try (InputStream is = new FileInputStream(file)) {
+            return new BinaryReader(is).readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return 列表中元素的数量
+     */
+    public int size() {
+        return mCount;
+    }
+
+    public boolean hasNext() {
+        return mIndex < mCount;
+    }
+
+    public T next() throws IOException {
+        if (mIndex >= mCount) throw new NoSuchElementException();
+        int length = mReader.readVarInt();
+        if (length > mElement.length) mElement = new byte[Math.max(length, mElement.length * 2)];
+        mReader.readFully(mElement, 0, length);
+        mElementReader.reset(mElement, length);
+        T value = mCodec.decode(mElementReader);
+        mIndex++;
+        return value;
+    }
+
+    /**
+     * 跳过下一个元素, 不解码
+     */
+    public void skip() throws IOException {
+        if (mIndex >= mCount) throw new NoSuchElementException();
+        mReader.skip(mReader.readVarInt());
+        mIndex++;
+    }
+
+    @Override
+    public void close() {
+        try {
+            mInputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,707 @@
+package com.dzenm.helper.file;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+
+import com.dzenm.helper.log.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author dzenm
+ * @date 2020-03-12 10:30
+ * <pre>
+ * SPHelper.getInstance().setBackend(SPHelper.BACKEND_MAPPED).init(context);
+ * </pre>
+ * 基于内存映射文件的 {@link SharedPreferences} 实现. 每次修改只在文件末尾追加修改的记录, 而不是像
+ * SharedPreferences 那样重写整个XML文件, 写入的耗时只与修改的数据量有关. 所有数据在内存中保存一份,
+ * 读取不需要访问文件. 被覆盖或删除的记录超过一半时, 在后台线程中压缩文件. 文件结构:
+ * <pre>
+ * 文件头: MAGIC(4) VERSION(4) 数据结束位置(4) 保留(4)
+ * 记录: 长度(4) 类型(1) key长度(4) key(UTF-8) 值
+ * </pre>
+ * 一次提交的所有记录写入之后才更新数据结束位置, 多个key的修改要么全部生效要么全部不生效.
+ * 写入映射内存的数据由系统写回文件, 进程被杀不会丢失, {@link Editor#commit()} 会同步到磁盘.
+ * 不支持多进程同时访问
+ */
+public class MappedPreferences implements SharedPreferences {
+
+    private static final String TAG = MappedPreferences.class.getSimpleName() + "| ";
+
+    private static final int MAGIC = 0x4d505246;    // MPRF
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int OFFSET_END = 8;
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final String FOLDER = "mapped_prefs";
+    private static final String SUFFIX = ".kv";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final byte TYPE_REMOVE = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_STRING_SET = 6;
+    private static final byte TYPE_CLEAR = 7;
+
+    private static final Map<String, MappedPreferences> sInstances = new HashMap<>();
+    private static volatile ExecutorService sCompactExecutor;
+
+    private final File mFile;
+    private final Object mLock = new Object();
+    private final ConcurrentHashMap<String, Object> mValues = new ConcurrentHashMap<>();
+
+    /**
+     * 每个key当前记录的大小, 用于计算有效数据的大小
+     */
+    private final HashMap<String, Integer> mRecordSizes = new HashMap<>();
+    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> mListeners = new WeakHashMap<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private RandomAccessFile mRandomAccessFile;
+    private MappedByteBuffer mBuffer;
+    private int mCapacity;
+    private int mEnd;
+    private int mLiveSize;
+    private boolean isCompactScheduled;
+
+    /**
+     * 编码记录的缓冲区, 只在持有锁时使用
+     */
+    private final RecordWriter mWriter = new RecordWriter();
+
+    /**
+     * 获取文件名对应的实例, 同一个文件只会打开一次. 文件不存在时, 导入同名SharedPreferences中的数据
+     *
+     * @param context 上下文
+     * @param name    文件名
+     * @return MappedPreferences
+     */
+    public static MappedPreferences open(Context context, String name) {
+        synchronized (sInstances) {
+            MappedPreferences preferences = sInstances.get(name);
+            if (preferences != null) return preferences;
+            File file = new File(new File(context.getFilesDir(), FOLDER), name + SUFFIX);
+            boolean isNew = !file.exists();
+            try {
+                preferences = new MappedPreferences(file);
+            } catch (IOException e) {
+                throw new IllegalStateException("打开文件失败: " + file.getPath(), e);
+            }
+            if (isNew) {
+                Map<String, ?> values = context.getSharedPreferences(name, Context.MODE_PRIVATE).getAll();
+                if (!values.isEmpty()) preferences.importFrom(values);
+            }
+            sInstances.put(name, preferences);
+            return preferences;
+        }
+    }
+
+    MappedPreferences(File file) throws IOException {
+        mFile = file;
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) parent.mkdirs();
+        synchronized (mLock) {
+            map(file, INITIAL_CAPACITY);
+            load();
+        }
+    }
+
+    /**
+     * 映射文件, 文件小于capacity时扩大文件
+     */
+    private void map(File file, int capacity) throws IOException {
+        if (mRandomAccessFile != null) mRandomAccessFile.close();
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        long length = mRandomAccessFile.length();
+        if (length < capacity) {
+            mRandomAccessFile.setLength(capacity);
+            length = capacity;
+        }
+        mCapacity = (int) length;
+        mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mCapacity);
+    }
+
+    /**
+     * 读取所有记录, 恢复内存中的数据. 损坏的记录以及之后的记录被丢弃, 从这条记录的位置继续写入
+     */
+    private void load() {
+        mValues.clear();
+        mRecordSizes.clear();
+        mLiveSize = 0;
+        int end = mBuffer.getInt(OFFSET_END);
+        if (mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION
+                || end < HEADER_SIZE || end > mCapacity) {
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.putInt(4, VERSION);
+            mBuffer.putInt(OFFSET_END, HEADER_SIZE);
+            mEnd = HEADER_SIZE;
+            return;
+        }
+        ByteBuffer buffer = mBuffer.duplicate();
+        int position = HEADER_SIZE;
+        while (position + 4 <= end) {
+            int length = mBuffer.getInt(position);
+            if (length <= 0 || position + 4 + length > end) break;
+            // 每条记录只能读取自己的数据, 解析失败或者没有正好读完时认为记录已经损坏
+            buffer.limit(position + 4 + length);
+            buffer.position(position + 4);
+            byte type;
+            String key;
+            Object value = null;
+            try {
+                type = buffer.get();
+                key = readString(buffer);
+                if (type != TYPE_CLEAR && type != TYPE_REMOVE) value = readValue(buffer, type);
+                if (buffer.hasRemaining()) throw new IllegalStateException("记录长度不匹配: " + length);
+            } catch (RuntimeException e) {
+                Logger.e("%s记录损坏, 丢弃%s之后的数据: %s, %s", TAG, position, mFile.getPath(), e);
+                break;
+            }
+            int size = 4 + length;
+            if (type == TYPE_CLEAR) {
+                mValues.clear();
+                mRecordSizes.clear();
+                mLiveSize = 0;
+            } else if (type == TYPE_REMOVE) {
+                mValues.remove(key);
+                Integer old = mRecordSizes.remove(key);
+                if (old != null) mLiveSize -= old;
+            } else {
+                mValues.put(key, value);
+                Integer old = mRecordSizes.put(key, size);
+                mLiveSize += size - (old == null ? 0 : old);
+            }
+            position += size;
+        }
+        mEnd = position;
+        mBuffer.putInt(OFFSET_END, mEnd);
+    }
+
+    private void importFrom(Map<String, ?> values) {
+        Editor editor = edit();
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(entry.getKey(), (Float) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof Set) {
+                editor.putStringSet(entry.getKey(), (Set<String>) value);
+            }
+        }
+        editor.commit();
+    }
+
+    /************************************* 读取 *********************************/
+
+    @Override
+    public Map<String, ?> getAll() {
+        return new HashMap<>(mValues);
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        String value = (String) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Nullable
+    @Override
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        Set<String> values = (Set<String>) mValues.get(key);
+        return values != null ? values : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Integer value = (Integer) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Long value = (Long) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Float value = (Float) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Boolean value = (Boolean) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (mListeners) {
+            mListeners.put(listener, this);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+
+    /************************************* 写入 *********************************/
+
+    /**
+     * 写入一次提交的所有修改
+     *
+     * @param clear         是否先清除所有数据
+     * @param modifications 修改的数据, 值为null表示删除
+     * @param sync          是否同步到磁盘
+     * @return 是否写入成功
+     */
+    boolean write(boolean clear, Map<String, Object> modifications, boolean sync) {
+        final Set<String> changedKeys = new LinkedHashSet<>();
+        synchronized (mLock) {
+            RecordWriter writer = mWriter;
+            writer.reset();
+            if (clear && !mValues.isEmpty()) {
+                writer.begin(TYPE_CLEAR, "");
+                writer.end();
+                changedKeys.addAll(mValues.keySet());
+            }
+            // 只记录修改的key, 不复制全部数据, 写入的耗时只与修改的数据量有关
+            Map<String, Integer> sizes = new HashMap<>();
+            for (Map.Entry<String, Object> entry : modifications.entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+                Object old = clear ? null : mValues.get(key);
+                if (value == null) {
+                    if (old == null) continue;
+                    writer.begin(TYPE_REMOVE, key);
+                    writer.end();
+                    sizes.put(key, 0);
+                } else {
+                    if (value.equals(old)) continue;
+                    writer.begin(typeOf(value), key);
+                    writer.writeValue(value);
+                    sizes.put(key, writer.end());
+                }
+                changedKeys.add(key);
+            }
+            if (writer.size() == 0) return true;
+            try {
+                ensureCapacity(writer.size());
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            ByteBuffer buffer = mBuffer.duplicate();
+            buffer.position(mEnd);
+            buffer.put(writer.array(), 0, writer.size());
+            mEnd += writer.size();
+            // 所有记录写入之后才更新结束位置
+            mBuffer.putInt(OFFSET_END, mEnd);
+            if (sync) mBuffer.force();
+
+            if (clear) {
+                mValues.clear();
+                mRecordSizes.clear();
+                mLiveSize = 0;
+            }
+            for (Map.Entry<String, Integer> entry : sizes.entrySet()) {
+                String key = entry.getKey();
+                Integer old = mRecordSizes.remove(key);
+                if (old != null) mLiveSize -= old;
+                if (entry.getValue() == 0) {
+                    mValues.remove(key);
+                } else {
+                    mValues.put(key, modifications.get(key));
+                    mRecordSizes.put(key, entry.getValue());
+                    mLiveSize += entry.getValue();
+                }
+            }
+            scheduleCompactIfNeeded();
+        }
+        notifyListeners(changedKeys);
+        return true;
+    }
+
+    /**
+     * 剩余空间不足时, 无效数据较多则压缩文件, 否则扩大文件
+     */
+    private void ensureCapacity(int size) throws IOException {
+        if (mEnd + size <= mCapacity) return;
+        if (HEADER_SIZE + mLiveSize + size <= mCapacity / 2) {
+            compact();
+            if (mEnd + size <= mCapacity) return;
+        }
+        int capacity = mCapacity;
+        while (capacity < mEnd + size) capacity *= 2;
+        mBuffer.force();
+        map(mFile, capacity);
+    }
+
+    private void scheduleCompactIfNeeded() {
+        if (isCompactScheduled || mEnd < INITIAL_CAPACITY || mEnd - HEADER_SIZE <= 2 * mLiveSize) return;
+        isCompactScheduled = true;
+        getCompactExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mLock) {
+                    isCompactScheduled = false;
+                    if (mEnd - HEADER_SIZE <= 2 * mLiveSize) return;
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 只保留有效的记录, 写入临时文件之后替换原文件, 需要持有锁
+     */
+    private void compact() throws IOException {
+        RecordWriter writer = new RecordWriter();
+        Map<String, Integer> sizes = new HashMap<>();
+        for (Map.Entry<String, Object> entry : mValues.entrySet()) {
+            writer.begin(typeOf(entry.getValue()), entry.getKey());
+            writer.writeValue(entry.getValue());
+            sizes.put(entry.getKey(), writer.end());
+        }
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < (HEADER_SIZE + writer.size()) * 2) capacity *= 2;
+
+        File temp = new File(mFile.getPath() + TEMP_SUFFIX);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(temp, "rw")) {
+            randomAccessFile.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(HEADER_SIZE + writer.size()).putInt(0);
+            randomAccessFile.write(header.array());
+            randomAccessFile.write(writer.array(), 0, writer.size());
+            randomAccessFile.setLength(capacity);
+            randomAccessFile.getFD().sync();
+        }
+        if (!temp.renameTo(mFile)) {
+            throw new IOException("重命名文件失败: " + mFile.getPath());
+        }
+        map(mFile, capacity);
+        mEnd = HEADER_SIZE + writer.size();
+        mRecordSizes.clear();
+        mRecordSizes.putAll(sizes);
+        mLiveSize = writer.size();
+    }
+
+    private static ExecutorService getCompactExecutor() {
+        if (sCompactExecutor == null) synchronized (MappedPreferences.class) {
+            if (sCompactExecutor == null) {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>());
+                executor.allowCoreThreadTimeOut(true);
+                sCompactExecutor = executor;
+            }
+        }
+        return sCompactExecutor;
+    }
+
+    private void notifyListeners(final Set<String> keys) {
+        if (keys.isEmpty()) return;
+        final List<OnSharedPreferenceChangeListener> listeners;
+        synchronized (mListeners) {
+            if (mListeners.isEmpty()) return;
+            listeners = new ArrayList<>(mListeners.keySet());
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (String key : keys) {
+                    for (OnSharedPreferenceChangeListener listener : listeners) {
+                        if (listener != null) listener.onSharedPreferenceChanged(MappedPreferences.this, key);
+                    }
+                }
+            }
+        });
+    }
+
+    private static byte typeOf(Object value) {
+        if (value instanceof String) return TYPE_STRING;
+        if (value instanceof Integer) return TYPE_INT;
+        if (value instanceof Long) return TYPE_LONG;
+        if (value instanceof Float) return TYPE_FLOAT;
+        if (value instanceof Boolean) return TYPE_BOOLEAN;
+        if (value instanceof Set) return TYPE_STRING_SET;
+        throw new IllegalArgumentException("不支持的数据类型: " + value.getClass().getName());
+    }
+
+    private static Object readValue(ByteBuffer buffer, byte type) {
+        switch (type) {
+            case TYPE_STRING:
+                return readString(buffer);
+            case TYPE_INT:
+                return buffer.getInt();
+            case TYPE_LONG:
+                return buffer.getLong();
+            case TYPE_FLOAT:
+                return buffer.getFloat();
+            case TYPE_BOOLEAN:
+                return buffer.get() != 0;
+            case TYPE_STRING_SET:
+                int count = buffer.getInt();
+                if (count < 0 || count > buffer.remaining() / 4) {
+                    throw new IllegalStateException("集合长度错误: " + count);
+                }
+                Set<String> set = new HashSet<>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    set.add(readString(buffer));
+                }
+                return set;
+            default:
+                throw new IllegalStateException("未知的数据类型: " + type);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalStateException("字符串长度错误: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 编码记录
+     */
+    private static final class RecordWriter {
+
+        private byte[] mBytes = new byte[4 * 1024];
+        private int mSize;
+        private int mStart;
+
+        void reset() {
+            mSize = 0;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        byte[] array() {
+            return mBytes;
+        }
+
+        void begin(byte type, String key) {
+            mStart = mSize;
+            writeInt(0);
+            writeByte(type);
+            writeString(key);
+        }
+
+        /**
+         * 写入记录的长度
+         *
+         * @return 记录的大小
+         */
+        int end() {
+            int length = mSize - mStart - 4;
+            mBytes[mStart] = (byte) (length >>> 24);
+            mBytes[mStart + 1] = (byte) (length >>> 16);
+            mBytes[mStart + 2] = (byte) (length >>> 8);
+            mBytes[mStart + 3] = (byte) length;
+            return mSize - mStart;
+        }
+
+        void writeValue(Object value) {
+            if (value instanceof String) {
+                writeString((String) value);
+            } else if (value instanceof Integer) {
+                writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                long v = (Long) value;
+                writeInt((int) (v >>> 32));
+                writeInt((int) v);
+            } else if (value instanceof Float) {
+                writeInt(Float.floatToIntBits((Float) value));
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean) value ? 1 : 0);
+            } else if (value instanceof Set) {
+                Set<String> set = (Set<String>) value;
+                writeInt(set.size());
+                for (String s : set) {
+                    writeString(s);
+                }
+            }
+        }
+
+        private void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, mBytes, mSize, bytes.length);
+            mSize += bytes.length;
+        }
+
+        private void writeInt(int value) {
+            ensure(4);
+            mBytes[mSize++] = (byte) (value >>> 24);
+            mBytes[mSize++] = (byte) (value >>> 16);
+            mBytes[mSize++] = (byte) (value >>> 8);
+            mBytes[mSize++] = (byte) value;
+        }
+
+        private void writeByte(int value) {
+            ensure(1);
+            mBytes[mSize++] = (byte) value;
+        }
+
+        private void ensure(int size) {
+            if (mSize + size <= mBytes.length) return;
+            byte[] bytes = new byte[Math.max(mBytes.length * 2, mSize + size)];
+            System.arraycopy(mBytes, 0, bytes, 0, mSize);
+            mBytes = bytes;
+        }
+    }
+
+    /**
+     * 与 SharedPreferences.Editor 相同, 修改先保存在内存中, 提交时一次写入
+     */
+    private final class EditorImpl implements Editor {
+
+        private final Map<String, Object> mModifications = new LinkedHashMap<>();
+        private boolean isClear;
+
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            synchronized (this) {
+                mModifications.put(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            synchronized (this) {
+                mModifications.put(key, values == null ? null : new HashSet<>(values));
+            }
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            synchronized (this) {
+                mModifications.put(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            synchronized (this) {
+                mModifications.put(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            synchronized (this) {
+                mModifications.put(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            synchronized (this) {
+                mModifications.put(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            synchronized (this) {
+                mModifications.put(key, null);
+            }
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            synchronized (this) {
+                isClear = true;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return submit(true);
+        }
+
+        @Override
+        public void apply() {
+            submit(false);
+        }
+
+        private boolean submit(boolean sync) {
+            boolean clear;
+            Map<String, Object> modifications;
+            synchronized (this) {
+                clear = isClear;
+                modifications = new LinkedHashMap<>(mModifications);
+                isClear = false;
+                mModifications.clear();
+            }
+            return write(clear, modifications, sync);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.dzenm.helper.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author dzenm
+ * @date 2020-03-16 11:00
+ * <p>
+ * 兼容原来保存Serializable对象的方法, 写入类型标记 + 数据. String、基本类型的包装类、byte[]、ArrayList
+ * 和HashMap直接编码, 其它类型使用Java序列化保存为byte[]. ArrayList和HashMap必须是这两个类本身,
+ * 子类也使用Java序列化, 保证读出来的类型和写入时一致
+ */
+public final class ObjectCodec implements Codec<Object> {
+
+    public static final ObjectCodec INSTANCE = new ObjectCodec();
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_STRING = 1;
+    private static final int TYPE_INTEGER = 2;
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_DOUBLE = 4;
+    private static final int TYPE_FLOAT = 5;
+    private static final int TYPE_BOOLEAN = 6;
+    private static final int TYPE_BYTES = 7;
+    private static final int TYPE_LIST = 8;
+    private static final int TYPE_MAP = 9;
+    private static final int TYPE_SERIALIZABLE = 10;
+
+    private ObjectCodec() {
+    }
+
+    @Override
+    public void encode(BinaryWriter writer, Object value) throws IOException {
+        if (value == null) {
+            writer.writeByte(TYPE_NULL);
+            return;
+        }
+        Class<?> type = value.getClass();
+        if (type == String.class) {
+            writer.writeByte(TYPE_STRING);
+            writer.writeString((String) value);
+        } else if (type == Integer.class) {
+            writer.writeByte(TYPE_INTEGER);
+            writer.writeSignedVarInt((Integer) value);
+        } else if (type == Long.class) {
+            writer.writeByte(TYPE_LONG);
+            writer.writeSignedVarLong((Long) value);
+        } else if (type == Double.class) {
+            writer.writeByte(TYPE_DOUBLE);
+            writer.writeDouble((Double) value);
+        } else if (type == Float.class) {
+            writer.writeByte(TYPE_FLOAT);
+            writer.writeFloat((Float) value);
+        } else if (type == Boolean.class) {
+            writer.writeByte(TYPE_BOOLEAN);
+            writer.writeBoolean((Boolean) value);
+        } else if (type == byte[].class) {
+            writer.writeByte(TYPE_BYTES);
+            writer.writeBytes((byte[]) value);
+        } else if (type == ArrayList.class) {
+            List<?> list = (List<?>) value;
+            writer.writeByte(TYPE_LIST);
+            writer.writeVarInt(list.size());
+            for (int i = 0; i < list.size(); i++) {
+                encode(writer, list.get(i));
+            }
+        } else if (type == HashMap.class) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            writer.writeByte(TYPE_MAP);
+            writer.writeVarInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                encode(writer, entry.getKey());
+                encode(writer, entry.getValue());
+            }
+        } else {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+                oos.writeObject(value);
+            }
+            writer.writeByte(TYPE_SERIALIZABLE);
+            writer.writeBytes(bos.toByteArray());
+        }
+    }
+
+    @Override
+    public Object decode(BinaryReader reader) throws IOException {
+        int type = reader.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return reader.readString();
+            case TYPE_INTEGER:
+                return reader.readSignedVarInt();
+            case TYPE_LONG:
+                return reader.readSignedVarLong();
+            case TYPE_DOUBLE:
+                return reader.readDouble();
+            case TYPE_FLOAT:
+                return reader.readFloat();
+            case TYPE_BOOLEAN:
+                return reader.readBoolean();
+            case TYPE_BYTES:
+                return reader.readBytes();
+            case TYPE_LIST: {
+                int size = reader.readVarInt();
+                ArrayList<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(decode(reader));
+                }
+                return list;
+            }
+            case TYPE_MAP: {
+                int size = reader.readVarInt();
+                HashMap<Object, Object> map = new HashMap<>(Math.max(16, (int) (size / 0.75f) + 1));
+                for (int i = 0; i < size; i++) {
+                    map.put(decode(reader), decode(reader));
+                }
+                return map;
+            }
+            case TYPE_SERIALIZABLE: {
+                byte[] bytes = reader.readBytes();
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new InvalidClassException(e.getMessage());
+                }
+            }
+            default:
+                throw new IOException("unknown type: " + type);
+        }
+    }
+}
@@ -3,11 +3,20 @@ package com.dzenm.helper.file;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.annotation.IntDef;
 
 import com.dzenm.helper.log.Logger;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author dzenm
@@ -17,10 +26,42 @@ public class SPHelper {
 
     private static final String TAG = SPHelper.class.getSimpleName() + "| ";
 
+    /**
+     * 使用系统的SharedPreferences保存数据
+     */
+    public static final int BACKEND_SHARED_PREFERENCES = 0;
+
+    /**
+     * 使用 {@link MappedPreferences} 保存数据, 写入只追加修改的记录, 适合数据量大或者写入频繁的文件
+     */
+    public static final int BACKEND_MAPPED = 1;
+
+    @IntDef({BACKEND_SHARED_PREFERENCES, BACKEND_MAPPED})
+    @Retention(RetentionPolicy.SOURCE)
+    private @interface Backend {
+    }
+
     /************************************* 需要在Application中初始化 *********************************/
     private Context mContext;
     @SuppressLint("StaticFieldLeak")
     private static SPHelper sSPHelper;
+    private @Backend
+    int mBackend = BACKEND_SHARED_PREFERENCES;
+
+    /**
+     * 缓存中表示key不存在
+     */
+    private static final Object ABSENT = new Object();
+
+    private final ConcurrentHashMap<String, Handle> mHandles = new ConcurrentHashMap<>();
+    private boolean isReadCache;
+    private boolean isEncrypt;
+    private long mCoalesceWindow;
+
+    /**
+     * 延迟提交合并写入的线程, 第一次合并写入时创建
+     */
+    private volatile Handler mWriteHandler;
 
     private SPHelper() {
     }
@@ -32,6 +73,66 @@ public class SPHelper {
         return sSPHelper;
     }
 
+    /**
+     * 设置数据的存储方式, 需要在初始化之前设置. 切换为 {@link #BACKEND_MAPPED} 时, 第一次打开文件会
+     * 导入同名SharedPreferences中的数据
+     *
+     * @param backend 存储方式, 例: {@link #BACKEND_MAPPED}
+     * @return this
+     */
+    public SPHelper setBackend(@Backend int backend) {
+        mBackend = backend;
+        return this;
+    }
+
+    /**
+     * 开启读取缓存, 读取过的key保存在缓存中, 之后的读取不再访问SharedPreferences(需要加锁). 通过SPHelper
+     * 写入时立即更新缓存, 通过其它Editor写入时在数据变更回调中更新缓存. 需要在初始化之前设置
+     *
+     * @param readCache 是否开启读取缓存
+     * @return this
+     */
+    public SPHelper setReadCache(boolean readCache) {
+        isReadCache = readCache;
+        return this;
+    }
+
+    /**
+     * 开启加密存储, 使用 {@link EncryptedPreferences} 包装所有文件, 保存到文件中的值使用AES-GCM加密,
+     * 读取时直接返回内存中解密后的数据. 文件中已有的明文数据在打开时加密. 需要在初始化之前设置
+     *
+     * @param encrypt 是否加密存储
+     * @return this
+     */
+    public SPHelper setEncrypt(boolean encrypt) {
+        isEncrypt = encrypt;
+        return this;
+    }
+
+    /**
+     * 开启合并写入. 通过 {@link #put(String, String, Object)} 、{@link #remove(String, String)} 和
+     * {@link #clear(String)} 修改的数据先保存在内存中, 第一次修改后经过window毫秒, 同一个文件在这段时间内
+     * 的所有修改合并为一次提交, 只写入一次磁盘. 未提交期间通过SPHelper可以读取到修改后的数据, 通过
+     * {@link #getSharedPreferences(String)} 获取文件时会先提交. 进程在提交之前被杀会丢失这段时间内的修改,
+     * 需要保证写入的数据时可以在Activity的onStop中调用 {@link #flush()}
+     *
+     * @param window 合并写入的时间窗口, 单位毫秒, 小于等于0时不合并, 每次修改立即提交
+     * @return this
+     */
+    public SPHelper setCoalesceWindow(long window) {
+        mCoalesceWindow = window;
+        return this;
+    }
+
+    /**
+     * 立即提交所有文件中合并写入的修改
+     */
+    public void flush() {
+        for (Handle handle : mHandles.values()) {
+            handle.flush();
+        }
+    }
+
     /************************************* 方式一：自定义SharedPreferences文件名 *********************************/
 
     /**
@@ -44,14 +145,51 @@ public class SPHelper {
     }
 
     /**
-     * 获取SharedPreference文件
+     * 获取SharedPreference文件, 先提交合并写入的修改
      *
      * @param sp SharedPreferences文件名
      * @return SharedPreferences
      */
     public SharedPreferences getSharedPreferences(String sp) {
-        Logger.d(TAG + "sharedPreferences file name: " + sp);
-        return mContext.getSharedPreferences(sp, Context.MODE_PRIVATE);
+        Handle handle = getHandle(sp);
+        handle.flush();
+        return handle.preferences;
+    }
+
+    /**
+     * 批量修改, 所有修改在一次提交中完成, 只写入一次磁盘. 例:
+     * <pre>
+     * SPHelper.getInstance().edit(sp)
+     *         .putString("name", name)
+     *         .putInt("age", age)
+     *         .commitAsync();
+     * </pre>
+     *
+     * @param sp SharedPreferences文件名
+     * @return Batch
+     */
+    public Batch edit(String sp) {
+        return new Batch(getHandle(sp));
+    }
+
+    /**
+     * 获取文件对应的Handle, 每个文件只打开一次
+     */
+    private Handle getHandle(String sp) {
+        Handle handle = mHandles.get(sp);
+        if (handle != null) return handle;
+        synchronized (mHandles) {
+            handle = mHandles.get(sp);
+            if (handle != null) return handle;
+            Logger.d("%ssharedPreferences file name: %s", TAG, sp);
+            SharedPreferences preferences = mBackend == BACKEND_MAPPED
+                    ? MappedPreferences.open(mContext, sp)
+                    : mContext.getSharedPreferences(sp, Context.MODE_PRIVATE);
+            if (isEncrypt) preferences = EncryptedPreferences.wrap(mContext, preferences);
+            handle = new Handle(preferences, isReadCache);
+            mHandles.put(sp, handle);
+            return handle;
+        }
     }
 
     /**
@@ -62,22 +200,10 @@ public class SPHelper {
      * @param value 存储对象的值
      */
     public void put(String sp, String key, Object value) {
-        SharedPreferences.Editor editor = getSharedPreferences(sp).edit();
-        if (value instanceof String) {
-            editor.putString(key, String.valueOf(value));
-        } else if (value instanceof Integer) {
-            editor.putInt(key, (int) value);
-        } else if (value instanceof Long) {
-            editor.putLong(key, (long) value);
-        } else if (value instanceof Float) {
-            editor.putFloat(key, (float) value);
-        } else if (value instanceof Boolean) {
-            editor.putBoolean(key, (boolean) value);
-        } else if (value instanceof Set) {
-            editor.putStringSet(key, (Set<String>) value);
+        if (Logger.isLoggable(Logger.DEBUG)) {
+            Logger.d(TAG + "put sharedPreferences: " + sp + ", key: " + key + ", value: " + value);
         }
-        Logger.d(TAG + "put sharedPreferences: " + sp + ", key: " + key + ", value: " + value);
-        editor.apply();
+        modify(getHandle(sp), key, value);
     }
 
     /**
@@ -89,20 +215,21 @@ public class SPHelper {
      * @return 数据
      */
     public Object get(String sp, String key, Object defValue) {
-        SharedPreferences sharedPreferences = getSharedPreferences(sp);
-        Logger.d(TAG + "get sharedPreferences from: " + sp + ", key: " + key + ", default value: " + defValue);
+        if (Logger.isLoggable(Logger.DEBUG)) {
+            Logger.d(TAG + "get sharedPreferences from: " + sp + ", key: " + key + ", default value: " + defValue);
+        }
         if (defValue instanceof String) {
-            return sharedPreferences.getString(key, String.valueOf(defValue));
+            return getString(sp, key, (String) defValue);
         } else if (defValue instanceof Integer) {
-            return sharedPreferences.getInt(key, (int) defValue);
+            return getInt(sp, key, (int) defValue);
         } else if (defValue instanceof Long) {
-            return sharedPreferences.getLong(key, (long) defValue);
+            return getLong(sp, key, (long) defValue);
         } else if (defValue instanceof Float) {
-            return sharedPreferences.getFloat(key, (float) defValue);
+            return getFloat(sp, key, (float) defValue);
         } else if (defValue instanceof Boolean) {
-            return sharedPreferences.getBoolean(key, (boolean) defValue);
+            return getBoolean(sp, key, (boolean) defValue);
         } else if (defValue instanceof Set) {
-            return sharedPreferences.getStringSet(key, (Set<String>) defValue);
+            return getSharedPreferences(sp).getStringSet(key, (Set<String>) defValue);
         }
         return null;
     }
@@ -114,10 +241,67 @@ public class SPHelper {
      * @param key 需要移除的key
      */
     public void remove(String sp, String key) {
-        getSharedPreferences(sp)
-                .edit()
-                .remove(key)
-                .apply();
+        modify(getHandle(sp), key, ABSENT);
+    }
+
+    /**
+     * 获取int数据, 不装箱
+     *
+     * @param sp       SharedPreferences文件名
+     * @param key      获取对象的key
+     * @param defValue 获取数据的默认值（当key不存在时）
+     * @return 数据
+     */
+    public int getInt(String sp, String key, int defValue) {
+        return getInt(getHandle(sp), key, defValue);
+    }
+
+    /**
+     * 获取long数据, 不装箱
+     *
+     * @param sp       SharedPreferences文件名
+     * @param key      获取对象的key
+     * @param defValue 获取数据的默认值（当key不存在时）
+     * @return 数据
+     */
+    public long getLong(String sp, String key, long defValue) {
+        return getLong(getHandle(sp), key, defValue);
+    }
+
+    /**
+     * 获取float数据, 不装箱
+     *
+     * @param sp       SharedPreferences文件名
+     * @param key      获取对象的key
+     * @param defValue 获取数据的默认值（当key不存在时）
+     * @return 数据
+     */
+    public float getFloat(String sp, String key, float defValue) {
+        return getFloat(getHandle(sp), key, defValue);
+    }
+
+    /**
+     * 获取boolean数据, 不装箱
+     *
+     * @param sp       SharedPreferences文件名
+     * @param key      获取对象的key
+     * @param defValue 获取数据的默认值（当key不存在时）
+     * @return 数据
+     */
+    public boolean getBoolean(String sp, String key, boolean defValue) {
+        return getBoolean(getHandle(sp), key, defValue);
+    }
+
+    /**
+     * 获取String数据
+     *
+     * @param sp       SharedPreferences文件名
+     * @param key      获取对象的key
+     * @param defValue 获取数据的默认值（当key不存在时）
+     * @return 数据
+     */
+    public String getString(String sp, String key, String defValue) {
+        return getString(getHandle(sp), key, defValue);
     }
 
     /**
@@ -146,17 +330,14 @@ public class SPHelper {
      *
      * @param sp 需要操作的SharedPreference文件名
      */
-    @SuppressLint("CommitPrefEdits")
     public void clear(String sp) {
-        getSharedPreferences(sp)
-                .edit()
-                .clear();
+        modify(getHandle(sp), null, null);
     }
 
     /************************************* 方式二：初始化全局文件名 *********************************/
 
     private SharedPreferences mSharedPreferences;   // 全局SharedPreferences
-    private SharedPreferences.Editor mEditor;       // 全局Editor
+    private Handle mHandle;                         // 全局Handle
 
     /**
      * 初始化，放在Application
@@ -164,11 +345,19 @@ public class SPHelper {
      * @param context 上下文
      * @param sp      初始化的文件名
      */
-    @SuppressLint("CommitPrefEdits")
     public void init(Context context, String sp) {
         mContext = context;
-        mSharedPreferences = getSharedPreferences(sp);
-        mEditor = mSharedPreferences.edit();
+        mHandle = getHandle(sp);
+        mSharedPreferences = mHandle.preferences;
+    }
+
+    /**
+     * 批量修改全局文件, 见 {@link #edit(String)}
+     *
+     * @return Batch
+     */
+    public Batch edit() {
+        return new Batch(mHandle);
     }
 
     /**
@@ -178,21 +367,8 @@ public class SPHelper {
      * @param value 存储对象的值
      */
     public boolean put(String key, Object value) {
-        if (value instanceof String) {
-            mEditor.putString(key, String.valueOf(value));
-        } else if (value instanceof Integer) {
-            mEditor.putInt(key, (int) value);
-        } else if (value instanceof Long) {
-            mEditor.putLong(key, (long) value);
-        } else if (value instanceof Float) {
-            mEditor.putFloat(key, (float) value);
-        } else if (value instanceof Boolean) {
-            mEditor.putBoolean(key, (boolean) value);
-        } else if (value instanceof Set) {
-            mEditor.putStringSet(key, (Set<String>) value);
-        }
-        Logger.d(TAG + "key: " + key + ", value: " + value);
-        return mEditor.commit();
+        Logger.d("%skey: %s, value: %s", TAG, key, value);
+        return new Batch(mHandle).put(key, value).commit();
     }
 
     /**
@@ -203,18 +379,19 @@ public class SPHelper {
      * @return 获取的数据内容
      */
     public Object get(String key, Object defValue) {
-        Logger.d(TAG + "get sharePreferences key: " + key + ", value: " + defValue);
+        Logger.d("%sget sharePreferences key: %s, value: %s", TAG, key, defValue);
         if (defValue instanceof String) {
-            return mSharedPreferences.getString(key, String.valueOf(defValue));
+            return getString(mHandle, key, (String) defValue);
         } else if (defValue instanceof Integer) {
-            return mSharedPreferences.getInt(key, (int) defValue);
+            return getInt(mHandle, key, (int) defValue);
         } else if (defValue instanceof Long) {
-            return mSharedPreferences.getLong(key, (long) defValue);
+            return getLong(mHandle, key, (long) defValue);
         } else if (defValue instanceof Float) {
-            return mSharedPreferences.getFloat(key, (float) defValue);
+            return getFloat(mHandle, key, (float) defValue);
         } else if (defValue instanceof Boolean) {
-            return mSharedPreferences.getBoolean(key, (boolean) defValue);
+            return getBoolean(mHandle, key, (boolean) defValue);
         } else if (defValue instanceof Set) {
+            mHandle.flush();
             return mSharedPreferences.getStringSet(key, (Set<String>) defValue);
         }
         return null;
@@ -226,8 +403,27 @@ public class SPHelper {
      * @param key 需要移除的key
      */
     public void remove(String key) {
-        mEditor.remove(key)
-                .apply();
+        modify(mHandle, key, ABSENT);
+    }
+
+    public int getInt(String key, int defValue) {
+        return getInt(mHandle, key, defValue);
+    }
+
+    public long getLong(String key, long defValue) {
+        return getLong(mHandle, key, defValue);
+    }
+
+    public float getFloat(String key, float defValue) {
+        return getFloat(mHandle, key, defValue);
+    }
+
+    public boolean getBoolean(String key, boolean defValue) {
+        return getBoolean(mHandle, key, defValue);
+    }
+
+    public String getString(String key, String defValue) {
+        return getString(mHandle, key, defValue);
     }
 
     /**
@@ -236,6 +432,7 @@ public class SPHelper {
      * @return 所有的键值对
      */
     public Map<String, ?> getAll() {
+        mHandle.flush();
         return mSharedPreferences.getAll();
     }
 
@@ -246,6 +443,7 @@ public class SPHelper {
      * @return 是否存在这个key
      */
     public boolean contains(String key) {
+        mHandle.flush();
         return mSharedPreferences.contains(key);
     }
 
@@ -253,6 +451,359 @@ public class SPHelper {
      * 清除所有数据
      */
     public void clear() {
-        mEditor.clear();
+        modify(mHandle, null, null);
+    }
+
+    /************************************* 合并写入 *********************************/
+
+    /**
+     * 修改一个key, 开启合并写入时加入文件未提交的修改中, 否则立即提交
+     *
+     * @param handle 修改的文件
+     * @param key    修改的key, 为null时清除所有数据
+     * @param value  修改后的值, 为 {@link #ABSENT} 时移除
+     */
+    private void modify(Handle handle, String key, Object value) {
+        long window = mCoalesceWindow;
+        if (window <= 0) {
+            Batch batch = new Batch(handle);
+            if (key == null) {
+                batch.clear();
+            } else {
+                batch.put(key, value);
+            }
+            batch.commitAsync();
+            return;
+        }
+        boolean isSchedule;
+        synchronized (handle) {
+            isSchedule = handle.pending == null;
+            if (isSchedule) handle.pending = new Batch(handle);
+            if (key == null) {
+                handle.pending.clear();
+            } else {
+                handle.pending.put(key, value);
+            }
+        }
+        if (isSchedule) getWriteHandler().postDelayed(handle, window);
+    }
+
+    private Handler getWriteHandler() {
+        if (mWriteHandler == null) synchronized (this) {
+            if (mWriteHandler == null) {
+                HandlerThread handlerThread = new HandlerThread("sp-writer");
+                handlerThread.start();
+                mWriteHandler = new Handler(handlerThread.getLooper());
+            }
+        }
+        return mWriteHandler;
+    }
+
+    /************************************* 读取缓存 *********************************/
+
+    private static int getInt(Handle handle, String key, int defValue) {
+        Object pending = handle.peek(key);
+        if (pending != null) return pending == ABSENT ? defValue : (Integer) pending;
+        if (handle.cache == null) return handle.preferences.getInt(key, defValue);
+        Object value = handle.cache.get(key);
+        if (value == null) {
+            int generation = handle.generation;
+            SharedPreferences preferences = handle.preferences;
+            value = preferences.contains(key) ? (Object) preferences.getInt(key, defValue) : ABSENT;
+            handle.cache(key, value, generation);
+        }
+        return value == ABSENT ? defValue : (Integer) value;
+    }
+
+    private static long getLong(Handle handle, String key, long defValue) {
+        Object pending = handle.peek(key);
+        if (pending != null) return pending == ABSENT ? defValue : (Long) pending;
+        if (handle.cache == null) return handle.preferences.getLong(key, defValue);
+        Object value = handle.cache.get(key);
+        if (value == null) {
+            int generation = handle.generation;
+            SharedPreferences preferences = handle.preferences;
+            value = preferences.contains(key) ? (Object) preferences.getLong(key, defValue) : ABSENT;
+            handle.cache(key, value, generation);
+        }
+        return value == ABSENT ? defValue : (Long) value;
+    }
+
+    private static float getFloat(Handle handle, String key, float defValue) {
+        Object pending = handle.peek(key);
+        if (pending != null) return pending == ABSENT ? defValue : (Float) pending;
+        if (handle.cache == null) return handle.preferences.getFloat(key, defValue);
+        Object value = handle.cache.get(key);
+        if (value == null) {
+            int generation = handle.generation;
+            SharedPreferences preferences = handle.preferences;
+            value = preferences.contains(key) ? (Object) preferences.getFloat(key, defValue) : ABSENT;
+            handle.cache(key, value, generation);
+        }
+        return value == ABSENT ? defValue : (Float) value;
+    }
+
+    private static boolean getBoolean(Handle handle, String key, boolean defValue) {
+        Object pending = handle.peek(key);
+        if (pending != null) return pending == ABSENT ? defValue : (Boolean) pending;
+        if (handle.cache == null) return handle.preferences.getBoolean(key, defValue);
+        Object value = handle.cache.get(key);
+        if (value == null) {
+            int generation = handle.generation;
+            SharedPreferences preferences = handle.preferences;
+            value = preferences.contains(key) ? (Object) preferences.getBoolean(key, defValue) : ABSENT;
+            handle.cache(key, value, generation);
+        }
+        return value == ABSENT ? defValue : (Boolean) value;
+    }
+
+    private static String getString(Handle handle, String key, String defValue) {
+        Object pending = handle.peek(key);
+        if (pending != null) return pending == ABSENT ? defValue : (String) pending;
+        if (handle.cache == null) return handle.preferences.getString(key, defValue);
+        Object value = handle.cache.get(key);
+        if (value == null) {
+            int generation = handle.generation;
+            value = handle.preferences.getString(key, null);
+            if (value == null) value = ABSENT;
+            handle.cache(key, value, generation);
+        }
+        return value == ABSENT ? defValue : (String) value;
+    }
+
+    /**
+     * 打开的SharedPreferences文件, 读取缓存以及合并写入未提交的修改
+     */
+    private static final class Handle implements SharedPreferences.OnSharedPreferenceChangeListener, Runnable {
+
+        final SharedPreferences preferences;
+        final ConcurrentHashMap<String, Object> cache;
+        private final Object mFlushLock = new Object();
+
+        /**
+         * 合并写入时还没有提交的修改, 持有Handle的锁时修改
+         */
+        volatile Batch pending;
+
+        /**
+         * 正在提交的修改, 提交完成之前仍然从这里读取
+         */
+        volatile Batch flushing;
+
+        /**
+         * 每次写入时加1, 读取期间发生写入时不缓存读取到的值, 避免缓存旧的数据
+         */
+        volatile int generation;
+
+        Handle(SharedPreferences preferences, boolean readCache) {
+            this.preferences = preferences;
+            if (readCache) {
+                cache = new ConcurrentHashMap<>();
+                // SharedPreferences使用弱引用保存监听, Handle由SPHelper持有
+                preferences.registerOnSharedPreferenceChangeListener(this);
+            } else {
+                cache = null;
+            }
+        }
+
+        void cache(String key, Object value, int generation) {
+            cache.put(key, value);
+            if (this.generation != generation) cache.remove(key);
+        }
+
+        /**
+         * @param key 发生变化的key, 为null时清空缓存
+         */
+        void invalidate(String key) {
+            if (cache == null) return;
+            generation++;
+            if (key == null) {
+                cache.clear();
+            } else {
+                cache.remove(key);
+            }
+        }
+
+        /**
+         * @return 未提交的修改中key对应的值, {@link #ABSENT} 表示已经移除, null表示没有修改
+         */
+        Object peek(String key) {
+            if (pending == null && flushing == null) return null;
+            synchronized (this) {
+                Object value = pending == null ? null : pending.peek(key);
+                if (value == null && flushing != null) value = flushing.peek(key);
+                return value;
+            }
+        }
+
+        /**
+         * 提交合并写入的修改. 其它线程正在提交时等待提交完成, 之后的修改不会被先提交的旧修改覆盖
+         */
+        void flush() {
+            if (pending == null && flushing == null) return;
+            synchronized (mFlushLock) {
+                Batch batch;
+                synchronized (this) {
+                    batch = pending;
+                    if (batch == null) return;
+                    pending = null;
+                    flushing = batch;
+                }
+                try {
+                    batch.apply(false);
+                } finally {
+                    flushing = null;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            flush();
+        }
+
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            invalidate(key);
+        }
+    }
+
+    /**
+     * 批量修改, 所有修改使用同一个Editor提交, 只写入一次磁盘. 提交之前先提交合并写入的修改, 保证修改
+     * 的顺序. 不是线程安全的, 只在一个线程中使用
+     */
+    public static final class Batch {
+
+        private final Handle mHandle;
+        private final Map<String, Object> mModifications = new HashMap<>();
+        private boolean isClear;
+
+        private Batch(Handle handle) {
+            mHandle = handle;
+        }
+
+        public Batch putString(String key, String value) {
+            mModifications.put(key, value == null ? ABSENT : value);
+            return this;
+        }
+
+        public Batch putStringSet(String key, Set<String> values) {
+            mModifications.put(key, values == null ? ABSENT : new HashSet<>(values));
+            return this;
+        }
+
+        public Batch putInt(String key, int value) {
+            mModifications.put(key, value);
+            return this;
+        }
+
+        public Batch putLong(String key, long value) {
+            mModifications.put(key, value);
+            return this;
+        }
+
+        public Batch putFloat(String key, float value) {
+            mModifications.put(key, value);
+            return this;
+        }
+
+        public Batch putBoolean(String key, boolean value) {
+            mModifications.put(key, value);
+            return this;
+        }
+
+        /**
+         * 保存数据, 支持的类型同 {@link SPHelper#put(String, String, Object)}, 其它类型忽略
+         *
+         * @param key   存储对象的key
+         * @param value 存储对象的值
+         * @return this
+         */
+        public Batch put(String key, Object value) {
+            if (value instanceof Set) {
+                putStringSet(key, (Set<String>) value);
+            } else if (value instanceof String || value instanceof Integer || value instanceof Long
+                    || value instanceof Float || value instanceof Boolean || value == ABSENT) {
+                mModifications.put(key, value);
+            }
+            return this;
+        }
+
+        public Batch remove(String key) {
+            mModifications.put(key, ABSENT);
+            return this;
+        }
+
+        /**
+         * 清除所有数据, 在这之前的修改被丢弃, 之后的修改在清除后写入
+         *
+         * @return this
+         */
+        public Batch clear() {
+            isClear = true;
+            mModifications.clear();
+            return this;
+        }
+
+        /**
+         * 同步提交, 写入磁盘后返回
+         *
+         * @return 是否写入成功
+         */
+        public boolean commit() {
+            mHandle.flush();
+            return apply(true);
+        }
+
+        /**
+         * 异步提交, 内存中的数据立即更新, 在后台写入磁盘
+         */
+        public void commitAsync() {
+            mHandle.flush();
+            apply(false);
+        }
+
+        Object peek(String key) {
+            Object value = mModifications.get(key);
+            return value == null && isClear ? ABSENT : value;
+        }
+
+        boolean apply(boolean sync) {
+            SharedPreferences.Editor editor = mHandle.preferences.edit();
+            if (isClear) editor.clear();
+            for (Map.Entry<String, Object> entry : mModifications.entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+                if (value == ABSENT) {
+                    editor.remove(key);
+                } else if (value instanceof String) {
+                    editor.putString(key, (String) value);
+                } else if (value instanceof Integer) {
+                    editor.putInt(key, (Integer) value);
+                } else if (value instanceof Long) {
+                    editor.putLong(key, (Long) value);
+                } else if (value instanceof Float) {
+                    editor.putFloat(key, (Float) value);
+                } else if (value instanceof Boolean) {
+                    editor.putBoolean(key, (Boolean) value);
+                } else if (value instanceof Set) {
+                    editor.putStringSet(key, (Set<String>) value);
+                }
+            }
+            boolean result = true;
+            if (sync) {
+                result = editor.commit();
+            } else {
+                editor.apply();
+            }
+            if (isClear) {
+                mHandle.invalidate(null);
+            } else {
+                for (String key : mModifications.keySet()) {
+                    mHandle.invalidate(key);
+                }
+            }
+            return result;
+        }
     }
 }
@@ -0,0 +1,187 @@
+package com.dzenm.helper.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * @author dzenm
+ * @date 2020-03-10 16:40
+ * <pre>
+ * Logger.getInstance().setBinary(true).init().start();
+ * </pre>
+ * 紧凑的二进制日志格式, 由 {@link LogDecoder} 在电脑上解码. 文件结构:
+ * <pre>
+ * 文件头: MAGIC(4) VERSION(1) 基准时间(8)
+ * 数据块: 原始长度(4) 压缩长度(4) CRC32(4) Deflate压缩数据
+ * </pre>
+ * 数据块解压后是连续的记录:
+ * <pre>
+ * TAG:    0x01 varint(tag id) varint(长度) UTF-8
+ * RECORD: 0x02 zigzag varint(与上一条日志的时间差) 级别(1) varint(tag id) varint(线程id) varint(长度) UTF-8
+ * </pre>
+ * tag第一次出现时写入TAG记录, 之后只写入id. 每批日志写入一个数据块, 进程被杀时最多丢失最后一个不完整的数据块
+ */
+public class BinaryLogEncoder implements LogAppender.Encoder {
+
+    static final String SUFFIX = ".blog";
+    static final int MAGIC = 0x445a4c47;            // DZLG
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 13;
+    static final int BLOCK_HEADER_SIZE = 12;
+
+    static final int TYPE_TAG = 1;
+    static final int TYPE_RECORD = 2;
+
+    /**
+     * 数据块的最大原始大小, 超过后提前写入文件
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+    private final CRC32 mCRC32 = new CRC32();
+    private final HashMap<String, Integer> mTags = new HashMap<>();
+    private byte[] mBlock = new byte[BLOCK_SIZE + 1024];
+    private int mBlockSize;
+    private byte[] mCompressed = new byte[BLOCK_SIZE];
+    private final ByteBuffer mHeader = ByteBuffer.allocate(HEADER_SIZE);
+    private final ByteBuffer mBlockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+
+    private FileChannel mChannel;
+    private long mLastTime;
+
+    @Override
+    public String getSuffix() {
+        return SUFFIX;
+    }
+
+    @Override
+    public void open(FileChannel channel) throws IOException {
+        mChannel = channel;
+        mTags.clear();
+        mBlockSize = 0;
+        mLastTime = System.currentTimeMillis();
+        // 追加到已有文件时重新写入文件头, 解码时遇到文件头会重置tag表和基准时间
+        mHeader.clear();
+        mHeader.putInt(MAGIC).put((byte) VERSION).putLong(mLastTime).flip();
+        write(mHeader);
+    }
+
+    @Override
+    public void encode(long time, long threadId, int level, String tag, String msg) throws IOException {
+        if (tag == null) tag = "";
+        if (msg == null) msg = "null";
+        Integer tagId = mTags.get(tag);
+        if (tagId == null) {
+            tagId = mTags.size();
+            mTags.put(tag, tagId);
+            ensureCapacity(1 + 5 + 5 + tag.length() * 3);
+            mBlock[mBlockSize++] = TYPE_TAG;
+            writeVarint(tagId);
+            writeString(tag);
+        }
+        ensureCapacity(1 + 10 + 1 + 5 + 10 + 5 + msg.length() * 3);
+        mBlock[mBlockSize++] = TYPE_RECORD;
+        long delta = time - mLastTime;
+        writeVarint((delta << 1) ^ (delta >> 63));
+        mLastTime = time;
+        mBlock[mBlockSize++] = (byte) level;
+        writeVarint(tagId);
+        writeVarint(threadId);
+        writeString(msg);
+        if (mBlockSize >= BLOCK_SIZE) flush();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (mBlockSize == 0) return;
+        mDeflater.reset();
+        mDeflater.setInput(mBlock, 0, mBlockSize);
+        mDeflater.finish();
+        int compressedSize = 0;
+        while (!mDeflater.finished()) {
+            if (compressedSize == mCompressed.length) {
+                byte[] compressed = new byte[mCompressed.length * 2];
+                System.arraycopy(mCompressed, 0, compressed, 0, compressedSize);
+                mCompressed = compressed;
+            }
+            compressedSize += mDeflater.deflate(mCompressed, compressedSize, mCompressed.length - compressedSize);
+        }
+        mCRC32.reset();
+        mCRC32.update(mBlock, 0, mBlockSize);
+
+        mBlockHeader.clear();
+        mBlockHeader.putInt(mBlockSize).putInt(compressedSize).putInt((int) mCRC32.getValue()).flip();
+        write(mBlockHeader);
+        write(ByteBuffer.wrap(mCompressed, 0, compressedSize));
+        mBlockSize = 0;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (mBlockSize + size <= mBlock.length) return;
+        byte[] block = new byte[Math.max(mBlock.length * 2, mBlockSize + size)];
+        System.arraycopy(mBlock, 0, block, 0, mBlockSize);
+        mBlock = block;
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            mBlock[mBlockSize++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mBlock[mBlockSize++] = (byte) value;
+    }
+
+    /**
+     * 写入长度和UTF-8编码的字符串, 直接编码到数据块中, 不创建临时的byte[]
+     */
+    private void writeString(String string) {
+        int length = string.length();
+        int utf8Length = 0;
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                utf8Length++;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            } else {
+                utf8Length += 3;
+            }
+        }
+        writeVarint(utf8Length);
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                mBlock[mBlockSize++] = (byte) c;
+            } else if (c < 0x800) {
+                mBlock[mBlockSize++] = (byte) (0xC0 | (c >> 6));
+                mBlock[mBlockSize++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                mBlock[mBlockSize++] = (byte) (0xF0 | (codePoint >> 18));
+                mBlock[mBlockSize++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                mBlock[mBlockSize++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                mBlock[mBlockSize++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                // 单独的代理字符按3字节编码, 解码时替换为U+FFFD
+                mBlock[mBlockSize++] = (byte) (0xE0 | (c >> 12));
+                mBlock[mBlockSize++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                mBlock[mBlockSize++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+}
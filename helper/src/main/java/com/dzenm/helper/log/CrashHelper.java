@@ -10,15 +10,16 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 
 import com.dzenm.helper.date.DateHelper;
-import com.dzenm.helper.file.FileHelper;
 import com.dzenm.helper.task.WeakHandler;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Field;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -28,16 +29,20 @@ import java.util.Map;
 public class CrashHelper {
 
     private static final String TAG = CrashHelper.class.getSimpleName() + "| ";
-    private static final String PATH = "/crash";
-    private static final String NAME = "crash_";
-    private static final String SUFFIX = ".txt";
+    private static final String JOURNAL = "crash.journal";
+    private static final String INDEX = "crash.index";
+    private static final String TIME_PATTERN = "yyyy-MM-dd HH:mm:ss";
 
     private static CrashHelper mCrashHelper;
     private CaughtExceptionHandler mCaughtExceptionHandler;
 
     private Context mContext;
     private OnCaughtExceptionMessageListener mOnCaughtExceptionMessageListener;     // 自定义处理异常信息
-    private boolean isCache = true;                                             // 是否保存为本地文件
+    private boolean isCache = true;                                             // 是否保存崩溃索引文件
+    private CrashIndex mCrashIndex;                                             // 按堆栈聚合的崩溃
+    private CrashJournal mCrashJournal;                                         // 崩溃时写入的日志文件
+    private String mPhoneMessage;                                               // 启动时收集的设备信息
+    private final Object mReportLock = new Object();                            // 同一时间只有一个线程上报
 
     private CrashHelper() {
     }
@@ -55,6 +60,8 @@ public class CrashHelper {
 
     public CrashHelper init(Context context) {
         mContext = context;
+        mCrashIndex = new CrashIndex(new File(context.getFilesDir(), INDEX)).load();
+        openCrashJournal();
         interceptExceptionHandler();
         return this;
     }
@@ -74,6 +81,53 @@ public class CrashHelper {
         return this;
     }
 
+    /**
+     * 打开崩溃日志文件, 收集设备信息写入文件, 崩溃时只需要写入异常堆栈. 上一次运行时未处理的崩溃
+     * (例如内存不足时无法保存)在初始化完成后加入崩溃索引, 保存成功之后才从崩溃日志文件中清除,
+     * 然后在后台线程中汇总上报
+     */
+    private void openCrashJournal() {
+        mPhoneMessage = printPhoneMessage(collectPhoneMessage());
+        String phoneMessage = null;
+        List<CrashJournal.Entry> entries = null;
+        try {
+            // 使用应用内部存储, 不需要读写权限, 也不依赖FileHelper的初始化
+            mCrashJournal = CrashJournal.open(new File(mContext.getFilesDir(), JOURNAL),
+                    CrashJournal.DEFAULT_CAPACITY);
+            phoneMessage = mCrashJournal.getMetadata();
+            entries = mCrashJournal.getPending();
+            mCrashJournal.setMetadata(mPhoneMessage);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        final String lastPhoneMessage = phoneMessage;
+        final List<CrashJournal.Entry> lastEntries = entries;
+        new WeakHandler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                if (lastEntries != null && !lastEntries.isEmpty()) {
+                    Logger.i(TAG + "处理上次运行时未处理的崩溃: " + lastEntries.size());
+                    for (CrashJournal.Entry entry : lastEntries) {
+                        mCrashIndex.add(entry.trace, printSystemMessage(entry.trace, lastPhoneMessage), entry.time);
+                    }
+                    // 保存失败时保留在崩溃日志文件中, 下次启动时重新处理
+                    if (saveCrashIndex()) {
+                        for (CrashJournal.Entry entry : lastEntries) {
+                            mCrashJournal.markHandled(entry.record);
+                        }
+                    }
+                }
+                if (mCrashJournal != null) mCrashJournal.compact();
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        reportExceptions();
+                    }
+                }, "crash-report").start();
+            }
+        });
+    }
+
     /**
      * 拦截异常处理
      */
@@ -110,11 +164,22 @@ public class CrashHelper {
     private void catchException(Thread t, Throwable e) {
         if (e == null) return;
 
-        String exception = printExceptionMessage(e);                               // 输出异常信息
-        Map<String, String> phoneMessage = printPhoneMessage();                    // 收集设备参数信息
-        String crashMessage = printSystemMessage(exception, phoneMessage);         // 收集崩溃日志的信息
-
-        handlerExceptionMessage(crashMessage);
+        // 先写入崩溃日志文件, 之后的处理即使内存不足失败, 下次启动时也会重新处理
+        int record = mCrashJournal == null ? -1 : mCrashJournal.append(t, e);
+        try {
+            String exception = record >= 0 ? mCrashJournal.read(record)
+                    : printExceptionMessage(e);                                    // 输出异常信息
+            String phoneMessage = mPhoneMessage != null ? mPhoneMessage
+                    : printPhoneMessage(collectPhoneMessage());                    // 收集设备参数信息
+
+            // 第一次发生的崩溃立即上报, 重复发生的崩溃(例如启动即崩溃)只记录次数, 下次启动时汇总上报
+            boolean isNew = mCrashIndex.add(exception, printSystemMessage(exception, phoneMessage),
+                    System.currentTimeMillis());
+            if (saveCrashIndex() && record >= 0) mCrashJournal.markHandled(record);
+            if (isNew) reportExceptions();
+        } catch (Throwable throwable) {
+            throwable.printStackTrace();
+        }
 //        Process.killProcess(Process.myPid());                                      // 退出应用
         if (mCaughtExceptionHandler != null) {                                 // 处理异常
             mCaughtExceptionHandler.caughtException(t, e);
@@ -123,18 +188,62 @@ public class CrashHelper {
         }
     }
 
-    private void handlerExceptionMessage(String crashMessage) {
-        if (isCache) {
-            String fileName = NAME + DateHelper.getCurrentTimeMillis() + SUFFIX;
-            // 保存当前文件
-            FileHelper.getInstance().newFile(getCrashDirect().getPath(), fileName, crashMessage);
-            // 删除其它文件
-            FileHelper.getInstance().delete(getCrashDirect(), fileName);
+    /**
+     * 保存崩溃索引文件, 不保存崩溃索引文件时直接返回
+     *
+     * @return 是否保存成功, 保存成功之后崩溃日志文件中的记录才可以标记为已处理
+     */
+    private boolean saveCrashIndex() {
+        if (!isCache) return true;
+        try {
+            mCrashIndex.save();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 汇总还没有上报的崩溃, 每种崩溃只上报一次, 上报成功后记录已上报的次数. 启动时的上报线程和崩溃的线程
+     * 可能同时调用, 取出、上报和记录在同一个锁中完成, 同一批崩溃不会上报两次
+     */
+    private void reportExceptions() {
+        if (mOnCaughtExceptionMessageListener == null) return;
+        synchronized (mReportLock) {
+            List<CrashIndex.Bucket> buckets = mCrashIndex.getPending();
+            if (buckets.isEmpty()) return;
+            try {
+                // 上传到服务器
+                mOnCaughtExceptionMessageListener.onHandlerMessage(printCrashReport(buckets));
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                return;
+            }
+            mCrashIndex.markReported(buckets);
+            saveCrashIndex();
         }
-        if (mOnCaughtExceptionMessageListener != null) {
-            // 上传到服务器
-            mOnCaughtExceptionMessageListener.onHandlerMessage(crashMessage);
+    }
+
+    /**
+     * 输出汇总的崩溃信息
+     *
+     * @param buckets 还没有上报的崩溃
+     * @return 汇总信息
+     */
+    private String printCrashReport(List<CrashIndex.Bucket> buckets) {
+        StringBuilder stringBuffer = new StringBuilder();
+        stringBuffer.append("-------- 崩溃汇总, 共").append(buckets.size()).append("种 --------\n\n");
+        for (CrashIndex.Bucket bucket : buckets) {
+            stringBuffer.append("特征值: ").append(bucket.fingerprint).append("\n")
+                    .append("新增次数: ").append(bucket.count - bucket.reported)
+                    .append(", 累计次数: ").append(bucket.count).append("\n")
+                    .append("首次发生: ").append(DateHelper.formatDate(TIME_PATTERN, bucket.firstSeen)).append("\n")
+                    .append("最后发生: ").append(DateHelper.formatDate(TIME_PATTERN, bucket.lastSeen)).append("\n")
+                    .append(bucket.message)
+                    .append("\n\n\n");
         }
+        return stringBuffer.toString();
     }
 
     /**
@@ -163,7 +272,7 @@ public class CrashHelper {
     /**
      * 收集设备参数信息
      */
-    private Map<String, String> printPhoneMessage() {
+    private Map<String, String> collectPhoneMessage() {
         Logger.e(TAG + "开始收集设备参数信息");
         Map<String, String> info = new HashMap<String, String>();                      // 用来存储设备信息
         try {
@@ -193,13 +302,12 @@ public class CrashHelper {
     }
 
     /**
-     * 收集所需信息
+     * 输出设备信息
      *
-     * @param throwable 异常信息
-     * @param info      设备信息
-     * @return 汇总信息
+     * @param info 设备信息
+     * @return 格式化信息
      */
-    private String printSystemMessage(String throwable, Map<String, String> info) {
+    private String printPhoneMessage(Map<String, String> info) {
         StringBuilder stringBuffer = new StringBuilder();                      // 输出手机、系统、软件信息
         stringBuffer.append("-------- 开始收集设备信息 --------\n");
 
@@ -210,19 +318,22 @@ public class CrashHelper {
                     .append("\n");
         }
         stringBuffer.append("-------- 设备信息收集完成 --------\n\n\n");
-
-        stringBuffer.append("-------- 开始收集异常信息 --------\n");
-        stringBuffer.append(throwable)
-                .append("\n");
-        stringBuffer.append("-------- 异常信息收集完成 --------");
         return stringBuffer.toString();
     }
 
     /**
-     * @return 崩溃日志文件夹
+     * 收集所需信息
+     *
+     * @param throwable    异常信息
+     * @param phoneMessage 设备信息
+     * @return 汇总信息
      */
-    private File getCrashDirect() {
-        return FileHelper.getInstance().getFile(PATH);
+    private String printSystemMessage(String throwable, String phoneMessage) {
+        return phoneMessage
+                + "-------- 开始收集异常信息 --------\n"
+                + throwable
+                + "\n"
+                + "-------- 异常信息收集完成 --------";
     }
 
     public interface CaughtExceptionHandler {
@@ -230,6 +341,12 @@ public class CrashHelper {
     }
 
     public interface OnCaughtExceptionMessageListener {
+
+        /**
+         * 上报崩溃信息. 第一次发生的崩溃在崩溃线程中立即回调, 重复发生的崩溃在下次启动时于后台线程汇总回调
+         *
+         * @param message 汇总后的崩溃信息, 每种崩溃只包含一份堆栈, 以及次数、首次和最后一次发生的时间
+         */
         void onHandlerMessage(String message);
     }
 
@@ -0,0 +1,252 @@
+package com.dzenm.helper.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * @author dzenm
+ * @date 2020-03-11 15:05
+ * <p>
+ * 按异常堆栈的特征值聚合崩溃. 相同位置的崩溃只保存一份堆栈, 记录发生次数、首次和最后一次发生的时间,
+ * 以及已经上报的次数. 先写入临时文件并同步到磁盘, 再重命名覆盖, 文件末尾带有CRC32校验
+ */
+class CrashIndex {
+
+    private static final int MAGIC = 0x43524958;    // CRIX
+    private static final int VERSION = 1;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * 最多保存的崩溃种类, 超过后删除最久没有发生的崩溃
+     */
+    private static final int MAX_BUCKETS = 64;
+
+    /**
+     * 每个异常只取栈顶的若干帧计算特征值, 避免调用入口不同导致同一个崩溃被分开
+     */
+    private static final int MAX_FRAMES = 12;
+
+    /**
+     * 保存的堆栈的最大长度
+     */
+    private static final int MAX_TRACE_LENGTH = 32 * 1024;
+
+    private final File mFile;
+    private final LinkedHashMap<String, Bucket> mBuckets = new LinkedHashMap<>();
+
+    CrashIndex(File file) {
+        mFile = file;
+    }
+
+    /**
+     * 读取文件, 文件不存在或者校验失败时为空
+     */
+    synchronized CrashIndex load() {
+        mBuckets.clear();
+        if (!mFile.exists()) return this;
+        byte[] data = new byte[(int) mFile.length()];
+        try (FileInputStream fis = new FileInputStream(mFile)) {
+            int offset = 0, read;
+            while (offset < data.length && (read = fis.read(data, offset, data.length - offset)) != -1) {
+                offset += read;
+            }
+            if (offset != data.length || data.length < 8) return this;
+
+            CRC32 crc32 = new CRC32();
+            crc32.update(data, 0, data.length - 8);
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) return this;
+            int count = dis.readInt();
+            List<Bucket> buckets = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Bucket bucket = new Bucket(dis.readUTF());
+                bucket.count = dis.readInt();
+                bucket.reported = dis.readInt();
+                bucket.firstSeen = dis.readLong();
+                bucket.lastSeen = dis.readLong();
+                byte[] message = new byte[dis.readInt()];
+                dis.readFully(message);
+                bucket.message = new String(message, StandardCharsets.UTF_8);
+                buckets.add(bucket);
+            }
+            if (dis.readLong() != crc32.getValue()) return this;
+            for (Bucket bucket : buckets) {
+                mBuckets.put(bucket.fingerprint, bucket);
+            }
+        } catch (IOException e) {
+            mBuckets.clear();
+        }
+        return this;
+    }
+
+    /**
+     * 保存到文件
+     */
+    synchronized void save() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(4 * 1024);
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(mBuckets.size());
+        for (Bucket bucket : mBuckets.values()) {
+            dos.writeUTF(bucket.fingerprint);
+            dos.writeInt(bucket.count);
+            dos.writeInt(bucket.reported);
+            dos.writeLong(bucket.firstSeen);
+            dos.writeLong(bucket.lastSeen);
+            byte[] message = bucket.message.getBytes(StandardCharsets.UTF_8);
+            dos.writeInt(message.length);
+            dos.write(message);
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(bos.toByteArray());
+        dos.writeLong(crc32.getValue());
+        dos.flush();
+
+        File parent = mFile.getParentFile();
+        if (parent != null && !parent.exists()) parent.mkdirs();
+        File temp = new File(mFile.getPath() + TEMP_SUFFIX);
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            bos.writeTo(fos);
+            fos.getFD().sync();
+        }
+        if (!temp.renameTo(mFile)) {
+            throw new IOException("重命名崩溃索引文件失败: " + mFile.getPath());
+        }
+    }
+
+    /**
+     * 记录一次崩溃
+     *
+     * @param trace   异常堆栈, 用于计算特征值
+     * @param message 完整的崩溃信息, 只保存第一次发生时的信息
+     * @param time    崩溃发生的时间
+     * @return 是否第一次发生
+     */
+    synchronized boolean add(String trace, String message, long time) {
+        String fingerprint = fingerprint(trace);
+        Bucket bucket = mBuckets.remove(fingerprint);
+        boolean isNew = bucket == null;
+        if (isNew) {
+            bucket = new Bucket(fingerprint);
+            bucket.firstSeen = time;
+            bucket.message = message.length() > MAX_TRACE_LENGTH
+                    ? message.substring(0, MAX_TRACE_LENGTH) : message;
+        }
+        bucket.count++;
+        bucket.firstSeen = Math.min(bucket.firstSeen, time);
+        bucket.lastSeen = Math.max(bucket.lastSeen, time);
+        // 按最后发生的时间排列, 第一个就是最久没有发生的崩溃
+        mBuckets.put(fingerprint, bucket);
+        while (mBuckets.size() > MAX_BUCKETS) {
+            mBuckets.remove(mBuckets.keySet().iterator().next());
+        }
+        return isNew;
+    }
+
+    /**
+     * @return 还没有上报的崩溃, 返回的是快照, 不受之后的崩溃影响
+     */
+    synchronized List<Bucket> getPending() {
+        List<Bucket> pending = new ArrayList<>();
+        for (Bucket bucket : mBuckets.values()) {
+            if (bucket.count > bucket.reported) pending.add(bucket.copy());
+        }
+        return pending;
+    }
+
+    /**
+     * 上报成功, 更新已经上报的次数
+     *
+     * @param buckets {@link #getPending()} 返回的快照
+     */
+    synchronized void markReported(List<Bucket> buckets) {
+        for (Bucket reported : buckets) {
+            Bucket bucket = mBuckets.get(reported.fingerprint);
+            if (bucket != null) bucket.reported = Math.max(bucket.reported, reported.count);
+        }
+    }
+
+    /**
+     * 计算异常堆栈的特征值. 只使用异常类名和每一帧的类名、方法名, 忽略异常信息和行号, 去掉匿名类
+     * 和lambda的编号, 同一个位置的崩溃在不同版本、不同参数下得到相同的特征值
+     *
+     * @param trace {@link Throwable#printStackTrace()} 格式的异常堆栈
+     * @return 16位十六进制的特征值
+     */
+    static String fingerprint(String trace) {
+        long hash = 0xcbf29ce484222325L;
+        int frames = 0;
+        for (String line : trace.split("\n")) {
+            line = line.trim();
+            String token;
+            if (line.startsWith("at ")) {
+                if (frames++ >= MAX_FRAMES) continue;
+                int end = line.indexOf('(');
+                token = line.substring(3, end < 0 ? line.length() : end);
+            } else if (line.startsWith("Caused by: ")) {
+                frames = 0;
+                token = exceptionName(line.substring("Caused by: ".length()));
+            } else if (line.isEmpty() || line.startsWith("Thread: ") || line.startsWith("...")
+                    || line.startsWith("Suppressed: ")) {
+                continue;
+            } else if (frames == 0 && hash == 0xcbf29ce484222325L) {
+                token = exceptionName(line);
+            } else {
+                // 多行的异常信息
+                continue;
+            }
+            token = token.replaceAll("\\$[0-9]+", "\\$").replaceAll("\\$\\$Lambda\\$.*", "\\$\\$Lambda");
+            for (int i = 0; i < token.length(); i++) {
+                hash ^= token.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            hash ^= '\n';
+            hash *= 0x100000001b3L;
+        }
+        return String.format("%016x", hash);
+    }
+
+    private static String exceptionName(String line) {
+        int end = line.indexOf(':');
+        return end < 0 ? line : line.substring(0, end);
+    }
+
+    /**
+     * 一种崩溃
+     */
+    static final class Bucket {
+
+        final String fingerprint;
+        int count;
+        int reported;
+        long firstSeen;
+        long lastSeen;
+        String message;
+
+        Bucket(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        Bucket copy() {
+            Bucket bucket = new Bucket(fingerprint);
+            bucket.count = count;
+            bucket.reported = reported;
+            bucket.firstSeen = firstSeen;
+            bucket.lastSeen = lastSeen;
+            bucket.message = message;
+            return bucket;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.dzenm.helper.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author dzenm
+ * @date 2020-03-11 10:20
+ * <p>
+ * 预先分配并映射到内存的崩溃日志文件. 设备和应用信息在启动时写入一次, 崩溃时只把异常堆栈逐个字符
+ * 写入映射的内存中, 不拼接字符串, 不申请缓冲区, 内存不足时也能记录. 写入映射内存的数据由系统写回文件,
+ * 进程被杀也不会丢失. 文件结构:
+ * <pre>
+ * 文件头: MAGIC(4) VERSION(4) 设备信息长度(4) 写入位置(4)
+ * 设备信息: UTF-8, 固定 {@link #METADATA_SIZE} 大小
+ * 崩溃记录: 长度(4) 状态(4) 时间(8) UTF-8异常堆栈
+ * </pre>
+ * 崩溃记录的长度最后写入, 长度为0的记录表示写入未完成. 崩溃记录保存到崩溃索引之后才标记为已处理,
+ * 所有记录都已处理时清空
+ */
+class CrashJournal {
+
+    private static final int MAGIC = 0x43524a4c;    // CRJL
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int METADATA_SIZE = 16 * 1024;
+    private static final int RECORD_START = HEADER_SIZE + METADATA_SIZE;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int MAX_CAUSE_DEPTH = 16;
+
+    private static final int OFFSET_METADATA_LENGTH = 8;
+    private static final int OFFSET_END = 12;
+
+    static final int STATE_PENDING = 0;
+    static final int STATE_HANDLED = 1;
+
+    static final int DEFAULT_CAPACITY = 256 * 1024;
+
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+
+    /**
+     * 写入崩溃记录时使用, 只在持有锁时访问
+     */
+    private int mPosition;
+
+    private CrashJournal(MappedByteBuffer buffer, int capacity) {
+        mBuffer = buffer;
+        mCapacity = capacity;
+    }
+
+    /**
+     * 打开崩溃日志文件并映射到内存, 文件不存在时创建
+     *
+     * @param file     崩溃日志文件
+     * @param capacity 文件大小
+     * @return CrashJournal
+     */
+    static CrashJournal open(File file, int capacity) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) parent.mkdirs();
+        capacity = Math.max(capacity, RECORD_START + 4 * 1024);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            if (randomAccessFile.length() != capacity) randomAccessFile.setLength(capacity);
+            // 映射在文件关闭后仍然有效
+            MappedByteBuffer buffer = randomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            CrashJournal journal = new CrashJournal(buffer, capacity);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || !journal.isValidEnd()) {
+                journal.reset();
+            }
+            return journal;
+        }
+    }
+
+    private boolean isValidEnd() {
+        int end = mBuffer.getInt(OFFSET_END);
+        return end >= RECORD_START && end <= mCapacity;
+    }
+
+    /**
+     * 清空文件, 写入文件头
+     */
+    private void reset() {
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putInt(4, VERSION);
+        mBuffer.putInt(OFFSET_METADATA_LENGTH, 0);
+        mBuffer.putInt(OFFSET_END, RECORD_START);
+    }
+
+    /**
+     * @return 上一次写入的设备和应用信息, 需要在 {@link #setMetadata(String)} 之前获取
+     */
+    synchronized String getMetadata() {
+        int length = Math.min(mBuffer.getInt(OFFSET_METADATA_LENGTH), METADATA_SIZE);
+        return length <= 0 ? "" : readString(HEADER_SIZE, length);
+    }
+
+    /**
+     * 写入设备和应用信息, 应用启动时调用一次
+     */
+    synchronized void setMetadata(String metadata) {
+        byte[] bytes = metadata.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, METADATA_SIZE);
+        for (int i = 0; i < length; i++) {
+            mBuffer.put(HEADER_SIZE + i, bytes[i]);
+        }
+        mBuffer.putInt(OFFSET_METADATA_LENGTH, length);
+    }
+
+    /**
+     * 读取所有未处理的崩溃记录, 不会清除. 保存之后调用 {@link #markHandled(int)} 和 {@link #compact()}
+     *
+     * @return 未处理的崩溃记录
+     */
+    synchronized List<Entry> getPending() {
+        List<Entry> entries = new ArrayList<>();
+        int end = mBuffer.getInt(OFFSET_END);
+        int position = RECORD_START;
+        while (position + RECORD_HEADER_SIZE <= end) {
+            int length = mBuffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > end) break;
+            if (mBuffer.getInt(position + 4) == STATE_PENDING) {
+                entries.add(new Entry(position, mBuffer.getLong(position + 8),
+                        readString(position + RECORD_HEADER_SIZE, length)));
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return entries;
+    }
+
+    /**
+     * 所有崩溃记录都已经处理时清空, 有未处理的记录时保留所有记录
+     */
+    synchronized void compact() {
+        int end = mBuffer.getInt(OFFSET_END);
+        int position = RECORD_START;
+        while (position + RECORD_HEADER_SIZE <= end) {
+            int length = mBuffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > end) break;
+            if (mBuffer.getInt(position + 4) == STATE_PENDING) return;
+            position += RECORD_HEADER_SIZE + length;
+        }
+        mBuffer.putInt(OFFSET_END, RECORD_START);
+    }
+
+    /**
+     * 写入一条崩溃记录, 除了 {@link Throwable#getStackTrace()} 之外不申请内存
+     *
+     * @param thread    崩溃的线程
+     * @param throwable 异常
+     * @return 崩溃记录的位置, 用于 {@link #read(int)} 和 {@link #markHandled(int)}, 空间不足时返回-1
+     */
+    synchronized int append(Thread thread, Throwable throwable) {
+        int start = mBuffer.getInt(OFFSET_END);
+        if (start + RECORD_HEADER_SIZE + 64 > mCapacity) return -1;
+        mBuffer.putInt(start, 0);
+        mPosition = start + RECORD_HEADER_SIZE;
+
+        putString("Thread: ");
+        putString(thread == null ? "unknown" : thread.getName());
+        putChar('\n');
+        Throwable cause = throwable;
+        for (int depth = 0; cause != null && depth < MAX_CAUSE_DEPTH; depth++) {
+            if (depth > 0) putString("Caused by: ");
+            putString(cause.getClass().getName());
+            String message = cause.getLocalizedMessage();
+            if (message != null) {
+                putString(": ");
+                putString(message);
+            }
+            putChar('\n');
+            StackTraceElement[] elements = cause.getStackTrace();
+            for (StackTraceElement element : elements) {
+                putStackTraceElement(element);
+            }
+            if (cause.getCause() == cause) break;
+            cause = cause.getCause();
+        }
+
+        int length = mPosition - start - RECORD_HEADER_SIZE;
+        mBuffer.putInt(start + 4, STATE_PENDING);
+        mBuffer.putLong(start + 8, System.currentTimeMillis());
+        // 最后写入长度和结束位置, 表示记录写入完成
+        mBuffer.putInt(start, length);
+        mBuffer.putInt(OFFSET_END, mPosition);
+        return start;
+    }
+
+    /**
+     * @param record {@link #append(Thread, Throwable)} 返回的位置
+     * @return 崩溃记录的异常堆栈
+     */
+    synchronized String read(int record) {
+        return readString(record + RECORD_HEADER_SIZE, mBuffer.getInt(record));
+    }
+
+    /**
+     * 崩溃已经处理(保存或上传), 下次启动时不再处理
+     *
+     * @param record {@link #append(Thread, Throwable)} 返回的位置或者 {@link Entry#record}
+     */
+    synchronized void markHandled(int record) {
+        mBuffer.putInt(record + 4, STATE_HANDLED);
+    }
+
+    private void putStackTraceElement(StackTraceElement element) {
+        putString("\tat ");
+        putString(element.getClassName());
+        putChar('.');
+        putString(element.getMethodName());
+        putChar('(');
+        if (element.isNativeMethod()) {
+            putString("Native Method");
+        } else if (element.getFileName() == null) {
+            putString("Unknown Source");
+        } else {
+            putString(element.getFileName());
+            if (element.getLineNumber() >= 0) {
+                putChar(':');
+                putInt(element.getLineNumber());
+            }
+        }
+        putString(")\n");
+    }
+
+    /**
+     * 按UTF-8编码逐个字符写入, 空间不足时丢弃剩余的内容
+     */
+    private void putString(String string) {
+        if (string == null) string = "null";
+        int length = string.length();
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                putByte(c);
+            } else if (c < 0x800) {
+                if (mPosition + 2 > mCapacity) return;
+                putByte(0xC0 | (c >> 6));
+                putByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                if (mPosition + 4 > mCapacity) return;
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                putByte(0xF0 | (codePoint >> 18));
+                putByte(0x80 | ((codePoint >> 12) & 0x3F));
+                putByte(0x80 | ((codePoint >> 6) & 0x3F));
+                putByte(0x80 | (codePoint & 0x3F));
+            } else {
+                if (mPosition + 3 > mCapacity) return;
+                putByte(0xE0 | (c >> 12));
+                putByte(0x80 | ((c >> 6) & 0x3F));
+                putByte(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void putChar(char c) {
+        putByte(c);
+    }
+
+    private void putInt(int value) {
+        if (value >= 10) putInt(value / 10);
+        putByte('0' + value % 10);
+    }
+
+    private void putByte(int b) {
+        if (mPosition < mCapacity) mBuffer.put(mPosition++, (byte) b);
+    }
+
+    private String readString(int position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(position + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 一条崩溃记录
+     */
+    static final class Entry {
+
+        final int record;
+        final long time;
+        final String trace;
+
+        Entry(int record, long time, String trace) {
+            this.record = record;
+            this.time = time;
+            this.trace = trace;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package com.dzenm.helper.log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author dzenm
+ * @date 2020-03-09 10:15
+ * <pre>
+ * LogAppender appender = new LogAppender(dir)
+ *        .setMaxFileSize(4 * 1024 * 1024)
+ *        .start();
+ * appender.append(Logger.DEBUG, tag, msg);
+ * </pre>
+ * 进程内的异步日志输出. {@link #append(int, String, String)} 只把日志放入无锁的环形缓冲区, 不分配内存也不加锁,
+ * 由单独的写入线程批量取出, 编码后通过 {@link FileChannel} 写入文件. 日志文件按大小和时间滚动,
+ * 只保留最近的若干个文件. 缓冲区已满时丢弃日志, 不会阻塞调用线程. 文件格式由 {@link Encoder} 决定,
+ * 默认为文本格式, 也可以使用 {@link BinaryLogEncoder}
+ */
+public class LogAppender {
+
+    private static final String TIME_PATTERN = "yyyy-MM-dd HH:mm:ss.SSS";
+    static final char[] LEVELS = {'V', 'V', 'D', 'I', 'W', 'E', 'A', 'A'};
+
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final long FLUSH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(200);
+
+    /**
+     * 环形缓冲区, 容量为2的幂, 每个槽位通过序号判断是否可写(可读)
+     */
+    private final Record[] mRecords;
+    private final int mMask;
+    private final AtomicLong mTail = new AtomicLong();
+    private long mHead;
+    private final AtomicLong mDropped = new AtomicLong();
+
+    private final File mDirectory;
+    private volatile int mLevel = Logger.VERBOSE;
+    private long mMaxFileSize = 4 * 1024 * 1024;
+    private long mMaxFileAge = TimeUnit.DAYS.toMillis(1);
+    private int mMaxFileCount = 10;
+    private Encoder mEncoder = new TextEncoder();
+
+    private volatile boolean isRunning;
+    private volatile Thread mWriterThread;
+
+    /**
+     * 以下变量只在写入线程中使用
+     */
+    private FileOutputStream mFileOutputStream;
+    private FileChannel mChannel;
+    private long mFileCreateTime;
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat(TIME_PATTERN, Locale.getDefault());
+    private final Date mDate = new Date();
+
+    /**
+     * @param directory 日志文件存储目录
+     */
+    public LogAppender(File directory) {
+        this(directory, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param directory 日志文件存储目录
+     * @param capacity  缓冲区容量, 会向上取整为2的幂
+     */
+    public LogAppender(File directory, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mRecords = new Record[size];
+        for (int i = 0; i < size; i++) {
+            mRecords[i] = new Record(i);
+        }
+        mMask = size - 1;
+        mDirectory = directory;
+    }
+
+    /**
+     * @param level 保存到文件的最低日志级别
+     * @return this
+     */
+    public LogAppender setLevel(int level) {
+        mLevel = level;
+        return this;
+    }
+
+    /**
+     * @param maxFileSize 单个日志文件的最大大小, 超过后创建新文件
+     * @return this
+     */
+    public LogAppender setMaxFileSize(long maxFileSize) {
+        mMaxFileSize = maxFileSize;
+        return this;
+    }
+
+    /**
+     * @param maxFileAge 单个日志文件的最长时间(毫秒), 超过后创建新文件
+     * @return this
+     */
+    public LogAppender setMaxFileAge(long maxFileAge) {
+        mMaxFileAge = maxFileAge;
+        return this;
+    }
+
+    /**
+     * @param maxFileCount 最多保留的日志文件数量
+     * @return this
+     */
+    public LogAppender setMaxFileCount(int maxFileCount) {
+        mMaxFileCount = Math.max(1, maxFileCount);
+        return this;
+    }
+
+    /**
+     * @param encoder 日志文件的编码格式, 默认为文本格式, 需要在 {@link #start()} 之前设置
+     * @return this
+     * @see BinaryLogEncoder
+     */
+    public LogAppender setEncoder(Encoder encoder) {
+        mEncoder = encoder;
+        return this;
+    }
+
+    /**
+     * @return 缓冲区已满被丢弃的日志数量
+     */
+    public long getDropped() {
+        return mDropped.get();
+    }
+
+    /**
+     * 启动写入线程
+     *
+     * @return this
+     */
+    public synchronized LogAppender start() {
+        if (isRunning) return this;
+        isRunning = true;
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "logger-appender");
+        mWriterThread.setDaemon(true);
+        mWriterThread.start();
+        return this;
+    }
+
+    /**
+     * 停止写入线程, 缓冲区中剩余的日志会写入文件
+     */
+    public synchronized void stop() {
+        if (!isRunning) return;
+        isRunning = false;
+        LockSupport.unpark(mWriterThread);
+        try {
+            mWriterThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mWriterThread = null;
+    }
+
+    /**
+     * 添加一条日志, 可以在任意线程调用, 不阻塞
+     *
+     * @param level 日志级别
+     * @param tag   日志tag
+     * @param msg   日志内容
+     * @return 是否添加成功, 缓冲区已满时返回false
+     */
+    public boolean append(int level, String tag, String msg) {
+        if (level < mLevel || !isRunning) return false;
+        Record record;
+        long position = mTail.get();
+        for (; ; ) {
+            record = mRecords[(int) position & mMask];
+            long difference = record.sequence - position;
+            if (difference == 0) {
+                if (mTail.compareAndSet(position, position + 1)) break;
+                position = mTail.get();
+            } else if (difference < 0) {
+                mDropped.incrementAndGet();
+                return false;
+            } else {
+                position = mTail.get();
+            }
+        }
+        record.time = System.currentTimeMillis();
+        record.threadId = Thread.currentThread().getId();
+        record.level = level;
+        record.tag = tag;
+        record.msg = msg;
+        // 写入序号发布日志, 写入线程看到序号后才会读取
+        record.sequence = position + 1;
+        // 每写入半个缓冲区的日志唤醒一次写入线程, 避免突发日志在休眠期间填满缓冲区
+        if ((position & (mMask >> 1)) == 0) {
+            LockSupport.unpark(mWriterThread);
+        }
+        return true;
+    }
+
+    /**
+     * 写入线程的循环, 批量取出日志写入文件, 没有日志时休眠
+     */
+    private void loop() {
+        try {
+            openFile();
+            while (isRunning) {
+                if (drain() == 0) {
+                    LockSupport.parkNanos(this, FLUSH_INTERVAL);
+                }
+            }
+            drain();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeFile();
+        }
+    }
+
+    /**
+     * 取出缓冲区中所有的日志并写入文件
+     *
+     * @return 写入的日志数量
+     */
+    private int drain() throws IOException {
+        int count = 0;
+        for (; ; ) {
+            Record record = mRecords[(int) mHead & mMask];
+            if (record.sequence != mHead + 1) break;
+            mEncoder.encode(record.time, record.threadId, record.level, record.tag, record.msg);
+            record.tag = null;
+            record.msg = null;
+            record.sequence = mHead + mMask + 1;
+            mHead++;
+            count++;
+        }
+        if (count > 0) {
+            mEncoder.flush();
+            rollIfNeeded();
+        }
+        return count;
+    }
+
+    /**
+     * 当前文件超过最大大小或最长时间时, 创建新文件
+     */
+    private void rollIfNeeded() throws IOException {
+        if (mChannel.size() < mMaxFileSize && System.currentTimeMillis() - mFileCreateTime < mMaxFileAge) {
+            return;
+        }
+        closeFile();
+        openFile();
+    }
+
+    private void openFile() throws IOException {
+        if (!mDirectory.exists()) mDirectory.mkdirs();
+        mFileCreateTime = System.currentTimeMillis();
+        mDate.setTime(mFileCreateTime);
+        File file = new File(mDirectory, mDateFormat.format(mDate) + mEncoder.getSuffix());
+        mFileOutputStream = new FileOutputStream(file, true);
+        mChannel = mFileOutputStream.getChannel();
+        mEncoder.open(mChannel);
+        deleteOldFiles();
+    }
+
+    private void closeFile() {
+        if (mFileOutputStream == null) return;
+        try {
+            mEncoder.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            mFileOutputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        mFileOutputStream = null;
+        mChannel = null;
+    }
+
+    /**
+     * 只保留最近的 {@link #mMaxFileCount} 个日志文件
+     */
+    private void deleteOldFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+        String[] names = new String[files.length];
+        int count = 0;
+        for (File file : files) {
+            if (file.isFile() && file.getName().endsWith(mEncoder.getSuffix())) names[count++] = file.getName();
+        }
+        if (count <= mMaxFileCount) return;
+        // 文件名以时间开头, 按名称排序即按时间排序
+        Arrays.sort(names, 0, count);
+        for (int i = 0; i < count - mMaxFileCount; i++) {
+            new File(mDirectory, names[i]).delete();
+        }
+    }
+
+    /**
+     * 日志文件的编码格式, 所有方法只在写入线程中调用
+     */
+    public interface Encoder {
+
+        /**
+         * @return 日志文件后缀, 例: .txt
+         */
+        String getSuffix();
+
+        /**
+         * 开始写入一个新的日志文件
+         *
+         * @param channel 日志文件的FileChannel, 已经定位到文件末尾
+         */
+        void open(FileChannel channel) throws IOException;
+
+        /**
+         * 编码一条日志, 可以先缓存在内存中, 在 {@link #flush()} 时写入文件
+         */
+        void encode(long time, long threadId, int level, String tag, String msg) throws IOException;
+
+        /**
+         * 一批日志编码完成, 将缓存的数据写入文件
+         */
+        void flush() throws IOException;
+    }
+
+    /**
+     * 文本格式: | 2019-11-14 09:32:32.367 | D/tag(1): msg
+     */
+    static final class TextEncoder implements Encoder {
+
+        private final StringBuilder mLine = new StringBuilder(256);
+        private final ByteBuffer mByteBuffer = ByteBuffer.allocate(64 * 1024);
+        private final CharsetEncoder mCharsetEncoder = StandardCharsets.UTF_8.newEncoder();
+        private final SimpleDateFormat mDateFormat = new SimpleDateFormat(TIME_PATTERN, Locale.getDefault());
+        private final Date mDate = new Date();
+        private FileChannel mChannel;
+
+        @Override
+        public String getSuffix() {
+            return ".txt";
+        }
+
+        @Override
+        public void open(FileChannel channel) {
+            mChannel = channel;
+            mByteBuffer.clear();
+        }
+
+        @Override
+        public void encode(long time, long threadId, int level, String tag, String msg) throws IOException {
+            mDate.setTime(time);
+            mLine.setLength(0);
+            mLine.append("| ").append(mDateFormat.format(mDate)).append(" | ")
+                    .append(LEVELS[Math.max(0, Math.min(level, LEVELS.length - 1))])
+                    .append('/').append(tag)
+                    .append('(').append(threadId).append("): ")
+                    .append(msg).append('\n');
+            CharBuffer chars = CharBuffer.wrap(mLine);
+            mCharsetEncoder.reset();
+            for (; ; ) {
+                CoderResult result = mCharsetEncoder.encode(chars, mByteBuffer, true);
+                if (result.isOverflow()) {
+                    flush();
+                } else {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mByteBuffer.flip();
+            while (mByteBuffer.hasRemaining()) {
+                mChannel.write(mByteBuffer);
+            }
+            mByteBuffer.clear();
+        }
+    }
+
+    /**
+     * 缓冲区中的一条日志, 预先分配, 循环使用
+     */
+    private static final class Record {
+
+        volatile long sequence;
+        long time;
+        long threadId;
+        int level;
+        String tag;
+        String msg;
+
+        Record(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
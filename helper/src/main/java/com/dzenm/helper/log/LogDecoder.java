@@ -0,0 +1,362 @@
+package com.dzenm.helper.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * @author dzenm
+ * @date 2020-03-10 17:25
+ * <pre>
+ * java -cp helper.jar com.dzenm.helper.log.LogDecoder -l W -t DZY -g 下载 logs/
+ * </pre>
+ * 解码 {@link BinaryLogEncoder} 写入的日志文件, 不依赖Android, 可以在电脑上运行. 命令行参数:
+ * <pre>
+ * -l 级别    只输出该级别及以上的日志, 例: D, I, W, E
+ * -t tag     只输出该tag的日志
+ * -g 关键字  只输出包含关键字的日志
+ * -f 时间    只输出该时间之后的日志, 格式: yyyy-MM-dd HH:mm:ss
+ * -e 时间    只输出该时间之前的日志, 格式: yyyy-MM-dd HH:mm:ss
+ * -s         每行日志前输出所在的文件名
+ * </pre>
+ * 可以传入多个文件或目录, 所有文件的日志按时间合并输出. 文件末尾不完整或损坏的数据块会被忽略
+ */
+public class LogDecoder implements Closeable {
+
+    private static final ThreadLocal<SimpleDateFormat> TIME_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.getDefault());
+        }
+    };
+
+    private final String mSource;
+    private final DataInputStream mInputStream;
+    private final Inflater mInflater = new Inflater();
+    private final CRC32 mCRC32 = new CRC32();
+    private final List<String> mTags = new ArrayList<>();
+
+    private byte[] mBlock = new byte[64 * 1024];
+    private byte[] mCompressed = new byte[64 * 1024];
+    private int mBlockSize;
+    private int mPosition;
+    private long mLastTime;
+    private boolean isCorrupted;
+
+    /**
+     * @param file {@link BinaryLogEncoder} 写入的日志文件
+     * @throws IOException 文件不存在或者不是二进制日志文件
+     */
+    public LogDecoder(File file) throws IOException {
+        mSource = file.getName();
+        mInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            if (mInputStream.readInt() != BinaryLogEncoder.MAGIC) {
+                throw new IOException("not a binary log file: " + file.getPath());
+            }
+            readHeader();
+        } catch (IOException e) {
+            mInputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return 日志所在的文件名
+     */
+    public String getSource() {
+        return mSource;
+    }
+
+    /**
+     * @return 文件中是否有损坏的数据块, 损坏的数据块及之后的日志无法读取
+     */
+    public boolean isCorrupted() {
+        return isCorrupted;
+    }
+
+    /**
+     * 读取下一条日志
+     *
+     * @return 日志, 没有更多日志时返回null
+     */
+    public Entry next() throws IOException {
+        for (; ; ) {
+            while (mPosition < mBlockSize) {
+                int type = mBlock[mPosition++];
+                if (type == BinaryLogEncoder.TYPE_TAG) {
+                    int id = (int) readVarint();
+                    String tag = readString();
+                    while (mTags.size() <= id) mTags.add(null);
+                    mTags.set(id, tag);
+                } else if (type == BinaryLogEncoder.TYPE_RECORD) {
+                    long delta = readVarint();
+                    mLastTime += (delta >>> 1) ^ -(delta & 1);
+                    int level = mBlock[mPosition++];
+                    int tagId = (int) readVarint();
+                    long threadId = readVarint();
+                    String msg = readString();
+                    String tag = tagId < mTags.size() ? mTags.get(tagId) : null;
+                    return new Entry(mLastTime, threadId, level, tag == null ? "?" : tag, msg, mSource);
+                } else {
+                    isCorrupted = true;
+                    return null;
+                }
+            }
+            if (!readBlock()) return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInflater.end();
+        mInputStream.close();
+    }
+
+    private void readHeader() throws IOException {
+        int version = mInputStream.readUnsignedByte();
+        if (version != BinaryLogEncoder.VERSION) {
+            throw new IOException("unsupported binary log version: " + version);
+        }
+        mLastTime = mInputStream.readLong();
+        mTags.clear();
+    }
+
+    /**
+     * 读取并解压下一个数据块
+     *
+     * @return 是否读取成功, 文件结束或者数据块不完整时返回false
+     */
+    private boolean readBlock() throws IOException {
+        if (isCorrupted) return false;
+        try {
+            int rawSize = mInputStream.readInt();
+            if (rawSize == BinaryLogEncoder.MAGIC) {
+                // 追加写入的新文件头
+                readHeader();
+                rawSize = mInputStream.readInt();
+            }
+            int compressedSize = mInputStream.readInt();
+            int crc = mInputStream.readInt();
+            if (rawSize < 0 || compressedSize < 0) {
+                isCorrupted = true;
+                return false;
+            }
+            if (mCompressed.length < compressedSize) mCompressed = new byte[compressedSize];
+            if (mBlock.length < rawSize) mBlock = new byte[rawSize];
+            mInputStream.readFully(mCompressed, 0, compressedSize);
+
+            mInflater.reset();
+            mInflater.setInput(mCompressed, 0, compressedSize);
+            int size = 0;
+            while (size < rawSize && !mInflater.finished()) {
+                int count = mInflater.inflate(mBlock, size, rawSize - size);
+                if (count == 0 && (mInflater.needsInput() || mInflater.needsDictionary())) break;
+                size += count;
+            }
+            mCRC32.reset();
+            mCRC32.update(mBlock, 0, size);
+            if (size != rawSize || (int) mCRC32.getValue() != crc) {
+                isCorrupted = true;
+                return false;
+            }
+            mBlockSize = rawSize;
+            mPosition = 0;
+            return true;
+        } catch (EOFException e) {
+            // 进程被杀时最后一个数据块可能不完整
+            return false;
+        } catch (DataFormatException e) {
+            isCorrupted = true;
+            return false;
+        }
+    }
+
+    private long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = mBlock[mPosition++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        return value;
+    }
+
+    private String readString() {
+        int length = (int) readVarint();
+        String string = new String(mBlock, mPosition, length, StandardCharsets.UTF_8);
+        mPosition += length;
+        return string;
+    }
+
+    /**
+     * 解码后的一条日志
+     */
+    public static final class Entry {
+
+        public final long time;
+        public final long threadId;
+        public final int level;
+        public final String tag;
+        public final String msg;
+        public final String source;
+
+        Entry(long time, long threadId, int level, String tag, String msg, String source) {
+            this.time = time;
+            this.threadId = threadId;
+            this.level = level;
+            this.tag = tag;
+            this.msg = msg;
+            this.source = source;
+        }
+
+        /**
+         * @return 与文本格式相同的一行日志, 例: | 2019-11-14 09:32:32.367 | D/tag(1): msg
+         */
+        @Override
+        public String toString() {
+            return "| " + TIME_FORMAT.get().format(new Date(time)) + " | " + levelName(level) + "/" + tag
+                    + "(" + threadId + "): " + msg;
+        }
+    }
+
+    private static char levelName(int level) {
+        return LogAppender.LEVELS[Math.max(0, Math.min(level, LogAppender.LEVELS.length - 1))];
+    }
+
+    private static int parseLevel(String name) {
+        char c = Character.toUpperCase(name.charAt(0));
+        for (int i = Logger.VERBOSE; i < LogAppender.LEVELS.length; i++) {
+            if (LogAppender.LEVELS[i] == c) return i;
+        }
+        throw new IllegalArgumentException("unknown level: " + name);
+    }
+
+    /**
+     * 命令行入口, 参数见类注释
+     */
+    public static void main(String[] args) throws IOException {
+        int level = 0;
+        String tag = null, keyword = null;
+        long from = Long.MIN_VALUE, to = Long.MAX_VALUE;
+        boolean printSource = false;
+        List<File> files = new ArrayList<>();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("-l".equals(arg)) {
+                    level = parseLevel(args[++i]);
+                } else if ("-t".equals(arg)) {
+                    tag = args[++i];
+                } else if ("-g".equals(arg)) {
+                    keyword = args[++i];
+                } else if ("-f".equals(arg)) {
+                    from = dateFormat.parse(args[++i]).getTime();
+                } else if ("-e".equals(arg)) {
+                    to = dateFormat.parse(args[++i]).getTime();
+                } else if ("-s".equals(arg)) {
+                    printSource = true;
+                } else {
+                    addFiles(new File(arg), files);
+                }
+            }
+        } catch (ParseException | IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("error: " + e.getMessage());
+            files.clear();
+        }
+        if (files.isEmpty()) {
+            System.err.println("usage: LogDecoder [-l level] [-t tag] [-g keyword] "
+                    + "[-f \"yyyy-MM-dd HH:mm:ss\"] [-e \"yyyy-MM-dd HH:mm:ss\"] [-s] file|dir...");
+            System.exit(1);
+        }
+
+        // 每个文件的日志基本按时间排列, 多路归并即可按时间合并所有文件
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(files.size(), new Comparator<Cursor>() {
+            @Override
+            public int compare(Cursor o1, Cursor o2) {
+                int result = Long.compare(o1.entry.time, o2.entry.time);
+                return result != 0 ? result : Integer.compare(o1.index, o2.index);
+            }
+        });
+        List<LogDecoder> decoders = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                LogDecoder decoder = new LogDecoder(files.get(i));
+                decoders.add(decoder);
+                Entry entry = decoder.next();
+                if (entry != null) queue.add(new Cursor(decoder, entry, i));
+            } catch (IOException e) {
+                System.err.println("skip " + files.get(i).getPath() + ": " + e.getMessage());
+            }
+        }
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out), 64 * 1024), false, "UTF-8");
+        while (!queue.isEmpty()) {
+            Cursor cursor = queue.poll();
+            Entry entry = cursor.entry;
+            if (entry.level >= level && entry.time >= from && entry.time <= to
+                    && (tag == null || tag.equals(entry.tag))
+                    && (keyword == null || entry.msg.contains(keyword))) {
+                if (printSource) out.print(entry.source + " ");
+                out.println(entry);
+            }
+            cursor.entry = cursor.decoder.next();
+            if (cursor.entry != null) queue.add(cursor);
+        }
+        out.flush();
+
+        for (LogDecoder decoder : decoders) {
+            if (decoder.isCorrupted()) System.err.println("corrupted block in " + decoder.getSource());
+            decoder.close();
+        }
+    }
+
+    private static void addFiles(File file, List<File> files) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) return;
+            Arrays.sort(children);
+            for (File child : children) {
+                if (child.isFile() && child.getName().endsWith(BinaryLogEncoder.SUFFIX)) files.add(child);
+            }
+        } else {
+            files.add(file);
+        }
+    }
+
+    private static final class Cursor {
+
+        final LogDecoder decoder;
+        final int index;
+        Entry entry;
+
+        Cursor(LogDecoder decoder, Entry entry, int index) {
+            this.decoder = decoder;
+            this.entry = entry;
+            this.index = index;
+        }
+    }
+}
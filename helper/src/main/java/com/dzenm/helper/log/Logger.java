@@ -6,18 +6,13 @@ import android.util.Log;
 
 import androidx.annotation.IntDef;
 
-import com.dzenm.helper.date.DateHelper;
 import com.dzenm.helper.file.FileHelper;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.Arrays;
+import java.util.IllegalFormatException;
 
 /**
  * @author dinzhenyan
@@ -29,14 +24,13 @@ public class Logger {
 
     private static final String TAG = Logger.class.getSimpleName() + "| ";
 
-    private static final String SUFFIX = ".txt";            // 日志文件后缀
-
     private static volatile Logger sInstance = null;
 
     private static String mTag = "DZY";                     // 日志TAG
     private String mLogcatPath;                             // log文件路径
-    private LogDumper mLogDumper;                           // log输出文件线程
-    private int mPID;                                       // 进程的pid
+    private static volatile LogAppender sLogAppender;      // log输出文件
+    private int mCacheLevel = VERBOSE;                      // 保存到文件的日志级别
+    private boolean isBinary;                               // 是否使用二进制格式保存日志
 
     public static final int LEBEL = 0;
     public static final int VERBOSE = 1;
@@ -56,7 +50,6 @@ public class Logger {
     static int sLevel = VERBOSE;
 
     private Logger() {
-        mPID = android.os.Process.myPid();
     }
 
     public static Logger getInstance() {
@@ -89,6 +82,16 @@ public class Logger {
         return this;
     }
 
+    /**
+     * @param binary 是否使用二进制格式保存日志文件, 文件更小, 需要使用 {@link LogDecoder} 解码查看,
+     *               在 {@link #start()} 之前设置
+     * @return this
+     */
+    public Logger setBinary(boolean binary) {
+        isBinary = binary;
+        return this;
+    }
+
     /**
      * @param tag 设置Log日志的tag
      * @return this
@@ -98,39 +101,205 @@ public class Logger {
         return this;
     }
 
+    /**
+     * 判断某个级别的日志是否会输出, 拼接参数较多或者包含基本类型(会自动装箱)的日志可以先判断再打印
+     *
+     * @param level 日志级别
+     * @return 是否会输出
+     */
+    public static boolean isLoggable(@Level int level) {
+        return sLevel <= level;
+    }
+
     public static void v(String msg) {
-        if (sLevel <= VERBOSE) {
-            Log.v(mTag, msg);
-        }
+        if (sLevel <= VERBOSE) println(VERBOSE, msg);
+    }
+
+    public static void v(String format, Object arg) {
+        if (sLevel <= VERBOSE) println(VERBOSE, format(format, arg));
+    }
+
+    public static void v(String format, Object arg1, Object arg2) {
+        if (sLevel <= VERBOSE) println(VERBOSE, format(format, arg1, arg2));
+    }
+
+    public static void v(String format, Object arg1, Object arg2, Object arg3) {
+        if (sLevel <= VERBOSE) println(VERBOSE, format(format, arg1, arg2, arg3));
+    }
+
+    public static void v(String format, Object... args) {
+        if (sLevel <= VERBOSE) println(VERBOSE, format(format, args));
+    }
+
+    public static void v(MessageSupplier supplier) {
+        if (sLevel <= VERBOSE) println(VERBOSE, supplier.get());
     }
 
     public static void d(String msg) {
-        if (sLevel <= DEBUG) {
-            Log.d(mTag, msg);
-        }
+        if (sLevel <= DEBUG) println(DEBUG, msg);
+    }
+
+    public static void d(String format, Object arg) {
+        if (sLevel <= DEBUG) println(DEBUG, format(format, arg));
+    }
+
+    public static void d(String format, Object arg1, Object arg2) {
+        if (sLevel <= DEBUG) println(DEBUG, format(format, arg1, arg2));
+    }
+
+    public static void d(String format, Object arg1, Object arg2, Object arg3) {
+        if (sLevel <= DEBUG) println(DEBUG, format(format, arg1, arg2, arg3));
+    }
+
+    public static void d(String format, Object... args) {
+        if (sLevel <= DEBUG) println(DEBUG, format(format, args));
+    }
+
+    public static void d(MessageSupplier supplier) {
+        if (sLevel <= DEBUG) println(DEBUG, supplier.get());
     }
 
     public static void i(String msg) {
-        if (sLevel <= INFO) {
-            Log.i(mTag, msg);
-        }
+        if (sLevel <= INFO) println(INFO, msg);
+    }
+
+    public static void i(String format, Object arg) {
+        if (sLevel <= INFO) println(INFO, format(format, arg));
+    }
+
+    public static void i(String format, Object arg1, Object arg2) {
+        if (sLevel <= INFO) println(INFO, format(format, arg1, arg2));
+    }
+
+    public static void i(String format, Object arg1, Object arg2, Object arg3) {
+        if (sLevel <= INFO) println(INFO, format(format, arg1, arg2, arg3));
+    }
+
+    public static void i(String format, Object... args) {
+        if (sLevel <= INFO) println(INFO, format(format, args));
+    }
+
+    public static void i(MessageSupplier supplier) {
+        if (sLevel <= INFO) println(INFO, supplier.get());
     }
 
     public static void w(String msg) {
-        if (sLevel <= WARN) {
-            Log.w(mTag, msg);
-        }
+        if (sLevel <= WARN) println(WARN, msg);
+    }
+
+    public static void w(String format, Object arg) {
+        if (sLevel <= WARN) println(WARN, format(format, arg));
+    }
+
+    public static void w(String format, Object arg1, Object arg2) {
+        if (sLevel <= WARN) println(WARN, format(format, arg1, arg2));
+    }
+
+    public static void w(String format, Object arg1, Object arg2, Object arg3) {
+        if (sLevel <= WARN) println(WARN, format(format, arg1, arg2, arg3));
+    }
+
+    public static void w(String format, Object... args) {
+        if (sLevel <= WARN) println(WARN, format(format, args));
+    }
+
+    public static void w(MessageSupplier supplier) {
+        if (sLevel <= WARN) println(WARN, supplier.get());
     }
 
     public static void e(String msg) {
-        if (sLevel <= ERROR) {
-            Log.e(mTag, msg);
-        }
+        if (sLevel <= ERROR) println(ERROR, msg);
+    }
+
+    public static void e(String format, Object arg) {
+        if (sLevel <= ERROR) println(ERROR, format(format, arg));
+    }
+
+    public static void e(String format, Object arg1, Object arg2) {
+        if (sLevel <= ERROR) println(ERROR, format(format, arg1, arg2));
+    }
+
+    public static void e(String format, Object arg1, Object arg2, Object arg3) {
+        if (sLevel <= ERROR) println(ERROR, format(format, arg1, arg2, arg3));
+    }
+
+    public static void e(String format, Object... args) {
+        if (sLevel <= ERROR) println(ERROR, format(format, args));
+    }
+
+    public static void e(MessageSupplier supplier) {
+        if (sLevel <= ERROR) println(ERROR, supplier.get());
     }
 
     public static void wtf(String msg) {
-        if (sLevel <= WTF) {
-            Log.wtf(mTag, msg);
+        if (sLevel <= WTF) println(WTF, msg);
+    }
+
+    public static void wtf(String format, Object arg) {
+        if (sLevel <= WTF) println(WTF, format(format, arg));
+    }
+
+    public static void wtf(String format, Object arg1, Object arg2) {
+        if (sLevel <= WTF) println(WTF, format(format, arg1, arg2));
+    }
+
+    public static void wtf(String format, Object arg1, Object arg2, Object arg3) {
+        if (sLevel <= WTF) println(WTF, format(format, arg1, arg2, arg3));
+    }
+
+    public static void wtf(String format, Object... args) {
+        if (sLevel <= WTF) println(WTF, format(format, args));
+    }
+
+    public static void wtf(MessageSupplier supplier) {
+        if (sLevel <= WTF) println(WTF, supplier.get());
+    }
+
+    /**
+     * 格式化日志信息, 格式与 {@link String#format(String, Object...)} 相同, 只有日志会输出时才调用
+     */
+    private static String format(String format, Object... args) {
+        try {
+            return String.format(format, args);
+        } catch (IllegalFormatException e) {
+            return format + " " + Arrays.toString(args);
+        }
+    }
+
+    /**
+     * 打印日志, 同时添加到日志文件的缓冲区
+     */
+    private static void println(int level, String msg) {
+        switch (level) {
+            case VERBOSE:
+                Log.v(mTag, msg);
+                break;
+            case DEBUG:
+                Log.d(mTag, msg);
+                break;
+            case INFO:
+                Log.i(mTag, msg);
+                break;
+            case WARN:
+                Log.w(mTag, msg);
+                break;
+            case ERROR:
+                Log.e(mTag, msg);
+                break;
+            default:
+                Log.wtf(mTag, msg);
+                break;
+        }
+        append(level, msg);
+    }
+
+    /**
+     * 添加到日志文件的缓冲区, 由写入线程批量保存, 不阻塞当前线程
+     */
+    private static void append(int level, String msg) {
+        LogAppender logAppender = sLogAppender;
+        if (logAppender != null) {
+            logAppender.append(level, mTag, msg);
         }
     }
 
@@ -150,133 +319,38 @@ public class Logger {
      * 初始化完成之后才可以开始保存日志
      */
     public void start() {
-        if (mLogDumper == null) {
-            mLogDumper = new LogDumper(String.valueOf(mPID), mLogcatPath);
-        }
-        if (!mLogDumper.isAlive()) {
-            mLogDumper.start();
+        if (sLogAppender == null) {
+            LogAppender logAppender = new LogAppender(new File(mLogcatPath)).setLevel(mCacheLevel);
+            if (isBinary) logAppender.setEncoder(new BinaryLogEncoder());
+            sLogAppender = logAppender.start();
         }
         Logger.i(TAG + "开始保存日志");
     }
 
     /**
-     * 停止输出日志
+     * 停止输出日志, 缓冲区中剩余的日志会保存到文件
      */
     public void stop() {
-        if (mLogDumper != null) {
-            mLogDumper.stopLogs();
-            mLogDumper = null;
-        }
         Logger.i(TAG + "停止输出日志");
+        LogAppender logAppender = sLogAppender;
+        if (logAppender != null) {
+            sLogAppender = null;
+            logAppender.stop();
+        }
     }
 
     /**
      * 保存打印的日志信息
      *
+     * @param level 保存到文件的最低日志级别
      * @return this
      */
-    public Logger cache(int level) {
-        mLogDumper.cache(level);
-        return this;
-    }
-
-    /**
-     * 输出日志文件的线程
-     */
-    private class LogDumper extends Thread {
-
-        private Process mLogcatProcess;
-        private BufferedReader mBufferedReader;
-        private FileOutputStream mFileOutputStream;
-
-        private boolean mRunning = true;
-
-        private String mCmds;
-        private String mPID;
-
-        LogDumper(String pid, String dir) {
-            try {
-                mPID = pid;
-                mFileOutputStream = new FileOutputStream(
-                        new File(dir, DateHelper.getCurrentTimeMillis() + SUFFIX));
-                cache(sLevel);
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            }
-        }
-
-        private void cache(int level) {
-            if (level == LEBEL) {
-                Logger.i(TAG + "打印只带tag的日志信息");
-                mCmds = "logcat -s " + mTag;
-            } else if (level == VERBOSE) {
-                mCmds = "logcat *:e *:v |grep\"(" + mPID + ")\"";
-            } else if (level == DEBUG) {
-                mCmds = "logcat *:e *:d |grep\"(" + mPID + ")\"";
-            } else if (level == INFO) {
-                mCmds = "logcat *:e *:i |grep\"(" + mPID + ")\"";
-            } else if (level == WARN) {
-                mCmds = "logcat *:e *:w |grep\"(" + mPID + ")\"";
-            } else if (level == ERROR) {
-                mCmds = "logcat *:e |grep\"(" + mPID + ")\"";
-            } else {
-                Logger.i(TAG + "打印所有的日志信息");
-                mCmds = "logcat |grep\"(" + mPID + ")\"";
-            }
-        }
-
-        private void stopLogs() {
-            mRunning = false;
-        }
-
-        @Override
-        public void run() {
-            super.run();
-            try {
-                mLogcatProcess = Runtime.getRuntime().exec(mCmds);
-                mBufferedReader = new BufferedReader(new InputStreamReader(
-                        mLogcatProcess.getInputStream()), 1024);
-                String line;
-                while (mRunning && (line = mBufferedReader.readLine()) != null) {
-                    if (!mRunning) {
-                        break;
-                    }
-                    if (line.length() == 0) {
-                        continue;
-                    }
-                    if (mFileOutputStream != null && line.contains(mPID)) {
-                        String textLine = "| " + DateHelper.getCurrentTimeMillis() + " | " + line + "\n";
-                        mFileOutputStream.write(textLine.getBytes());
-                    }
-                }
-                mBufferedReader.close();
-                mFileOutputStream.close();
-                mLogcatProcess.destroy();
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                if (mLogcatProcess != null) {
-                    mLogcatProcess.destroy();
-                    mLogcatProcess = null;
-                }
-                if (mBufferedReader != null) {
-                    try {
-                        mBufferedReader.close();
-                        mBufferedReader = null;
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-                if (mFileOutputStream != null) {
-                    try {
-                        mFileOutputStream.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    mFileOutputStream = null;
-                }
-            }
+    public Logger cache(@Level int level) {
+        mCacheLevel = level;
+        if (sLogAppender != null) {
+            sLogAppender.setLevel(level);
         }
+        return this;
     }
 
     /**
@@ -321,4 +395,12 @@ public class Logger {
         }
         return "Couldn't find a correct type for the object";
     }
-}
\ No newline at end of file
+
+    /**
+     * 延迟生成日志信息, 只有日志会输出时才调用 {@link #get()}
+     */
+    public interface MessageSupplier {
+
+        String get();
+    }
+}
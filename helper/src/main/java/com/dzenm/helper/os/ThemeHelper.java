@@ -24,7 +24,7 @@ public class ThemeHelper {
     }
 
     public static int getTheme() {
-        return (int) SPHelper.getInstance().get(THEME_PREF, THEME_TYPE, R.style.AppTheme_Light);
+        return SPHelper.getInstance().getInt(THEME_PREF, THEME_TYPE, R.style.AppTheme_Light);
     }
 
     public static @ColorInt
@@ -0,0 +1,208 @@
+package com.dzenm.helper.photo;
+
+import android.graphics.Bitmap;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * @author dzenm
+ * @date 2020-03-19 10:30
+ * <pre>
+ * String key = BitmapCache.key(file, width, height, Bitmap.Config.ARGB_8888);
+ * Bitmap bitmap = BitmapCache.getInstance().get(key);
+ * if (bitmap == null) {
+ *     bitmap = BitmapDecoder.decodeFile(file.getPath(), width, height);
+ *     BitmapCache.getInstance().put(key, bitmap);
+ * }
+ * </pre>
+ * 两级的内存缓存, 按图片的来源、目标大小和Config缓存解码后的Bitmap:
+ * <p>
+ * 1. 使用中: 通过 {@link #acquire(String)} 或者 {@link #putAcquired(String, Bitmap)} 取得的Bitmap,
+ * 按引用计数记录, 从最近使用中移除时不会被复用, {@link #release(Bitmap)} 减少到0之后才放入 {@link BitmapPool}
+ * <p>
+ * 2. 最近使用: 按 {@link Bitmap#getAllocationByteCount()} 限制总大小的LRU, 超过时移除最久没有使用的Bitmap.
+ * 没有在使用中并且只通过引用计数使用过的Bitmap放入 {@link BitmapPool} 复用, 通过 {@link #get(String)}
+ * 和 {@link #put(String, Bitmap)} 交给调用者的Bitmap不知道什么时候不再使用, 只移除不复用
+ */
+public class BitmapCache {
+
+    private static volatile BitmapCache sInstance;
+
+    /**
+     * 按访问顺序排列, 第一个是最久没有使用的Bitmap
+     */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final IdentityHashMap<Bitmap, Entry> mActive = new IdentityHashMap<>();
+    private long mMaxSize;
+    private long mSize;
+
+    private BitmapCache() {
+        mMaxSize = Runtime.getRuntime().maxMemory() / 8;
+    }
+
+    public static BitmapCache getInstance() {
+        if (sInstance == null) synchronized (BitmapCache.class) {
+            if (sInstance == null) sInstance = new BitmapCache();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param source 图片的来源, 文件需要包含修改时间
+     * @param width  目标宽度, 原图为0
+     * @param height 目标高度, 原图为0
+     * @param config 解码的Config
+     * @return 缓存的key
+     */
+    public static String key(Object source, int width, int height, Bitmap.Config config) {
+        return source + "@" + width + "x" + height + "-" + config;
+    }
+
+    /**
+     * @param maxSize 最近使用的Bitmap的最大总大小, 单位字节
+     * @return this
+     */
+    public synchronized BitmapCache setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(mMaxSize);
+        return this;
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * 取得共享的Bitmap, 调用者不能修改或者回收
+     *
+     * @return 没有缓存或者已经被回收时返回null
+     */
+    public synchronized Bitmap get(String key) {
+        Entry entry = getEntry(key);
+        if (entry == null) return null;
+        entry.isPoolable = false;
+        return entry.bitmap;
+    }
+
+    /**
+     * 缓存交给调用者的Bitmap, 移除时不复用
+     */
+    public synchronized void put(String key, Bitmap bitmap) {
+        add(key, bitmap, false);
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * 取得Bitmap并增加引用计数, 不再显示之后调用 {@link #release(Bitmap)}
+     *
+     * @return 没有缓存时返回null
+     */
+    public synchronized Bitmap acquire(String key) {
+        Entry entry = getEntry(key);
+        if (entry == null) return null;
+        retain(entry);
+        return entry.bitmap;
+    }
+
+    /**
+     * 缓存新解码的Bitmap, 引用计数为1, 不再使用之后调用 {@link #release(Bitmap)}
+     */
+    public synchronized void putAcquired(String key, Bitmap bitmap) {
+        retain(add(key, bitmap, true));
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * 增加使用中的Bitmap的引用计数
+     *
+     * @return 是否是使用中的Bitmap
+     */
+    public synchronized boolean retain(Bitmap bitmap) {
+        Entry entry = mActive.get(bitmap);
+        if (entry == null) return false;
+        entry.refCount++;
+        return true;
+    }
+
+    /**
+     * 减少引用计数, 减少到0并且已经从最近使用中移除时放入 {@link BitmapPool}
+     */
+    public synchronized void release(Bitmap bitmap) {
+        Entry entry = mActive.get(bitmap);
+        if (entry == null || --entry.refCount > 0) return;
+        mActive.remove(bitmap);
+        if (!entry.isCached) recycle(entry);
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * 移除最久没有使用的Bitmap, 直到总大小不超过maxSize
+     */
+    public synchronized void trimToSize(long maxSize) {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            evict(entry);
+        }
+    }
+
+    private Entry getEntry(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) return null;
+        if (entry.bitmap.isRecycled()) {
+            mEntries.remove(key);
+            mSize -= entry.size;
+            entry.isCached = false;
+            return null;
+        }
+        return entry;
+    }
+
+    private Entry add(String key, Bitmap bitmap, boolean poolable) {
+        Entry current = mEntries.get(key);
+        if (current != null && current.bitmap == bitmap) {
+            current.isPoolable &= poolable;
+            return current;
+        }
+        Entry entry = new Entry(bitmap, poolable);
+        Entry previous = mEntries.put(key, entry);
+        if (previous != null) evict(previous);
+        mSize += entry.size;
+        return entry;
+    }
+
+    private void retain(Entry entry) {
+        if (entry.refCount++ == 0) mActive.put(entry.bitmap, entry);
+    }
+
+    private void evict(Entry entry) {
+        mSize -= entry.size;
+        entry.isCached = false;
+        if (entry.refCount == 0) recycle(entry);
+    }
+
+    private void recycle(Entry entry) {
+        if (entry.isPoolable) BitmapPool.getInstance().put(entry.bitmap);
+    }
+
+    private static final class Entry {
+
+        private final Bitmap bitmap;
+        private final int size;
+        private boolean isPoolable;
+        private boolean isCached = true;
+        private int refCount;
+
+        Entry(Bitmap bitmap, boolean poolable) {
+            this.bitmap = bitmap;
+            this.size = bitmap.getAllocationByteCount();
+            isPoolable = poolable;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.dzenm.helper.photo;
+
+import android.content.ContentResolver;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import com.dzenm.helper.os.OsHelper;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @author dzenm
+ * @date 2020-03-19 11:20
+ * <p>
+ * 按目标大小采样解码图片, 先只解码宽高计算采样率, 解码时从 {@link BitmapPool} 中复用Bitmap.
+ * 复用失败时不使用复用的Bitmap重新解码
+ * <p>
+ * 2的幂次的采样率只能缩小到目标大小的1~2倍, 剩下的部分通过 {@link BitmapFactory.Options#inDensity} 和
+ * {@link BitmapFactory.Options#inTargetDensity} 在解码时缩放, 较短的一边正好等于目标大小,
+ * 不需要先解码一张更大的Bitmap再缩放
+ */
+public final class BitmapDecoder {
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * @param path   图片的路径
+     * @param width  目标宽度, 为0时解码原图
+     * @param height 目标高度, 为0时解码原图
+     * @return 解码后的图片, 宽高都不小于目标大小, 失败时返回null
+     */
+    public static Bitmap decodeFile(String path, int width, int height) {
+        return decodeFile(path, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * @param config 解码的Config, RGB_565 只用于没有透明度的JPEG图片, 其它图片使用 ARGB_8888.
+     *               HARDWARE 只能在Android 8.0以上使用, 不可修改也不复用
+     * @see #decodeFile(String, int, int)
+     */
+    public static Bitmap decodeFile(final String path, int width, int height, Bitmap.Config config) {
+        try {
+            return decode(new Source() {
+                @Override
+                public Bitmap decode(BitmapFactory.Options options) {
+                    return BitmapFactory.decodeFile(path, options);
+                }
+            }, width, height, config, true);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * @see #decodeFile(String, int, int)
+     */
+    public static Bitmap decodeUri(ContentResolver resolver, Uri uri, int width, int height)
+            throws IOException {
+        return decodeUri(resolver, uri, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * @see #decodeFile(String, int, int, Bitmap.Config)
+     */
+    public static Bitmap decodeUri(final ContentResolver resolver, final Uri uri, int width, int height,
+                                   Bitmap.Config config) throws IOException {
+        return decode(new Source() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) throws IOException {
+                try (InputStream is = new BufferedInputStream(resolver.openInputStream(uri))) {
+                    return BitmapFactory.decodeStream(is, null, options);
+                }
+            }
+        }, width, height, config, true);
+    }
+
+    /**
+     * 资源图片会按屏幕密度缩放, 解码后的大小不确定, 不复用Bitmap, 也不按目标大小缩放
+     *
+     * @see #decodeFile(String, int, int)
+     */
+    public static Bitmap decodeResource(final Resources resources, final int id, int width, int height) {
+        try {
+            return decode(new Source() {
+                @Override
+                public Bitmap decode(BitmapFactory.Options options) {
+                    return BitmapFactory.decodeResource(resources, id, options);
+                }
+            }, width, height, Bitmap.Config.ARGB_8888, false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 只解码图片的一部分, 用于裁剪, 不会解码整张图片. 区域解码不支持缩放, 只按2的幂次采样
+     *
+     * @param path   图片的路径
+     * @param region 解码的区域, 超出图片的部分会被忽略
+     * @param width  目标宽度, 为0时不采样
+     * @param height 目标高度, 为0时不采样
+     * @param config 解码的Config, 同 {@link #decodeFile(String, int, int, Bitmap.Config)}
+     * @return 解码后的图片, 宽高都不小于目标大小, 失败时返回null
+     */
+    public static Bitmap decodeRegion(String path, Rect region, int width, int height, Bitmap.Config config) {
+        BitmapRegionDecoder decoder = null;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(path, false);
+            Rect rect = new Rect(region);
+            if (!rect.intersect(0, 0, decoder.getWidth(), decoder.getHeight())) return null;
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(path, options);
+            options.inJustDecodeBounds = false;
+            options.inPreferredConfig = resolveConfig(config, options.outMimeType);
+            options.inSampleSize = calculateInSampleSize(rect.width(), rect.height(), width, height);
+            boolean reuse = isReusable(options.inPreferredConfig);
+            if (reuse) {
+                BitmapPool.getInstance().setInBitmap(options,
+                        divideCeil(rect.width(), options.inSampleSize),
+                        divideCeil(rect.height(), options.inSampleSize));
+            }
+            Bitmap bitmap = null;
+            try {
+                bitmap = decoder.decodeRegion(rect, options);
+            } catch (IllegalArgumentException e) {
+                // 复用的Bitmap不能用于这张图片
+            }
+            if (bitmap == null && options.inBitmap != null) {
+                BitmapPool.getInstance().put(options.inBitmap);
+                options.inBitmap = null;
+                bitmap = decoder.decodeRegion(rect, options);
+            }
+            return bitmap;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (decoder != null) decoder.recycle();
+        }
+        return null;
+    }
+
+    /**
+     * 计算采样率, 采样后的宽高都不小于目标大小
+     */
+    public static int calculateInSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int inSampleSize = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) return inSampleSize;
+        while (width / (inSampleSize * 2) >= targetWidth && height / (inSampleSize * 2) >= targetHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static Bitmap decode(Source source, int width, int height, Bitmap.Config config, boolean scale)
+            throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        source.decode(options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        int inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = inSampleSize;
+        options.inPreferredConfig = resolveConfig(config, options.outMimeType);
+        // 不同格式的采样有的向上取整, 有的向下取整, 按向上取整计算
+        int outWidth = divideCeil(options.outWidth, inSampleSize);
+        int outHeight = divideCeil(options.outHeight, inSampleSize);
+        if (scale && width > 0 && height > 0 && outWidth > width && outHeight > height) {
+            // 按缩放比例较小的一边缩放, 保证另一边也不小于目标大小
+            if ((long) width * outHeight >= (long) height * outWidth) {
+                options.inDensity = outWidth;
+                options.inTargetDensity = width;
+                outHeight = (int) ((long) outHeight * width / outWidth + 1);
+                outWidth = width;
+            } else {
+                options.inDensity = outHeight;
+                options.inTargetDensity = height;
+                outWidth = (int) ((long) outWidth * height / outHeight + 1);
+                outHeight = height;
+            }
+            options.inScaled = true;
+        }
+        if (scale && isReusable(options.inPreferredConfig)) {
+            BitmapPool.getInstance().setInBitmap(options, outWidth, outHeight);
+        }
+        Bitmap inBitmap = options.inBitmap;
+        Bitmap bitmap = null;
+        try {
+            bitmap = source.decode(options);
+        } catch (IllegalArgumentException e) {
+            // 复用的Bitmap不能用于这张图片
+        }
+        if (bitmap == null && inBitmap != null) {
+            BitmapPool.getInstance().put(inBitmap);
+            options.inBitmap = null;
+            bitmap = source.decode(options);
+        }
+        if (bitmap != null && options.inTargetDensity != 0 && options.inScaled) {
+            // 解码后Bitmap的密度是inTargetDensity, 恢复为屏幕密度, 避免显示时再次缩放
+            bitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+        }
+        return bitmap;
+    }
+
+    /**
+     * JPEG没有透明度, 可以使用 RGB_565, 其它格式可能有透明度, 使用 ARGB_8888
+     */
+    private static Bitmap.Config resolveConfig(Bitmap.Config config, String mimeType) {
+        if (config == null) return Bitmap.Config.ARGB_8888;
+        if (config == Bitmap.Config.RGB_565 && !"image/jpeg".equals(mimeType)) {
+            return Bitmap.Config.ARGB_8888;
+        }
+        return config;
+    }
+
+    /**
+     * HARDWARE 的Bitmap不可修改, 不能作为 inBitmap
+     */
+    private static boolean isReusable(Bitmap.Config config) {
+        return !OsHelper.isOreo() || config != Bitmap.Config.HARDWARE;
+    }
+
+    private static int divideCeil(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    private interface Source {
+
+        Bitmap decode(BitmapFactory.Options options) throws IOException;
+    }
+}
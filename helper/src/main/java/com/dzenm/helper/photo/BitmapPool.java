@@ -0,0 +1,171 @@
+package com.dzenm.helper.photo;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author dzenm
+ * @date 2020-03-19 09:40
+ * <p>
+ * 可以复用的Bitmap, 按Config和占用的字节数分组. 解码时通过 {@link BitmapFactory.Options#inBitmap}
+ * 复用不小于所需大小的Bitmap, 不需要重新分配内存. 放入的Bitmap不能再被其它地方使用,
+ * 总大小超过限制时回收最早放入的Bitmap. 只复用 ARGB_8888 和 RGB_565 的Bitmap
+ */
+public class BitmapPool {
+
+    /**
+     * 复用的Bitmap最多是所需大小的倍数, 避免小图占用大图的内存
+     */
+    private static final int MAX_OVERSIZE_MULTIPLE = 4;
+
+    private static volatile BitmapPool sInstance;
+
+    private final HashMap<Bitmap.Config, TreeMap<Integer, ArrayDeque<Bitmap>>> mGroups = new HashMap<>();
+
+    /**
+     * 按放入的顺序排列, 第一个是最早放入的Bitmap
+     */
+    private final LinkedHashMap<Bitmap, Boolean> mBitmaps = new LinkedHashMap<>();
+    private long mMaxSize;
+    private long mSize;
+    private int mHitCount;
+    private int mMissCount;
+
+    private BitmapPool() {
+        mMaxSize = Runtime.getRuntime().maxMemory() / 16;
+    }
+
+    public static BitmapPool getInstance() {
+        if (sInstance == null) synchronized (BitmapPool.class) {
+            if (sInstance == null) sInstance = new BitmapPool();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param maxSize 最大的总大小, 单位字节
+     * @return this
+     */
+    public synchronized BitmapPool setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(mMaxSize);
+        return this;
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * 放入不再使用的Bitmap, 不能复用的Bitmap直接回收
+     *
+     * @param bitmap 不再使用的Bitmap
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || mBitmaps.containsKey(bitmap)) return;
+        int size = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || !isReusable(bitmap.getConfig()) || size > mMaxSize / 2) {
+            bitmap.recycle();
+            return;
+        }
+        TreeMap<Integer, ArrayDeque<Bitmap>> group = mGroups.get(bitmap.getConfig());
+        if (group == null) {
+            group = new TreeMap<>();
+            mGroups.put(bitmap.getConfig(), group);
+        }
+        ArrayDeque<Bitmap> bitmaps = group.get(size);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            group.put(size, bitmaps);
+        }
+        bitmaps.add(bitmap);
+        mBitmaps.put(bitmap, Boolean.TRUE);
+        mSize += size;
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * 取出一个可以容纳指定大小的Bitmap, 并修改为指定的宽高, 像素内容是不确定的
+     *
+     * @return 没有合适的Bitmap时返回null
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        if (width <= 0 || height <= 0 || !isReusable(config)) return null;
+        TreeMap<Integer, ArrayDeque<Bitmap>> group = mGroups.get(config);
+        int size = width * height * (config == Bitmap.Config.RGB_565 ? 2 : 4);
+        Integer key = group == null ? null : group.ceilingKey(size);
+        if (key == null || key > size * MAX_OVERSIZE_MULTIPLE) {
+            mMissCount++;
+            return null;
+        }
+        Bitmap bitmap = remove(group, key);
+        mHitCount++;
+        bitmap.reconfigure(width, height, config);
+        return bitmap;
+    }
+
+    /**
+     * 设置解码时复用的Bitmap
+     *
+     * @param options 解码的参数, 使用其中的 inPreferredConfig
+     * @param width   解码后的宽度
+     * @param height  解码后的高度
+     */
+    public void setInBitmap(BitmapFactory.Options options, int width, int height) {
+        Bitmap.Config config = options.inPreferredConfig == null
+                ? Bitmap.Config.ARGB_8888 : options.inPreferredConfig;
+        options.inMutable = true;
+        options.inBitmap = get(width, height, config);
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * 回收最早放入的Bitmap, 直到总大小不超过maxSize
+     */
+    public synchronized void trimToSize(long maxSize) {
+        Iterator<Bitmap> iterator = mBitmaps.keySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            iterator.remove();
+            int size = bitmap.getAllocationByteCount();
+            TreeMap<Integer, ArrayDeque<Bitmap>> group = mGroups.get(bitmap.getConfig());
+            ArrayDeque<Bitmap> bitmaps = group.get(size);
+            bitmaps.remove(bitmap);
+            if (bitmaps.isEmpty()) group.remove(size);
+            mSize -= size;
+            bitmap.recycle();
+        }
+    }
+
+    private Bitmap remove(TreeMap<Integer, ArrayDeque<Bitmap>> group, int size) {
+        ArrayDeque<Bitmap> bitmaps = group.get(size);
+        Bitmap bitmap = bitmaps.poll();
+        if (bitmaps.isEmpty()) group.remove(size);
+        mBitmaps.remove(bitmap);
+        mSize -= size;
+        return bitmap;
+    }
+
+    private static boolean isReusable(Bitmap.Config config) {
+        return config == Bitmap.Config.ARGB_8888 || config == Bitmap.Config.RGB_565;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int count = 0;
+        for (Map.Entry<Bitmap.Config, TreeMap<Integer, ArrayDeque<Bitmap>>> entry : mGroups.entrySet()) {
+            for (ArrayDeque<Bitmap> bitmaps : entry.getValue().values()) count += bitmaps.size();
+        }
+        return "BitmapPool{count: " + count + ", size: " + mSize + ", hit: " + mHitCount + ", miss: " + mMissCount + "}";
+    }
+}
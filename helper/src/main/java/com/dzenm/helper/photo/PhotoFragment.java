@@ -14,6 +14,7 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.fragment.app.Fragment;
 
+import com.dzenm.helper.file.AsyncFileHelper;
 import com.dzenm.helper.file.FileHelper;
 import com.dzenm.helper.file.FileType;
 import com.dzenm.helper.log.Logger;
@@ -43,6 +44,9 @@ public class PhotoFragment extends Fragment {
     // 嵌套在Fragment里使用的时候, 被嵌套的Fragment应该在当前Fragment结束之后在关闭
     private PhotoSelector.OnFinishListener mOnFinishListener;
 
+    private PhotoProcessor mPhotoProcessor;
+    private AsyncFileHelper.OnResultListener<File> mOnProcessListener;
+
     void with(PhotoSelector selector) {
         mPhotoSelector = selector;
     }
@@ -77,6 +81,11 @@ public class PhotoFragment extends Fragment {
         mOnFinishListener = onFinishListener;
     }
 
+    void setPhotoProcessor(PhotoProcessor processor, AsyncFileHelper.OnResultListener<File> listener) {
+        mPhotoProcessor = processor;
+        mOnProcessListener = listener;
+    }
+
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -103,6 +112,7 @@ public class PhotoFragment extends Fragment {
             if (mOnSelectPhotoListener.onGraph(mPhotoSelector, mGraphFilePath)) {
                 crop(mGraphUri);
             } else {
+                process(mGraphFilePath, null);
                 mOnFinishListener.onFinish(PhotoType.GRAPH);
             }
         } else if (requestCode == PhotoType.GALLERY && resultCode == Activity.RESULT_OK) {
@@ -114,6 +124,7 @@ public class PhotoFragment extends Fragment {
                     // 直接使用uri，在小米机型上出现打开直接崩溃
                     crop(FileHelper.getInstance().getUri(new File(path)));
                 } else {
+                    process(path, null);
                     mOnFinishListener.onFinish(PhotoType.GALLERY);
                 }
             } else {
@@ -123,20 +134,47 @@ public class PhotoFragment extends Fragment {
         } else if (requestCode == PhotoType.CROP && resultCode == Activity.RESULT_OK) {
             mActivity.sendBroadcast(new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE, mCropUri));
 
-            File file = new File(getRealFilePath(mCropUri));
+            final File file = new File(getRealFilePath(mCropUri));
             Logger.d(TAG + "裁剪后的图片路径: " + file.getAbsolutePath());
 
             if (mOnSelectPhotoListener.onCrop(mPhotoSelector, file.getAbsolutePath())) {
-                // 删除文件
-                Logger.d(TAG + "删除裁剪图片的文件路径: " + file.getPath());
-                FileHelper.getInstance().delete(file.getParent());
+                // 处理完成之后再删除文件
+                process(file.getAbsolutePath(), new Runnable() {
+                    @Override
+                    public void run() {
+                        Logger.d(TAG + "删除裁剪图片的文件路径: " + file.getPath());
+                        AsyncFileHelper.getInstance().delete(file.getParentFile(), null);
+                    }
+                });
                 mOnFinishListener.onFinish(PhotoType.CROP);
             } else {
+                process(file.getAbsolutePath(), null);
                 mOnFinishListener.onFinish(PhotoType.CROP);
             }
         }
     }
 
+    /**
+     * 设置了 {@link PhotoProcessor} 时在后台线程中处理最终的图片
+     *
+     * @param path  最终的图片路径
+     * @param after 处理完成之后在主线程中执行, 没有设置 {@link PhotoProcessor} 时直接执行, 可以为null
+     */
+    private void process(String path, final Runnable after) {
+        if (mPhotoProcessor == null) {
+            if (after != null) after.run();
+            return;
+        }
+        final AsyncFileHelper.OnResultListener<File> listener = mOnProcessListener;
+        mPhotoProcessor.process(path, new AsyncFileHelper.OnResultListener<File>() {
+            @Override
+            public void onResult(File result) {
+                if (listener != null) listener.onResult(result);
+                if (after != null) after.run();
+            }
+        });
+    }
+
     /**
      * 打开相机拍照
      */
@@ -0,0 +1,270 @@
+package com.dzenm.helper.photo;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+
+import com.dzenm.helper.file.AsyncFileHelper;
+import com.dzenm.helper.file.FileHelper;
+import com.dzenm.helper.log.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * @author dzenm
+ * @date 2020-03-21 16:40
+ * <pre>
+ * new PhotoProcessor()
+ *         .ratio(1, 1)
+ *         .size(800, 800)
+ *         .format(Bitmap.CompressFormat.WEBP, 80)
+ *         .process(filePath, new AsyncFileHelper.OnResultListener<File>() {
+ *             public void onResult(File file) {
+ *                 DefaultImageLoader.getInstance().load(imageView, file);
+ *             }
+ *         });
+ * </pre>
+ * 拍照或者裁剪之后的图片处理, 在 {@link AsyncFileHelper} 的线程池中执行, 结果在主线程中回调:
+ * <p>
+ * 1. 按EXIF的方向旋转或者翻转, 保存的图片不再包含EXIF, 在任何地方都按正确的方向显示
+ * <p>
+ * 2. 按比例从中间裁剪, 只解码裁剪的区域
+ * <p>
+ * 3. 缩小到不超过指定的大小, 解码时采样并缩放, 不会解码原图
+ * <p>
+ * 4. 按指定的格式和质量压缩, 通过 {@link FileHelper#savePhoto(Bitmap, File, Bitmap.CompressFormat, int)} 写入,
+ * 使用 {@link FileHelper#setWriteMode(int)} 设置的写入方式
+ * <p>
+ * 处理的结果保存为新的文件, 不会修改原图
+ */
+public class PhotoProcessor {
+
+    private static final String TAG = PhotoProcessor.class.getSimpleName() + "| ";
+
+    private int mAspectX, mAspectY;
+    private int mMaxWidth, mMaxHeight;
+    private Bitmap.CompressFormat mFormat = Bitmap.CompressFormat.JPEG;
+    private int mQuality = 90;
+    private File mOutputFolder;
+
+    /**
+     * 按比例从中间裁剪, 不设置时保持原图的比例
+     *
+     * @param x 裁剪图片的宽度比例
+     * @param y 裁剪图片的高度比例
+     * @return this
+     */
+    public PhotoProcessor ratio(int x, int y) {
+        mAspectX = x;
+        mAspectY = y;
+        return this;
+    }
+
+    /**
+     * 保持比例缩小到不超过指定的宽高, 不会放大, 不设置时保持原图的大小
+     *
+     * @param width  输出图片的最大宽度
+     * @param height 输出图片的最大高度
+     * @return this
+     */
+    public PhotoProcessor size(int width, int height) {
+        mMaxWidth = width;
+        mMaxHeight = height;
+        return this;
+    }
+
+    /**
+     * @param format  压缩的格式, 默认为JPEG. WEBP在相同的质量下文件更小, 但有透明度的图片压缩较慢
+     * @param quality 压缩的质量, 0~100, 默认为90, PNG会忽略这个参数
+     * @return this
+     */
+    public PhotoProcessor format(Bitmap.CompressFormat format, int quality) {
+        mFormat = format;
+        mQuality = quality;
+        return this;
+    }
+
+    /**
+     * @param folder 保存处理结果的文件夹, 默认为App文件夹下的/processed, 没有设置App文件夹时为原图所在的文件夹
+     * @return this
+     */
+    public PhotoProcessor setOutputFolder(File folder) {
+        mOutputFolder = folder;
+        return this;
+    }
+
+    /**
+     * 在后台线程中处理图片
+     *
+     * @param path     原图的路径
+     * @param listener 在主线程中回调处理后的文件, 处理失败时为null
+     * @return 可以取消的Future, 取消后不再回调
+     */
+    public Future<File> process(final String path, AsyncFileHelper.OnResultListener<File> listener) {
+        final File target = createOutputFile(new File(path));
+        return AsyncFileHelper.getInstance().submit(target, new Callable<File>() {
+            @Override
+            public File call() {
+                return process(new File(path), target) ? target : null;
+            }
+        }, listener);
+    }
+
+    /**
+     * 在当前线程中处理图片, 不要在主线程中调用
+     *
+     * @param source 原图
+     * @param target 保存处理结果的文件
+     * @return 是否处理成功
+     */
+    public boolean process(File source, File target) {
+        String path = source.getPath();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Logger.e(TAG + "decode bounds failed: " + path);
+            return false;
+        }
+
+        // 原图坐标转换为按EXIF方向旋转之后的坐标
+        Matrix orientation = getOrientationMatrix(getOrientation(path));
+        Matrix matrix = new Matrix(orientation);
+        RectF rect = new RectF(0, 0, options.outWidth, options.outHeight);
+        matrix.mapRect(rect);
+        matrix.postTranslate(-rect.left, -rect.top);
+        int width = Math.round(rect.width()), height = Math.round(rect.height());
+
+        // 在旋转之后的图片中按比例从中间裁剪, 再按最大宽高缩小
+        Rect crop = getCropRect(width, height);
+        float scale = 1f;
+        if (mMaxWidth > 0 && mMaxHeight > 0) {
+            scale = Math.min(1f, Math.min((float) mMaxWidth / crop.width(), (float) mMaxHeight / crop.height()));
+        }
+        int outWidth = Math.max(1, Math.round(crop.width() * scale));
+        int outHeight = Math.max(1, Math.round(crop.height() * scale));
+
+        // 裁剪的区域转换为原图的坐标, 只解码这一部分
+        Matrix inverse = new Matrix();
+        matrix.invert(inverse);
+        RectF region = new RectF(crop);
+        inverse.mapRect(region);
+        Rect decodeRect = new Rect();
+        region.round(decodeRect);
+        int decodeWidth = Math.max(1, Math.round(decodeRect.width() * scale));
+        int decodeHeight = Math.max(1, Math.round(decodeRect.height() * scale));
+
+        Bitmap decoded = decodeRect.width() == options.outWidth && decodeRect.height() == options.outHeight
+                ? BitmapDecoder.decodeFile(path, decodeWidth, decodeHeight)
+                : BitmapDecoder.decodeRegion(path, decodeRect, decodeWidth, decodeHeight, Bitmap.Config.ARGB_8888);
+        if (decoded == null) {
+            Logger.e(TAG + "decode failed: " + path);
+            return false;
+        }
+
+        // 解码的图片可能比需要的大, 旋转的同时缩放到输出的大小
+        Bitmap bitmap = transform(decoded, orientation, outWidth, outHeight);
+        try {
+            boolean succeed = FileHelper.getInstance().savePhoto(bitmap, target, mFormat, mQuality);
+            if (succeed) {
+                Logger.d(TAG + "processed: " + path + " -> " + target + " " + outWidth + "x" + outHeight);
+            }
+            return succeed;
+        } finally {
+            if (bitmap != decoded) BitmapPool.getInstance().put(bitmap);
+            BitmapPool.getInstance().put(decoded);
+        }
+    }
+
+    /**
+     * @return 旋转之后的图片中需要保留的区域
+     */
+    private Rect getCropRect(int width, int height) {
+        Rect crop = new Rect(0, 0, width, height);
+        if (mAspectX <= 0 || mAspectY <= 0) return crop;
+        if ((long) width * mAspectY > (long) height * mAspectX) {
+            int cropWidth = Math.max(1, (int) ((long) height * mAspectX / mAspectY));
+            crop.left = (width - cropWidth) / 2;
+            crop.right = crop.left + cropWidth;
+        } else {
+            int cropHeight = Math.max(1, (int) ((long) width * mAspectY / mAspectX));
+            crop.top = (height - cropHeight) / 2;
+            crop.bottom = crop.top + cropHeight;
+        }
+        return crop;
+    }
+
+    /**
+     * 按EXIF的方向旋转并缩放到指定的大小, 不需要旋转和缩放时返回原来的Bitmap
+     */
+    private Bitmap transform(Bitmap bitmap, Matrix orientation, int width, int height) {
+        RectF rect = new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        Matrix matrix = new Matrix(orientation);
+        matrix.mapRect(rect);
+        matrix.postScale(width / rect.width(), height / rect.height());
+        if (matrix.isIdentity()) return bitmap;
+        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+    }
+
+    /**
+     * @return 原图坐标转换为按EXIF方向显示的坐标的Matrix, 不包含平移
+     */
+    private Matrix getOrientationMatrix(int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setRotate(180);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+        }
+        return matrix;
+    }
+
+    private int getOrientation(String path) {
+        try {
+            return new ExifInterface(path).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return ExifInterface.ORIENTATION_NORMAL;
+    }
+
+    private File createOutputFile(File source) {
+        File folder = mOutputFolder == null ? FileHelper.getInstance().getFile("/processed") : mOutputFolder;
+        if (folder == null) folder = source.getParentFile();
+        if (!folder.exists()) folder.mkdirs();
+        String name = source.getName();
+        int index = name.lastIndexOf('.');
+        if (index > 0) name = name.substring(0, index);
+        String extension = mFormat == Bitmap.CompressFormat.PNG ? ".png"
+                : mFormat == Bitmap.CompressFormat.WEBP ? ".webp" : ".jpeg";
+        return new File(folder, name + "_" + System.currentTimeMillis() + extension);
+    }
+}
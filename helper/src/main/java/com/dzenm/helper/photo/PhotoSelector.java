@@ -5,6 +5,7 @@ import android.app.Activity;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Rect;
 import android.net.Uri;
 import android.provider.MediaStore;
 
@@ -12,11 +13,11 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentManager;
 
+import com.dzenm.helper.file.AsyncFileHelper;
 import com.dzenm.helper.file.FileHelper;
 import com.dzenm.helper.log.Logger;
 
 import java.io.File;
-import java.lang.ref.WeakReference;
 
 /**
  * @author dinzhenyan
@@ -110,6 +111,18 @@ public class PhotoSelector {
         return this;
     }
 
+    /**
+     * 拍照、选择图片或者裁剪完成之后, 在后台线程中旋转、缩放和压缩最终的图片, 见 {@link PhotoProcessor}
+     *
+     * @param processor 图片处理的参数, 为null时不处理
+     * @param listener  在主线程中回调处理后的文件, 处理失败时为null
+     * @return this
+     */
+    public PhotoSelector setPhotoProcessor(PhotoProcessor processor, AsyncFileHelper.OnResultListener<File> listener) {
+        mFragment.setPhotoProcessor(processor, listener);
+        return this;
+    }
+
     public void camera() {
         mFragment.camera();
     }
@@ -155,32 +168,59 @@ public class PhotoSelector {
     }
 
     /**
-     * 按比例获取bitmap
+     * 按比例获取bitmap, 相同的图片和大小还在 {@link BitmapCache} 中时直接返回
      *
      * @param path 图片的路径
      * @param w    需要获取的比例宽
      * @param h    需要获取的比例长
-     * @return Bitmap
+     * @return Bitmap, 可能和其它调用者共用, 不要修改或者回收
      */
     public Bitmap convertToBitmap(String path, int w, int h) {
-        BitmapFactory.Options opts = new BitmapFactory.Options();
-        // 设置为 true 仅仅获取图片大小
-        opts.inJustDecodeBounds = true;
-        opts.inPreferredConfig = Bitmap.Config.ARGB_8888;
-        BitmapFactory.decodeFile(path, opts);
-        int width = opts.outWidth;
-        int height = opts.outHeight;
-        float scaleWidth = 0.f, scaleHeight = 0.f;
-        if (width > w || height > h) {
-            // 缩放
-            scaleWidth = ((float) width) / w;
-            scaleHeight = ((float) height) / h;
-        }
-        opts.inJustDecodeBounds = false;
-        float scale = Math.max(scaleWidth, scaleHeight);
-        opts.inSampleSize = (int) scale;
-        WeakReference<Bitmap> weak = new WeakReference<Bitmap>(BitmapFactory.decodeFile(path, opts));
-        return Bitmap.createScaledBitmap(weak.get(), w, h, true);
+        return convertToBitmap(path, w, h, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * 按比例获取bitmap, 解码时采样并缩放到不小于需要的宽高, 宽高比和原图相同时不需要再缩放,
+     * 不同时缩放之前解码的图片放入 {@link BitmapPool} 复用
+     *
+     * @param path   图片的路径
+     * @param w      需要获取的比例宽
+     * @param h      需要获取的比例长
+     * @param config 不需要透明度时可以使用 RGB_565 减少一半内存, Android 8.0以上可以使用 HARDWARE
+     * @return Bitmap, 可能和其它调用者共用, 不要修改或者回收
+     * @see BitmapDecoder#decodeFile(String, int, int, Bitmap.Config)
+     */
+    public Bitmap convertToBitmap(String path, int w, int h, Bitmap.Config config) {
+        String key = BitmapCache.key(path + "#" + new File(path).lastModified(), w, h, config);
+        Bitmap bitmap = BitmapCache.getInstance().get(key);
+        if (bitmap != null) return bitmap;
+        bitmap = scaleTo(BitmapDecoder.decodeFile(path, w, h, config), w, h);
+        if (bitmap != null) BitmapCache.getInstance().put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * 裁剪图片的一部分并缩放为指定的宽高, 只解码裁剪的区域
+     *
+     * @param path   图片的路径
+     * @param region 裁剪的区域, 原图的坐标
+     * @param w      需要获取的宽
+     * @param h      需要获取的长
+     * @param config 同 {@link #convertToBitmap(String, int, int, Bitmap.Config)}
+     * @return Bitmap, 失败时返回null
+     */
+    public Bitmap convertToBitmap(String path, Rect region, int w, int h, Bitmap.Config config) {
+        return scaleTo(BitmapDecoder.decodeRegion(path, region, w, h, config), w, h);
+    }
+
+    /**
+     * 大小不同时缩放为指定的宽高, 缩放之前的图片放入 {@link BitmapPool} 复用
+     */
+    private Bitmap scaleTo(Bitmap decoded, int w, int h) {
+        if (decoded == null || (decoded.getWidth() == w && decoded.getHeight() == h)) return decoded;
+        Bitmap bitmap = Bitmap.createScaledBitmap(decoded, w, h, true);
+        if (bitmap != decoded) BitmapPool.getInstance().put(decoded);
+        return bitmap;
     }
 
     /**
@@ -136,6 +136,7 @@ public abstract class AbsAdapterLayout extends ViewGroup {
 
     protected void onLayoutItemRemoved(int positionStart, int itemCount) {
         for (int i = positionStart; i < positionStart + itemCount; i++) {
+            DefaultImageLoader.getInstance().clearAll(getChildAt(i));
             removeViewAt(i);
         }
     }
@@ -0,0 +1,567 @@
+package com.dzenm.helper.view;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.ImageView;
+
+import com.dzenm.helper.R;
+import com.dzenm.helper.file.DiskCache;
+import com.dzenm.helper.log.Logger;
+import com.dzenm.helper.os.ScreenHelper;
+import com.dzenm.helper.photo.BitmapCache;
+import com.dzenm.helper.photo.BitmapDecoder;
+import com.dzenm.helper.photo.BitmapPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author dzenm
+ * @date 2020-03-18 09:30
+ * <pre>
+ * photoLayout.setImageLoader(DefaultImageLoader.getInstance().setPlaceholder(R.drawable.placeholder));
+ * </pre>
+ * 没有设置 {@link ImageLoader} 时使用的图片加载. 支持Bitmap、Drawable、资源id、文件路径、File、Uri
+ * (file://, content://, android.resource://) 和 http(s) 地址, 网络图片下载到 {@link DiskCache} 中.
+ * <p>
+ * 在有界的线程池中按ImageView的大小采样解码, 相同的图片和大小只解码一次, 同时请求的ImageView共用一个请求.
+ * ImageView重新加载其它图片或者从窗口中移除时取消之前的请求, 重新添加到窗口时继续加载.
+ * 解码后的图片保存在 {@link BitmapCache} 中, ImageView显示时持有引用, 显示其它图片或者从窗口中移除之后释放,
+ * 不再显示并且被移出缓存的图片放入 {@link BitmapPool} 复用. 除了解码以外的方法都需要在主线程中调用
+ */
+public class DefaultImageLoader implements ImageLoader {
+
+    private static final String TAG = DefaultImageLoader.class.getSimpleName() + "| ";
+
+    private static final int THREAD_COUNT = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int CONNECT_TIMEOUT = 15 * 1000;
+    private static final int READ_TIMEOUT = 30 * 1000;
+    private static final long DISK_CACHE_SIZE = 50 * 1024 * 1024;
+
+    private static volatile DefaultImageLoader sInstance;
+
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final BitmapCache mBitmapCache = BitmapCache.getInstance();
+
+    /**
+     * 正在解码的请求, key为图片和目标大小
+     */
+    private final HashMap<String, Request> mRequests = new HashMap<>();
+
+    /**
+     * 正在下载的网络图片, 同一个地址只下载一次
+     */
+    private final ConcurrentHashMap<String, Object> mDownloads = new ConcurrentHashMap<>();
+
+    private Context mContext;
+    private volatile DiskCache mDiskCache;
+    private int mPlaceholder;
+
+    private final View.OnAttachStateChangeListener mAttachListener = new View.OnAttachStateChangeListener() {
+        @Override
+        public void onViewAttachedToWindow(View v) {
+            Displayed displayed = getDisplayed(v);
+            if (displayed != null && displayed.isReleased) restore((ImageView) v, displayed);
+            Target target = getTarget(v);
+            if (target != null && target.isPaused) {
+                target.isPaused = false;
+                prepare(target);
+            }
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View v) {
+            Target target = getTarget(v);
+            if (target != null && target.isLoading()) {
+                detach(target);
+                target.isPaused = true;
+            }
+            // 不再显示的ImageView不持有引用, 丢弃之后图片可以被移出缓存并复用
+            Displayed displayed = getDisplayed(v);
+            if (displayed != null && !displayed.isReleased) {
+                displayed.isReleased = true;
+                mBitmapCache.release(displayed.mBitmap);
+            }
+        }
+    };
+
+    private DefaultImageLoader() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "image-decode-" + mCount.incrementAndGet());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+    }
+
+    public static DefaultImageLoader getInstance() {
+        if (sInstance == null) synchronized (DefaultImageLoader.class) {
+            if (sInstance == null) sInstance = new DefaultImageLoader();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param placeholder 加载过程中和加载失败时显示的图片, 为0时清空ImageView
+     * @return this
+     */
+    public DefaultImageLoader setPlaceholder(int placeholder) {
+        mPlaceholder = placeholder;
+        return this;
+    }
+
+    @Override
+    public void onLoader(RatioImageView imageView, Object image) {
+        load(imageView, image);
+    }
+
+    /**
+     * 加载图片到ImageView, 取消ImageView之前的请求
+     *
+     * @param imageView 显示的ImageView
+     * @param image     图片
+     */
+    public void load(ImageView imageView, Object image) {
+        cancel(imageView);
+        if (mContext == null) mContext = imageView.getContext().getApplicationContext();
+        if (image instanceof Bitmap) {
+            setImageBitmap(imageView, (Bitmap) image, null);
+        } else if (image instanceof Drawable) {
+            setImageDrawable(imageView, (Drawable) image);
+        } else if (image == null) {
+            setPlaceholder(imageView);
+        } else {
+            Target target = new Target(imageView, image);
+            imageView.setTag(R.id.image_loader_target_id, target);
+            imageView.removeOnAttachStateChangeListener(mAttachListener);
+            imageView.addOnAttachStateChangeListener(mAttachListener);
+            prepare(target);
+        }
+    }
+
+    /**
+     * 取消ImageView正在加载的请求, 没有其它ImageView等待同一个请求时取消解码
+     */
+    public void cancel(ImageView imageView) {
+        Target target = getTarget(imageView);
+        if (target == null) return;
+        imageView.setTag(R.id.image_loader_target_id, null);
+        detach(target);
+    }
+
+    /**
+     * 取消请求, 并释放ImageView显示的图片, 需要先给ImageView设置其它图片
+     */
+    public void clear(ImageView imageView) {
+        cancel(imageView);
+        release(imageView);
+    }
+
+    /**
+     * 释放View和子View中加载的图片, 在移除或者丢弃View之前调用, 移除之后不能再显示
+     */
+    public void clearAll(View view) {
+        if (view instanceof ImageView) {
+            ImageView imageView = (ImageView) view;
+            if (getTarget(imageView) == null && getDisplayed(imageView) == null) return;
+            imageView.setImageDrawable(null);
+            clear(imageView);
+        } else if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                clearAll(group.getChildAt(i));
+            }
+        }
+    }
+
+    /**
+     * 清空内存缓存和复用的Bitmap, 在 onTrimMemory 中调用
+     */
+    public void clearMemory() {
+        mBitmapCache.clear();
+        BitmapPool.getInstance().clear();
+    }
+
+    /**
+     * 确定目标大小, ImageView还没有测量时等待测量完成
+     */
+    private void prepare(Target target) {
+        ImageView imageView = target.mImageView;
+        if (imageView.getWidth() > 0 || imageView.getHeight() > 0 || !imageView.isLayoutRequested()) {
+            start(target);
+        } else {
+            target.isWaitingLayout = true;
+            imageView.getViewTreeObserver().addOnPreDrawListener(target);
+        }
+    }
+
+    private void start(Target target) {
+        ImageView imageView = target.mImageView;
+        int width = getTargetSize(imageView.getWidth() - imageView.getPaddingLeft() - imageView.getPaddingRight(),
+                imageView.getLayoutParams() == null ? 0 : imageView.getLayoutParams().width,
+                ScreenHelper.getDisplayWidth());
+        int height = getTargetSize(imageView.getHeight() - imageView.getPaddingTop() - imageView.getPaddingBottom(),
+                imageView.getLayoutParams() == null ? 0 : imageView.getLayoutParams().height,
+                ScreenHelper.getDisplayHeight());
+        String key = BitmapCache.key(getSource(target.mImage), width, height, Bitmap.Config.ARGB_8888);
+        Bitmap bitmap = mBitmapCache.acquire(key);
+        if (bitmap != null) {
+            imageView.setTag(R.id.image_loader_target_id, null);
+            setImageBitmap(imageView, bitmap, new Displayed(key, target.mImage, bitmap));
+            return;
+        }
+        setPlaceholder(imageView);
+        Request request = mRequests.get(key);
+        if (request == null) {
+            request = new Request(key, target.mImage, width, height);
+            mRequests.put(key, request);
+            mExecutor.execute(request);
+        }
+        request.mTargets.add(target);
+        target.mRequest = request;
+    }
+
+    /**
+     * 从请求中移除, 请求没有等待的ImageView时取消
+     */
+    private void detach(Target target) {
+        if (target.isWaitingLayout) {
+            target.isWaitingLayout = false;
+            target.mImageView.getViewTreeObserver().removeOnPreDrawListener(target);
+        }
+        Request request = target.mRequest;
+        if (request == null) return;
+        target.mRequest = null;
+        request.mTargets.remove(target);
+        if (request.mTargets.isEmpty()) {
+            request.isCanceled = true;
+            mRequests.remove(request.mKey);
+        }
+    }
+
+    /**
+     * 解码完成, 在主线程中设置到仍然在等待的ImageView
+     */
+    private void finish(Request request, Bitmap bitmap) {
+        if (mRequests.get(request.mKey) == request) mRequests.remove(request.mKey);
+        for (Target target : request.mTargets) {
+            target.mRequest = null;
+            if (getTarget(target.mImageView) != target) continue;
+            target.mImageView.setTag(R.id.image_loader_target_id, null);
+            if (bitmap != null) {
+                mBitmapCache.retain(bitmap);
+                setImageBitmap(target.mImageView, bitmap, new Displayed(request.mKey, request.mImage, bitmap));
+            } else {
+                setPlaceholder(target.mImageView);
+            }
+        }
+        request.mTargets.clear();
+        // 释放解码线程持有的引用
+        if (bitmap != null) mBitmapCache.release(bitmap);
+    }
+
+    /**
+     * ImageView当前加载的图片保存在tag中, 和ImageView一起回收
+     */
+    private static Target getTarget(View view) {
+        return (Target) view.getTag(R.id.image_loader_target_id);
+    }
+
+    private static Displayed getDisplayed(View view) {
+        return (Displayed) view.getTag(R.id.image_loader_bitmap_id);
+    }
+
+    /**
+     * 重新添加到窗口时再次持有显示的图片, 图片已经被移出缓存时可能已经被复用, 文件在移除期间被修改时
+     * 也需要重新加载
+     */
+    private void restore(ImageView imageView, Displayed displayed) {
+        Bitmap bitmap = displayed.mKey.startsWith(getSource(displayed.mImage) + "@")
+                ? mBitmapCache.acquire(displayed.mKey) : null;
+        if (bitmap == displayed.mBitmap) {
+            displayed.isReleased = false;
+        } else if (bitmap != null) {
+            setImageBitmap(imageView, bitmap, new Displayed(displayed.mKey, displayed.mImage, bitmap));
+        } else {
+            load(imageView, displayed.mImage);
+        }
+    }
+
+    /**
+     * 本地文件加上修改时间, 同一个路径的文件被重新写入之后不会使用缓存中旧的图片
+     *
+     * @return 图片在缓存key中的来源
+     */
+    private static String getSource(Object image) {
+        File file = null;
+        if (image instanceof File) {
+            file = (File) image;
+        } else if (image instanceof String && !((String) image).contains("://")) {
+            file = new File((String) image);
+        } else if (image instanceof Uri && ContentResolver.SCHEME_FILE.equals(((Uri) image).getScheme())) {
+            file = new File(((Uri) image).getPath());
+        }
+        return file == null ? String.valueOf(image) : file.getPath() + "#" + file.lastModified();
+    }
+
+    private void setPlaceholder(ImageView imageView) {
+        if (mPlaceholder != 0) {
+            imageView.setImageResource(mPlaceholder);
+        } else {
+            imageView.setImageDrawable(null);
+        }
+        release(imageView);
+    }
+
+    private void setImageDrawable(ImageView imageView, Drawable drawable) {
+        imageView.setImageDrawable(drawable);
+        release(imageView);
+    }
+
+    /**
+     * 先显示新的图片, 再释放之前显示的图片, 释放的图片可能马上被复用
+     *
+     * @param displayed 从 {@link BitmapCache} 中取得并持有引用的图片, 不是从缓存中取得时为null
+     */
+    private void setImageBitmap(ImageView imageView, Bitmap bitmap, Displayed displayed) {
+        imageView.setImageBitmap(bitmap);
+        release(imageView);
+        if (displayed != null) imageView.setTag(R.id.image_loader_bitmap_id, displayed);
+    }
+
+    /**
+     * 释放ImageView之前显示的图片
+     */
+    private void release(ImageView imageView) {
+        Displayed displayed = getDisplayed(imageView);
+        if (displayed == null) return;
+        imageView.setTag(R.id.image_loader_bitmap_id, null);
+        if (!displayed.isReleased) mBitmapCache.release(displayed.mBitmap);
+    }
+
+    /**
+     * @param measured     测量的大小
+     * @param layoutParams 布局参数中的大小
+     * @param screen       屏幕的大小, 没有确定的大小时使用
+     */
+    private static int getTargetSize(int measured, int layoutParams, int screen) {
+        if (measured > 0) return measured;
+        if (layoutParams > 0) return layoutParams;
+        return screen;
+    }
+
+    /**
+     * 在解码线程中执行
+     */
+    private Bitmap decode(Object image, int width, int height) throws IOException {
+        if (image instanceof Integer) {
+            return BitmapDecoder.decodeResource(mContext.getResources(), (Integer) image, width, height);
+        } else if (image instanceof File) {
+            return BitmapDecoder.decodeFile(((File) image).getPath(), width, height);
+        } else if (image instanceof Uri) {
+            return decodeUri((Uri) image, width, height);
+        } else if (image instanceof String) {
+            String path = (String) image;
+            if (path.startsWith("http://") || path.startsWith("https://")) {
+                File file = download(path);
+                return file == null ? null : BitmapDecoder.decodeFile(file.getPath(), width, height);
+            } else if (path.contains("://")) {
+                return decodeUri(Uri.parse(path), width, height);
+            }
+            return BitmapDecoder.decodeFile(path, width, height);
+        }
+        Logger.w(TAG + "unsupported image: " + image);
+        return null;
+    }
+
+    private Bitmap decodeUri(Uri uri, int width, int height) throws IOException {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            return BitmapDecoder.decodeFile(uri.getPath(), width, height);
+        }
+        return BitmapDecoder.decodeUri(mContext.getContentResolver(), uri, width, height);
+    }
+
+    /**
+     * 下载网络图片到磁盘缓存, 同一个地址正在下载时等待下载完成
+     *
+     * @return 缓存的文件, 下载失败时返回null
+     */
+    private File download(String url) throws IOException {
+        DiskCache cache = getDiskCache();
+        File file = cache.get(url);
+        if (file != null) return file;
+
+        Object lock = new Object();
+        Object downloading = mDownloads.putIfAbsent(url, lock);
+        if (downloading != null) {
+            synchronized (downloading) {
+                while (mDownloads.get(url) == downloading) {
+                    try {
+                        downloading.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                }
+            }
+            return cache.get(url);
+        }
+        try {
+            DiskCache.Editor editor = cache.edit(url);
+            if (editor == null) return null;
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            try (InputStream is = connection.getInputStream(); OutputStream os = editor.newOutputStream()) {
+                byte[] buffer = new byte[16 * 1024];
+                int count;
+                while ((count = is.read(buffer)) != -1) {
+                    os.write(buffer, 0, count);
+                }
+            } catch (IOException e) {
+                editor.abort();
+                throw e;
+            } finally {
+                connection.disconnect();
+            }
+            editor.commit();
+            return cache.get(url);
+        } finally {
+            mDownloads.remove(url);
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private DiskCache getDiskCache() {
+        if (mDiskCache == null) synchronized (this) {
+            if (mDiskCache == null) {
+                mDiskCache = DiskCache.open(new File(mContext.getCacheDir(), "image"), DISK_CACHE_SIZE);
+            }
+        }
+        return mDiskCache;
+    }
+
+    /**
+     * 一次解码, 可以有多个ImageView等待
+     */
+    private final class Request implements Runnable {
+
+        private final String mKey;
+        private final Object mImage;
+        private final int mWidth;
+        private final int mHeight;
+        private final List<Target> mTargets = new ArrayList<>(1);
+        private volatile boolean isCanceled;
+
+        Request(String key, Object image, int width, int height) {
+            mKey = key;
+            mImage = image;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public void run() {
+            if (isCanceled) return;
+            Bitmap bitmap = null;
+            try {
+                bitmap = decode(mImage, mWidth, mHeight);
+            } catch (IOException | OutOfMemoryError e) {
+                Logger.e(TAG + "load failed: " + mImage + ", " + e);
+            }
+            // 解码线程持有一个引用, 显示到ImageView之后释放, 避免显示之前被复用
+            if (bitmap != null) mBitmapCache.putAcquired(mKey, bitmap);
+            final Bitmap result = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    finish(Request.this, result);
+                }
+            });
+        }
+    }
+
+    /**
+     * 一个ImageView加载的图片
+     */
+    private final class Target implements ViewTreeObserver.OnPreDrawListener {
+
+        private final ImageView mImageView;
+        private final Object mImage;
+        private Request mRequest;
+        private boolean isWaitingLayout;
+
+        /**
+         * 从窗口移除时取消, 重新添加时继续加载
+         */
+        private boolean isPaused;
+
+        Target(ImageView imageView, Object image) {
+            mImageView = imageView;
+            mImage = image;
+        }
+
+        boolean isLoading() {
+            return mRequest != null || isWaitingLayout;
+        }
+
+        @Override
+        public boolean onPreDraw() {
+            if (isWaitingLayout) {
+                isWaitingLayout = false;
+                mImageView.getViewTreeObserver().removeOnPreDrawListener(this);
+                if (getTarget(mImageView) == this) start(this);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * ImageView显示的从 {@link BitmapCache} 中取得的图片, 从窗口移除时释放引用, 重新添加时再次持有
+     */
+    private static final class Displayed {
+
+        private final String mKey;
+        private final Object mImage;
+        private final Bitmap mBitmap;
+        private boolean isReleased;
+
+        Displayed(String key, Object image, Bitmap bitmap) {
+            mKey = key;
+            mImage = image;
+            mBitmap = bitmap;
+        }
+    }
+}
@@ -30,6 +30,9 @@ public class ImageAdapter<T> extends AbsAdapterLayout.AbsAdapter {
         mLayoutId = layoutId;
     }
 
+    /**
+     * @param imageLoader 图片加载的方式, 不设置时使用 {@link DefaultImageLoader}
+     */
     public void setImageLoader(ImageLoader imageLoader) {
         this.mLoader = imageLoader;
     }
@@ -75,14 +78,12 @@ public class ImageAdapter<T> extends AbsAdapterLayout.AbsAdapter {
     @Override
     public void onBindView(View view, final int position) {
         final RatioImageView imageView = (RatioImageView) view;
-        if (mLoader == null) {
-            throw new NullPointerException("must be use a image loader");
-        }
         imageView.setPivotX(0);
         imageView.setPivotY(0);
         imageView.setScaleType(ImageView.ScaleType.CENTER_CROP);
         if (position == mData.size()) {
             imageView.setImageResource(R.drawable.ic_add);
+            DefaultImageLoader.getInstance().clear(imageView);
             DrawableHelper.ripple(R.color.colorLightGray, R.color.colorHint).into(imageView);
             if (mOnItemClickListener != null) {
                 imageView.setOnClickListener(new View.OnClickListener() {
@@ -93,7 +94,8 @@ public class ImageAdapter<T> extends AbsAdapterLayout.AbsAdapter {
                 });
             }
         } else {
-            mLoader.onLoader(imageView, getItem(position));
+            ImageLoader loader = mLoader == null ? DefaultImageLoader.getInstance() : mLoader;
+            loader.onLoader(imageView, getItem(position));
             if (getItemCount() == mMaxCount && !isEditable) {
                 imageView.setNumber(mNumber);
             }
@@ -8,6 +8,9 @@ import android.widget.ImageView;
 /**
  * @author dzenm
  * @date 2019-10-10 16:42
+ * <p>
+ * 通过ImageMatrix缩放和移动ImageView中的图片, 很大的图片配合 {@link TiledImageDrawable} 使用,
+ * 放大时只解码可见区域的图块
  */
 public class ImageZoomHelper {
 
@@ -36,6 +39,16 @@ public class ImageZoomHelper {
 
     private ImageView mImageView;
 
+    /**
+     * 在其它View的触摸事件中缩放和移动ImageView, 用于ImageView本身不接收触摸事件时
+     *
+     * @param imageView 缩放和移动的ImageView
+     * @param event     触摸事件
+     */
+    public void onTouchEvent(ImageView imageView, MotionEvent event) {
+        bindImageView(imageView, event);
+    }
+
     void bindImageView(ImageView imageView, MotionEvent event) {
         if (isDefaultMatrix) {
             mImageView = imageView;
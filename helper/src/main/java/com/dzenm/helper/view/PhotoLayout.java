@@ -157,7 +157,7 @@ public class PhotoLayout extends GridLayout {
     }
 
     /**
-     * 图片加载的方式 {@link ImageLoader}, 使用第三方图片加载框架, 如Glide
+     * 图片加载的方式 {@link ImageLoader}, 使用第三方图片加载框架, 如Glide, 不设置时使用 {@link DefaultImageLoader}
      *
      * @param imageLoader 图片加载的接口
      */
@@ -191,10 +191,14 @@ public class PhotoLayout extends GridLayout {
     private void newRatioImageView(Object image) {
         if (mCurrentPosition < mTotalNumber) {
             RatioImageView imageView = addRatioImageView(image, mCurrentPosition);
-            mImageLoader.onLoader(imageView, image);
+            getImageLoader().onLoader(imageView, image);
         }
     }
 
+    private ImageLoader getImageLoader() {
+        return mImageLoader == null ? DefaultImageLoader.getInstance() : mImageLoader;
+    }
+
     public PhotoLayout(Context context) {
         this(context, null);
     }
@@ -355,7 +359,7 @@ public class PhotoLayout extends GridLayout {
      */
     private void previewImage(Object object) {
         PreviewDialog.newInstance((AppCompatActivity) getContext())
-                .setImageLoader(mImageLoader)
+                .setImageLoader(getImageLoader())
                 .load(object)
                 .show();
     }
@@ -386,6 +390,7 @@ public class PhotoLayout extends GridLayout {
      * @param view 移除的View
      */
     private void removeRatioImageView(View view) {
+        if (getImageLoader() == DefaultImageLoader.getInstance()) DefaultImageLoader.getInstance().clearAll(view);
         removeView(view);
         mCurrentPosition--;
         setEmptyRatioImageViewVisible(true);
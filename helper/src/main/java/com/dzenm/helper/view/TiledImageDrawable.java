@@ -0,0 +1,375 @@
+package com.dzenm.helper.view;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.dzenm.helper.log.Logger;
+import com.dzenm.helper.os.ScreenHelper;
+import com.dzenm.helper.photo.BitmapDecoder;
+import com.dzenm.helper.photo.BitmapPool;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author dzenm
+ * @date 2020-03-20 10:10
+ * <pre>
+ * TiledImageDrawable drawable = new TiledImageDrawable(path);
+ * imageView.setImageDrawable(drawable);
+ * imageView.setImageZoomHelper(new ImageZoomHelper());
+ * ...
+ * drawable.recycle();
+ * </pre>
+ * 用于显示很大的图片, 大小为原图的大小, 但不会解码整张原图. 先解码一张屏幕大小的底图, 放大到底图不够清晰时,
+ * 按当前的缩放比例选择2的幂次的采样率, 通过 {@link BitmapRegionDecoder} 在后台线程中只解码可见区域的图块,
+ * 解码完成之前显示底图. 图块保存在按字节限制大小的LRU中, 移除的图块放入 {@link BitmapPool} 复用,
+ * 同一个采样率的图块大小相同, 解码新图块时基本都能复用. 除了解码以外的方法都需要在主线程中调用
+ * <p>
+ * 缩放比例从显示这个Drawable的ImageView的 {@link ImageView#getImageMatrix()} 中取得,
+ * 配合 {@link ImageZoomHelper} 或者其它修改ImageMatrix的方式缩放和移动
+ */
+public class TiledImageDrawable extends Drawable {
+
+    private static final String TAG = TiledImageDrawable.class.getSimpleName() + "| ";
+
+    /**
+     * 解码后图块的边长
+     */
+    private static final int TILE_SIZE = 512;
+
+    /**
+     * BitmapRegionDecoder的解码是同步的, 每个线程使用一个解码器
+     */
+    private static final int THREAD_COUNT = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+
+    private final String mPath;
+    private final int mWidth, mHeight;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * 空闲的解码器, 每个解码线程最多使用一个
+     */
+    private final ArrayDeque<BitmapRegionDecoder> mDecoders = new ArrayDeque<>();
+
+    private final LruCache<String, Bitmap> mTiles;
+
+    /**
+     * 一个图块的字节数
+     */
+    private final int mTileBytes;
+
+    /**
+     * 最近一次绘制时可见但还没有解码的图块, 每次绘制时替换, 解码线程开始解码之前检查是否还需要
+     */
+    private volatile Set<String> mVisibleTiles = Collections.emptySet();
+    private final HashSet<String> mLoadingTiles = new HashSet<>();
+
+    /**
+     * JPEG没有透明度, 图块使用 RGB_565
+     */
+    private final Bitmap.Config mConfig;
+
+    private final Matrix mMatrix = new Matrix();
+    private final float[] mValues = new float[9];
+    private final Rect mClipRect = new Rect();
+    private final Rect mTileRect = new Rect();
+    private final Rect mDrawRect = new Rect();
+
+    private Bitmap mBaseBitmap;
+    private boolean isLoadingBase;
+    private volatile boolean isRecycled;
+
+    /**
+     * @param path 图片的路径, 只支持本地文件
+     */
+    public TiledImageDrawable(String path) {
+        mPath = path;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        mWidth = Math.max(options.outWidth, 0);
+        mHeight = Math.max(options.outHeight, 0);
+        mConfig = "image/jpeg".equals(options.outMimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+
+        mExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+                10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "tile-decode-" + mCount.incrementAndGet());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+
+        // 图块的像素是屏幕的1~2倍, 可见的图块最多是屏幕的4倍加上边缘的图块, 缓存要能保存所有可见的图块,
+        // 否则同一次绘制的图块会互相移除. 多出的一半保存刚刚移出屏幕的图块. Android 8.0以下像素在Java堆中,
+        // 和 BitmapCache、BitmapPool 一起不能超过堆的一半, 超出时绘制时使用更大的采样率减少可见的图块
+        mTileBytes = TILE_SIZE * TILE_SIZE * (mConfig == Bitmap.Config.RGB_565 ? 2 : 4);
+        long visibleSize = (long) (2 * ScreenHelper.getDisplayWidth() + 2 * TILE_SIZE)
+                * (2 * ScreenHelper.getDisplayHeight() + 2 * TILE_SIZE) * mTileBytes / (TILE_SIZE * TILE_SIZE);
+        long maxSize = Math.min(visibleSize + visibleSize / 2, Runtime.getRuntime().maxMemory() / 4);
+        mTiles = new LruCache<String, Bitmap>((int) Math.max(maxSize, mTileBytes)) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                BitmapPool.getInstance().put(oldValue);
+            }
+        };
+    }
+
+    /**
+     * 不再显示时回收底图、图块和解码器, 回收之后不能再使用
+     */
+    public void recycle() {
+        if (isRecycled) return;
+        isRecycled = true;
+        mExecutor.shutdownNow();
+        mVisibleTiles = Collections.emptySet();
+        mTiles.evictAll();
+        if (mBaseBitmap != null) {
+            BitmapPool.getInstance().put(mBaseBitmap);
+            mBaseBitmap = null;
+        }
+        synchronized (mDecoders) {
+            for (BitmapRegionDecoder decoder : mDecoders) decoder.recycle();
+            mDecoders.clear();
+        }
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public void draw(@NonNull Canvas canvas) {
+        if (isRecycled || mWidth == 0 || mHeight == 0) return;
+        Rect bounds = getBounds();
+        if (bounds.isEmpty()) return;
+        if (mBaseBitmap == null) {
+            loadBase();
+        } else {
+            canvas.drawBitmap(mBaseBitmap, null, bounds, mPaint);
+        }
+
+        // 原图的1个像素在屏幕上的大小
+        float boundsScale = (float) bounds.width() / mWidth;
+        float scale = boundsScale * getImageScale();
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1f) sampleSize *= 2;
+        // 底图已经足够清晰时不需要图块, 底图放大不超过1.2倍时仍然只显示底图
+        if (mBaseBitmap == null || scale <= 1.2f * mBaseBitmap.getWidth() / mWidth
+                || !canvas.getClipBounds(mClipRect) || !mClipRect.intersect(bounds)) {
+            mVisibleTiles = Collections.emptySet();
+            return;
+        }
+
+        // 可见区域转换为原图的坐标
+        int left = (int) ((mClipRect.left - bounds.left) / boundsScale);
+        int top = (int) ((mClipRect.top - bounds.top) / boundsScale);
+        int right = (int) Math.ceil((mClipRect.right - bounds.left) / boundsScale);
+        int bottom = (int) Math.ceil((mClipRect.bottom - bounds.top) / boundsScale);
+        int tileSize = TILE_SIZE * sampleSize;
+        // 可见的图块放不进缓存时降低清晰度, 否则同一次绘制的图块会互相移除, 一直重复解码
+        while (tileSize < Math.max(mWidth, mHeight)
+                && (long) countTiles(left, right, mWidth, tileSize) * countTiles(top, bottom, mHeight, tileSize)
+                * mTileBytes > mTiles.maxSize()) {
+            sampleSize *= 2;
+            tileSize *= 2;
+        }
+        HashMap<String, Rect> missing = new HashMap<>();
+        for (int row = top / tileSize; row * tileSize < Math.min(bottom, mHeight); row++) {
+            for (int column = left / tileSize; column * tileSize < Math.min(right, mWidth); column++) {
+                String key = sampleSize + "_" + column + "_" + row;
+                mTileRect.set(column * tileSize, row * tileSize,
+                        Math.min((column + 1) * tileSize, mWidth), Math.min((row + 1) * tileSize, mHeight));
+                Bitmap tile = mTiles.get(key);
+                if (tile == null) {
+                    missing.put(key, new Rect(mTileRect));
+                } else {
+                    mDrawRect.set(bounds.left + Math.round(mTileRect.left * boundsScale),
+                            bounds.top + Math.round(mTileRect.top * boundsScale),
+                            bounds.left + Math.round(mTileRect.right * boundsScale),
+                            bounds.top + Math.round(mTileRect.bottom * boundsScale));
+                    canvas.drawBitmap(tile, null, mDrawRect, mPaint);
+                }
+            }
+        }
+        mVisibleTiles = missing.keySet();
+        for (Map.Entry<String, Rect> entry : missing.entrySet()) {
+            loadTile(entry.getKey(), entry.getValue(), sampleSize);
+        }
+    }
+
+    /**
+     * @return 一个方向上可见的图块数量
+     */
+    private static int countTiles(int start, int end, int size, int tileSize) {
+        return (Math.min(end, size) + tileSize - 1) / tileSize - start / tileSize;
+    }
+
+    /**
+     * @return 显示这个Drawable的ImageView的缩放比例, 不在ImageView中时为1
+     */
+    private float getImageScale() {
+        Callback callback = getCallback();
+        if (!(callback instanceof ImageView)) return 1f;
+        ImageView imageView = (ImageView) callback;
+        mMatrix.set(imageView.getImageMatrix());
+        mMatrix.getValues(mValues);
+        return Math.abs(mValues[Matrix.MSCALE_X]) * Math.abs(imageView.getScaleX());
+    }
+
+    private void loadBase() {
+        if (isLoadingBase) return;
+        isLoadingBase = true;
+        // 底图完整地显示在屏幕中, 不需要超过屏幕的大小
+        float scale = Math.min(1f, Math.min((float) ScreenHelper.getDisplayWidth() / mWidth,
+                (float) ScreenHelper.getDisplayHeight() / mHeight));
+        final int width = Math.max(1, (int) (mWidth * scale)), height = Math.max(1, (int) (mHeight * scale));
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = BitmapDecoder.decodeFile(mPath, width, height, mConfig);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isRecycled) {
+                            BitmapPool.getInstance().put(bitmap);
+                        } else if (bitmap != null) {
+                            mBaseBitmap = bitmap;
+                            invalidateSelf();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void loadTile(final String key, final Rect rect, final int sampleSize) {
+        if (!mLoadingTiles.add(key)) return;
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean skipped = !mVisibleTiles.contains(key);
+                final Bitmap bitmap = skipped ? null : decodeTile(rect, sampleSize);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mLoadingTiles.remove(key);
+                        if (isRecycled) {
+                            BitmapPool.getInstance().put(bitmap);
+                        } else if (bitmap != null) {
+                            mTiles.put(key, bitmap);
+                            invalidateSelf();
+                        } else if (skipped && mVisibleTiles.contains(key)) {
+                            // 跳过之后又移动回来了, 重新绘制时再次解码
+                            invalidateSelf();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void execute(Runnable runnable) {
+        if (isRecycled) return;
+        mExecutor.execute(runnable);
+    }
+
+    /**
+     * 在解码线程中调用, 从空闲的解码器中取一个解码, 没有时创建
+     */
+    @Nullable
+    private Bitmap decodeTile(Rect rect, int sampleSize) {
+        BitmapRegionDecoder decoder;
+        synchronized (mDecoders) {
+            decoder = mDecoders.poll();
+        }
+        try {
+            if (decoder == null) decoder = BitmapRegionDecoder.newInstance(mPath, false);
+            if (isRecycled) return null;
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = mConfig;
+            BitmapPool.getInstance().setInBitmap(options,
+                    (rect.width() + sampleSize - 1) / sampleSize, (rect.height() + sampleSize - 1) / sampleSize);
+            try {
+                return decoder.decodeRegion(rect, options);
+            } catch (IllegalArgumentException e) {
+                // 复用的Bitmap不能用于这个图块
+                BitmapPool.getInstance().put(options.inBitmap);
+                options.inBitmap = null;
+                return decoder.decodeRegion(rect, options);
+            }
+        } catch (IOException | OutOfMemoryError e) {
+            Logger.e(TAG + "decode tile failed: " + mPath + " " + rect + ", " + e);
+            return null;
+        } finally {
+            if (decoder != null) synchronized (mDecoders) {
+                if (isRecycled) {
+                    decoder.recycle();
+                } else {
+                    mDecoders.add(decoder);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(@Nullable ColorFilter colorFilter) {
+        mPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}